@@ -0,0 +1,57 @@
+package com.getbase.android.db.fluentsqlite;
+
+import static com.getbase.android.db.fluentsqlite.Expressions.cases;
+import static com.getbase.android.db.fluentsqlite.Expressions.coalesce;
+import static com.getbase.android.db.fluentsqlite.Expressions.column;
+import static com.getbase.android.db.fluentsqlite.Expressions.literal;
+import static com.getbase.android.db.fluentsqlite.Expressions.literals;
+
+import com.getbase.android.db.fluentsqlite.Expressions.Expression;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+public class ExpressionsBenchmark {
+
+  @Benchmark
+  public String comparisonChain() {
+    return column("t", "a").eq().arg()
+        .and().column("t", "b").gt().literal(10)
+        .and().column("t", "c").is().not().nul()
+        .or().column("t", "d").ne().literal("foo")
+        .toRawSql();
+  }
+
+  @Benchmark
+  public String inList() {
+    return column("id").in(literals(1, 2, 3, 4, 5, 6, 7, 8, 9, 10)).toRawSql();
+  }
+
+  @Benchmark
+  public String functionsAndCases() {
+    Expression e = cases()
+        .when(column("status").eq().literal(0)).then(literal("new"))
+        .when(column("status").eq().literal(1)).then(literal("open"))
+        .otherwise(coalesce(column("label"), literal("unknown")));
+    return e.toRawSql();
+  }
+
+  @Benchmark
+  public Object[] mergedArgs() {
+    return column("a").eq().arg()
+        .and().column("b").eq().arg()
+        .and().column("c").in(Expressions.arg(), Expressions.arg())
+        .getMergedArgs(1, "two", 3L, 4.0);
+  }
+
+  @Benchmark
+  public String nestedPredicates() {
+    Expression e = column("a").eq().arg();
+    for (int i = 0; i < 100; i++) {
+      e = column("b").eq().arg().or(e);
+    }
+    return e.getSql();
+  }
+}
@@ -0,0 +1,107 @@
+package com.getbase.android.db.fluentsqlite;
+
+import static com.getbase.android.db.fluentsqlite.Expressions.arg;
+import static com.getbase.android.db.fluentsqlite.Expressions.column;
+import static com.getbase.android.db.fluentsqlite.Query.select;
+
+import com.getbase.android.db.fluentsqlite.Query.QueryBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+
+  private static final TableSet DEALS = TableSet.of("deals");
+
+  private Query mJoinedQuery;
+
+  @Setup
+  public void setUp() {
+    mJoinedQuery = joinedQueryBuilder().build();
+  }
+
+  @Benchmark
+  public RawQuery simpleQuery() {
+    return select()
+        .columns("id", "name", "email")
+        .from("contacts")
+        .where(column("owner_id").eq().arg(), 42)
+        .orderBy("name")
+        .limit(50)
+        .build()
+        .toRawQuery();
+  }
+
+  @Benchmark
+  public RawQuery joinedQuery() {
+    return joinedQueryBuilder().build().toRawQuery();
+  }
+
+  @Benchmark
+  public RawQuery compoundQuery() {
+    return select()
+        .column("id").from("contacts").where("deleted = ?", 0)
+        .union()
+        .select().column("id").from("leads").where("deleted = ?", 0)
+        .union().all()
+        .select().column("id").from("deals").where("deleted = ?", 0)
+        .orderBy("id")
+        .limit(100)
+        .build()
+        .toRawQuery();
+  }
+
+  @Benchmark
+  public RawQuery subqueryQuery() {
+    return select()
+        .allColumns()
+        .from(select().column("contact_id").from("notes").where(column("created_at").gt().arg(), 1000L))
+        .as("recent")
+        .where(column("contact_id").in(select().column("id").from("contacts").where("owner_id = ?", 42)))
+        .where(column("contact_id").notIn(select().column("contact_id").from("archived")))
+        .build()
+        .toRawQuery();
+  }
+
+  @Benchmark
+  public RawQuery buildUponCopy() {
+    return mJoinedQuery
+        .buildUpon()
+        .where(column("c", "email").is().not().nul())
+        .build()
+        .toRawQuery();
+  }
+
+  @Benchmark
+  public Query buildUponOnly() {
+    return mJoinedQuery.buildUpon().build();
+  }
+
+  @Benchmark
+  public boolean tableSetIntersects() {
+    return mJoinedQuery.getTableSet().intersects(DEALS);
+  }
+
+  private static QueryBuilder joinedQueryBuilder() {
+    return select()
+        .column("c", "id")
+        .column("c", "name")
+        .column("o", "name").as("owner_name")
+        .expr(Expressions.count(column("d", "id"))).as("deals_count")
+        .from("contacts").as("c")
+        .left().join("users").as("o")
+        .on(column("c", "owner_id").eq().column("o", "id"))
+        .left().join("deals").as("d")
+        .on(column("d", "contact_id").eq().column("c", "id"))
+        .where(column("c", "deleted").eq().arg(), 0)
+        .where(column("o", "active").eq().arg(), 1)
+        .groupBy(column("c", "id"))
+        .having(Expressions.count(column("d", "id")).gt().arg(), 2)
+        .orderBy(column("c", "name")).asc()
+        .limit(25)
+        .offset(50);
+  }
+}
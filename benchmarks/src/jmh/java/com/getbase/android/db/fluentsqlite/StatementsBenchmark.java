@@ -0,0 +1,83 @@
+package com.getbase.android.db.fluentsqlite;
+
+import static com.getbase.android.db.fluentsqlite.Delete.delete;
+import static com.getbase.android.db.fluentsqlite.Expressions.column;
+import static com.getbase.android.db.fluentsqlite.Insert.insert;
+import static com.getbase.android.db.fluentsqlite.Query.select;
+import static com.getbase.android.db.fluentsqlite.Update.update;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Benchmark)
+public class StatementsBenchmark {
+
+  @Benchmark
+  public String insertOrReplace() {
+    return insert()
+        .into("contacts")
+        .value("name", "John")
+        .value("email", "john@example.com")
+        .value("owner_id", 42)
+        .value("deleted", false)
+        .orReplace()
+        .getStatementSql();
+  }
+
+  @Benchmark
+  public String upsert() {
+    return insert()
+        .into("contacts")
+        .value("name", "John")
+        .value("email", "john@example.com")
+        .value("owner_id", 42)
+        .onConflict("email")
+        .doUpdateExcluded("name", "owner_id")
+        .getStatementSql();
+  }
+
+  @Benchmark
+  public String insertWithSelect() {
+    return insert()
+        .into("archived")
+        .columns("contact_id", "archived_at")
+        .resultOf(select().column("id").expr(Expressions.literal(1000L)).from("contacts").where("deleted = ?", 1))
+        .getSql();
+  }
+
+  @Benchmark
+  public void updateValues(Blackhole bh) {
+    Update update = update()
+        .table("contacts")
+        .value("name", "John")
+        .value("email", "john@example.com")
+        .where(column("id").eq().arg(), 42)
+        .where("deleted = ?", 0);
+    bh.consume(update.getSelection());
+    bh.consume(update.getSelectionArgs());
+  }
+
+  @Benchmark
+  public void updateWithCustomExpressions(Blackhole bh) {
+    Update update = update()
+        .table("contacts")
+        .value("name", "John")
+        .setColumn("version", Expressions.expr("version + 1"))
+        .setColumn("updated_at", "strftime('%s', 'now')")
+        .where(column("id").eq().arg(), 42);
+    bh.consume(update.getStatementSql());
+    bh.consume(update.getStatementArgs());
+  }
+
+  @Benchmark
+  public void deleteWhere(Blackhole bh) {
+    Delete delete = delete()
+        .from("contacts")
+        .where(column("owner_id").eq().arg(), 42)
+        .where(column("id").in(select().column("contact_id").from("archived")));
+    bh.consume(delete.getSelection());
+    bh.consume(delete.getSelectionArgs());
+  }
+}
@@ -176,6 +176,50 @@ public class FluentCursor extends CrossProcessCursorWrapper {
     }
   }
 
+  /**
+   * Returns the values of given columns in the last row of this cursor, which
+   * can be passed to {@code QueryBuilder.seekAfter()} to fetch the next page.
+   * The values keep their SQLite types: Long, Double, String or byte[].
+   * This method doesn't close the cursor and restores its position.
+   *
+   * @param columns Columns corresponding to the ORDER BY terms of the query
+   * @return Values of given columns in the last row or null if the cursor is empty
+   * @throws IllegalStateException if any of the values is NULL, because keyset
+   * pagination cannot continue after NULL value
+   */
+  public Object[] getContinuationToken(String... columns) {
+    int position = getPosition();
+    try {
+      if (!moveToLast()) {
+        return null;
+      }
+
+      Object[] values = new Object[columns.length];
+      for (int i = 0; i < columns.length; i++) {
+        int columnIndex = getColumnIndexOrThrow(columns[i]);
+        switch (getType(columnIndex)) {
+        case FIELD_TYPE_INTEGER:
+          values[i] = getLong(columnIndex);
+          break;
+        case FIELD_TYPE_FLOAT:
+          values[i] = getDouble(columnIndex);
+          break;
+        case FIELD_TYPE_STRING:
+          values[i] = getString(columnIndex);
+          break;
+        case FIELD_TYPE_BLOB:
+          values[i] = getBlob(columnIndex);
+          break;
+        default:
+          throw new IllegalStateException("Keyset pagination cannot continue after NULL value of column " + columns[i]);
+        }
+      }
+      return values;
+    } finally {
+      moveToPosition(position);
+    }
+  }
+
   /**
    * Sets the notification {@code Uri} on wrapped {@code Cursor}.
    *
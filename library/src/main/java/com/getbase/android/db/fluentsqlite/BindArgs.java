@@ -0,0 +1,82 @@
+package com.getbase.android.db.fluentsqlite;
+
+import com.getbase.android.db.provider.Utils;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabase.CursorFactory;
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteQuery;
+
+final class BindArgs {
+  private BindArgs() {
+  }
+
+  static boolean isTyped(Object arg) {
+    return arg == null ||
+        arg instanceof Long ||
+        arg instanceof Integer ||
+        arg instanceof Short ||
+        arg instanceof Byte ||
+        arg instanceof Double ||
+        arg instanceof Float ||
+        arg instanceof Boolean ||
+        arg instanceof byte[];
+  }
+
+  static boolean containsTyped(Object[] args) {
+    for (Object arg : args) {
+      if (isTyped(arg)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static boolean containsTyped(Iterable<?> args) {
+    for (Object arg : args) {
+      if (isTyped(arg)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static void bind(SQLiteProgram program, int index, Object arg) {
+    if (isTyped(arg) || arg instanceof String) {
+      Utils.bindContentValueArg(program, index, arg);
+    } else {
+      program.bindString(index, arg.toString());
+    }
+  }
+
+  static void bindAll(SQLiteProgram program, Object[] args) {
+    for (int i = 0; i < args.length; i++) {
+      bind(program, i + 1, args[i]);
+    }
+  }
+
+  static String[] toStrings(Object[] args) {
+    String[] strings = new String[args.length];
+    for (int i = 0; i < args.length; i++) {
+      strings[i] = args[i] != null ? args[i].toString() : null;
+    }
+    return strings;
+  }
+
+  static final class BindingCursorFactory implements CursorFactory {
+    final Object[] mArgs;
+
+    BindingCursorFactory(Object[] args) {
+      mArgs = args;
+    }
+
+    @Override
+    public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable, SQLiteQuery query) {
+      bindAll(query, mArgs);
+      return new SQLiteCursor(masterQuery, editTable, query);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package com.getbase.android.db.fluentsqlite;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Columns constrained by an {@link Expressions.Expression}, used by
+ * {@link IndexActions#forQuery(Query)}. Only the constraints in form of
+ * {@code column OPERATOR ...} are recorded.
+ */
+final class ColumnUsage {
+  private static final Set<String> EQUALITY_OPERATORS = ImmutableSet.of("==", "IS", "IN");
+  private static final Set<String> RANGE_OPERATORS = ImmutableSet.of(">", ">=", "<", "<=");
+
+  final Set<String> mEqualityColumns = new LinkedHashSet<>();
+  final Set<String> mRangeColumns = new LinkedHashSet<>();
+  boolean mDisjunction;
+
+  void onOperator(String column, String operator) {
+    if ("OR".equals(operator)) {
+      mDisjunction = true;
+    } else if (column != null) {
+      if (EQUALITY_OPERATORS.contains(operator)) {
+        mEqualityColumns.add(column);
+      } else if (RANGE_OPERATORS.contains(operator)) {
+        mRangeColumns.add(column);
+      }
+    }
+  }
+
+  void addAll(ColumnUsage other) {
+    mEqualityColumns.addAll(other.mEqualityColumns);
+    mRangeColumns.addAll(other.mRangeColumns);
+    mDisjunction |= other.mDisjunction;
+  }
+}
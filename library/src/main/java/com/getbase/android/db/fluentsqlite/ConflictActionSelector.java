@@ -0,0 +1,30 @@
+package com.getbase.android.db.fluentsqlite;
+
+import com.getbase.android.db.fluentsqlite.Expressions.Expression;
+
+import java.util.Map;
+
+/**
+ * Action of the UPSERT clause. UPSERT is supported since SQLite 3.24,
+ * i.e. since Android 11.
+ */
+public interface ConflictActionSelector<T> {
+  T doNothing();
+
+  /**
+   * Note that when the conflicting row is updated, SQLite doesn't change the
+   * last inserted row id, so the row id returned by {@link Insert#perform}
+   * is meaningless for such rows, apart from -1 meaning failure. For the same
+   * reason {@link Insert.BulkInsert#performForRowIds} is not supported.
+   *
+   * @param args Values for the arg placeholders of assignment expressions, in
+   * the iteration order of the assignments map
+   */
+  T doUpdate(Map<String, ? extends Expression> assignments, Object... args);
+
+  /**
+   * Same as {@link #doUpdate(Map, Object...)} assigning the
+   * {@code excluded.column} value to each of the columns.
+   */
+  T doUpdateExcluded(String... columns);
+}
@@ -2,14 +2,17 @@ package com.getbase.android.db.fluentsqlite;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.getbase.android.db.fluentsqlite.ExecutionListeners.Execution;
 import com.getbase.android.db.fluentsqlite.Expressions.Expression;
 import com.google.common.base.Functions;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.Lists;
 
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 import java.util.Arrays;
 import java.util.List;
@@ -18,6 +21,7 @@ public class Delete implements DeleteTableSelector {
   private String mTable;
   private List<String> mSelections = Lists.newArrayList();
   private List<Object> mSelectionArgs = Lists.newArrayList();
+  private List<KeySet> mKeySets = Lists.newArrayList();
 
   private Delete() {
   }
@@ -27,11 +31,60 @@ public class Delete implements DeleteTableSelector {
   }
 
   public int perform(SQLiteDatabase db) {
-    return db.delete(
-        mTable,
-        Joiner.on(" AND ").join(mSelections),
-        FluentIterable.from(mSelectionArgs).transform(Functions.toStringFunction()).toArray(String.class)
-    );
+    Execution execution = ExecutionListeners.start(db);
+    int rows = performDelete(db);
+    if (execution != null) {
+      execution.finish(getStatementSql(), mSelectionArgs.size(), rows);
+    }
+    return rows;
+  }
+
+  private int performDelete(SQLiteDatabase db) {
+    KeySet.Scope scope = KeySet.load(db, mKeySets);
+    try {
+      int rows;
+      if (BindArgs.containsTyped(mSelectionArgs) || StatementCache.isOpen(db)) {
+        rows = performCompiledStatement(db);
+      } else {
+        rows = db.delete(mTable, getSelection(), getSelectionArgs());
+      }
+      scope.setSuccessful();
+      return rows;
+    } finally {
+      scope.close();
+    }
+  }
+
+  String getStatementSql() {
+    String selection = getSelection();
+    if (Strings.isNullOrEmpty(selection)) {
+      return "DELETE FROM " + mTable;
+    }
+    return "DELETE FROM " + mTable + " WHERE " + selection;
+  }
+
+  @SuppressWarnings("NewApi")
+  private int performCompiledStatement(SQLiteDatabase db) {
+    String sql = getStatementSql();
+    SQLiteStatement statement = StatementCache.acquire(db, sql);
+    try {
+      int argIndex = 1;
+      for (Object arg : mSelectionArgs) {
+        BindArgs.bind(statement, argIndex++, arg);
+      }
+
+      return statement.executeUpdateDelete();
+    } finally {
+      StatementCache.release(db, sql, statement);
+    }
+  }
+
+  String getSelection() {
+    return KeySet.bind(Joiner.on(" AND ").join(mSelections), mKeySets);
+  }
+
+  String[] getSelectionArgs() {
+    return FluentIterable.from(mSelectionArgs).transform(Functions.toStringFunction()).toArray(String.class);
   }
 
   @Override
@@ -56,6 +109,7 @@ public class Delete implements DeleteTableSelector {
 
   @SafeVarargs
   public final <T> Delete where(Expression expression, T... selectionArgs) {
+    mKeySets.addAll(expression.getKeySets());
     return where(expression.getSql(), expression.getMergedArgs(selectionArgs));
   }
 }
@@ -0,0 +1,27 @@
+package com.getbase.android.db.fluentsqlite;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Receives timings of every statement executed by {@link Query}, {@link Insert},
+ * {@link Update}, {@link Delete}, {@link ViewActions}, {@link FtsActions} and
+ * {@link IndexActions}. Register it with
+ * {@link ExecutionListeners#setListener(ExecutionListener)}.
+ *
+ * Called on the thread that executed the statement, so the implementation
+ * should be fast and thread-safe.
+ */
+public interface ExecutionListener {
+  /**
+   * @param db Database on which the statement was executed
+   * @param sql Executed statement, or an equivalent one for inserts, updates
+   * and deletes performed by {@link SQLiteDatabase} methods
+   * @param argsCount Number of bound args
+   * @param elapsedNanos Execution time. For queries returning a cursor it
+   * covers only preparing the statement, since SQLite runs the query when
+   * the cursor is accessed for the first time.
+   * @param rows Number of rows returned or affected, or -1 if unknown, e.g.
+   * for queries returning a cursor
+   */
+  void onStatementExecuted(SQLiteDatabase db, String sql, int argsCount, long elapsedNanos, long rows);
+}
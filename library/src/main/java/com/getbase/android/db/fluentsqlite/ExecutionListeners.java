@@ -0,0 +1,52 @@
+package com.getbase.android.db.fluentsqlite;
+
+import android.database.sqlite.SQLiteDatabase;
+
+public final class ExecutionListeners {
+  private static volatile ExecutionListener sListener;
+
+  private ExecutionListeners() {
+  }
+
+  /**
+   * Sets the listener notified about every statement executed by fluentsqlite
+   * classes, or removes it if null is passed. When no listener is set, the
+   * statements are executed without any timing overhead.
+   */
+  public static void setListener(ExecutionListener listener) {
+    sListener = listener;
+  }
+
+  /**
+   * Starts timing of a statement, or returns null if there is no listener,
+   * in which case the SQL to report doesn't have to be built at all.
+   */
+  static Execution start(SQLiteDatabase db) {
+    ExecutionListener listener = sListener;
+    return listener != null ? new Execution(listener, db) : null;
+  }
+
+  static void execSQL(SQLiteDatabase db, String sql) {
+    Execution execution = start(db);
+    db.execSQL(sql);
+    if (execution != null) {
+      execution.finish(sql, 0, -1);
+    }
+  }
+
+  static final class Execution {
+    private final ExecutionListener mListener;
+    private final SQLiteDatabase mDb;
+    private final long mStart;
+
+    private Execution(ExecutionListener listener, SQLiteDatabase db) {
+      mListener = listener;
+      mDb = db;
+      mStart = System.nanoTime();
+    }
+
+    void finish(String sql, int argsCount, long rows) {
+      mListener.onStatementExecuted(mDb, sql, argsCount, System.nanoTime() - mStart, rows);
+    }
+  }
+}
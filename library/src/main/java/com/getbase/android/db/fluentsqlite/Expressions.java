@@ -2,20 +2,22 @@ package com.getbase.android.db.fluentsqlite;
 
 import com.getbase.android.db.fluentsqlite.Query.QueryBuilder;
 import com.google.common.base.Function;
-import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 public final class Expressions {
@@ -31,35 +33,7 @@ public final class Expressions {
   }
 
   static void addExpressionArgs(List<Object> args, Expression expression, Object... boundArgs) {
-    if (boundArgs == null) {
-      Preconditions.checkArgument(
-          expression.getArgsCount() == expression.getBoundArgs().size(),
-          "Expression contains args placeholders, but bound args list is null"
-      );
-      args.addAll(expression.getBoundArgs().values());
-    } else {
-      Preconditions.checkArgument(
-          expression.getArgsCount() == boundArgs.length + expression.getBoundArgs().size(),
-          "Invalid number of arguments: expression has %s arg placeholders and %s bound args, so I need %s additional args specified, but there was %s args",
-          expression.getArgsCount(),
-          expression.getBoundArgs().size(),
-          (expression.getArgsCount() - expression.getBoundArgs().size()),
-          boundArgs.length
-      );
-
-      int boundArgsIndex = 0;
-      for (int i = 0; i < expression.getArgsCount(); i++) {
-        final Object arg;
-
-        if (expression.getBoundArgs().containsKey(i)) {
-          arg = expression.getBoundArgs().get(i);
-        } else {
-          arg = boundArgs[boundArgsIndex++];
-        }
-
-        args.add(arg);
-      }
-    }
+    Collections.addAll(args, expression.getMergedArgs(boundArgs));
   }
 
   public interface UnaryOperator {
@@ -68,6 +42,7 @@ public final class Expressions {
 
   public interface UnaryPostfixOperator {
     ExpressionCombiner collate(CollatingSequence collatingSequence);
+    ExpressionCombiner over(Window window);
   }
 
   public enum CollatingSequence {
@@ -83,14 +58,20 @@ public final class Expressions {
     }
 
     public String toRawSql() {
-      Preconditions.checkState(getBoundArgs().isEmpty(), "Cannot get raw sql for Expression with bound args.");
+      Preconditions.checkState(getBoundArgsCount() == 0, "Cannot get raw sql for Expression with bound args.");
       return getSql();
     }
 
     abstract String getSql();
     abstract int getArgsCount();
+    abstract int getBoundArgsCount();
     abstract Map<Integer, Object> getBoundArgs();
     abstract Set<String> getTables();
+    abstract List<KeySet> getKeySets();
+    abstract SetMultimap<String, String> getTableAliases();
+    abstract ColumnUsage getColumnUsage();
+    abstract int estimateLength();
+    abstract void render(StringBuilder sql, ArgSlots args);
     @SuppressWarnings("unchecked")
     abstract <T> Object[] getMergedArgs(T... boundArgs);
   }
@@ -111,6 +92,17 @@ public final class Expressions {
     ExpressionCombiner max(Expression e);
     ExpressionCombiner min(Expression e);
 
+    // window functions, used with over()
+    ExpressionCombiner rowNumber();
+    ExpressionCombiner rank();
+    ExpressionCombiner denseRank();
+    ExpressionCombiner lag(Expression e);
+    ExpressionCombiner lag(Expression e, int offset);
+    ExpressionCombiner lag(Expression e, int offset, Expression defaultValue);
+    ExpressionCombiner lead(Expression e);
+    ExpressionCombiner lead(Expression e, int offset);
+    ExpressionCombiner lead(Expression e, int offset, Expression defaultValue);
+
     // coalescing functions
     ExpressionCombiner ifNull(Expression left, Expression right);
     ExpressionCombiner nullIf(Expression left, Expression right);
@@ -121,11 +113,98 @@ public final class Expressions {
     ExpressionCombiner concat(Expression... e);
     ExpressionCombiner join(String on, Expression... e);
 
+    // full-text search functions, used with FTS5 tables
+    ExpressionCombiner bm25(String table, double... weights);
+    ExpressionCombiner highlight(String table, int column, String open, String close);
+    ExpressionCombiner snippet(String table, int column, String open, String close, String ellipsis, int tokens);
+
+    // full-text search functions, used with FTS4 tables
+    ExpressionCombiner fts4Snippet(String table, String open, String close, String ellipsis, int column, int tokens);
+
     // generic expression
     ExpressionCombiner expr(String expression);
     ExpressionCombiner expr(Expression expression);
   }
 
+  /**
+   * Definition of the window for window functions and aggregates used with
+   * {@link UnaryPostfixOperator#over(Window)}:
+   *
+   * <pre>
+   * sum(column("amount")).over(window()
+   *     .partitionBy(column("account_id"))
+   *     .orderBy(column("created_at"))
+   *     .rowsBetween(FrameBound.UNBOUNDED_PRECEDING, FrameBound.CURRENT_ROW))
+   * </pre>
+   *
+   * Window functions are supported since SQLite 3.25, i.e. since Android 11.
+   */
+  public static final class Window {
+    private final List<Expression> mPartitionBy = Lists.newArrayList();
+    private final List<Expression> mOrderBy = Lists.newArrayList();
+    private final List<String> mOrderByDirections = Lists.newArrayList();
+    private String mFrame;
+
+    private Window() {
+    }
+
+    public Window partitionBy(Expression... expressions) {
+      Collections.addAll(mPartitionBy, expressions);
+      return this;
+    }
+
+    public Window orderBy(Expression expression) {
+      return orderBy(expression, "");
+    }
+
+    public Window orderByDesc(Expression expression) {
+      return orderBy(expression, " DESC");
+    }
+
+    private Window orderBy(Expression expression, String direction) {
+      Preconditions.checkState(mFrame == null, "ORDER BY terms have to be specified before the frame");
+      mOrderBy.add(expression);
+      mOrderByDirections.add(direction);
+      return this;
+    }
+
+    public Window rowsBetween(FrameBound start, FrameBound end) {
+      return frame("ROWS", start, end);
+    }
+
+    public Window rangeBetween(FrameBound start, FrameBound end) {
+      return frame("RANGE", start, end);
+    }
+
+    private Window frame(String type, FrameBound start, FrameBound end) {
+      Preconditions.checkState(mFrame == null, "Window frame can be specified only once");
+      mFrame = type + " BETWEEN " + start.mSql + " AND " + end.mSql;
+      return this;
+    }
+  }
+
+  public static final class FrameBound {
+    public static final FrameBound UNBOUNDED_PRECEDING = new FrameBound("UNBOUNDED PRECEDING");
+    public static final FrameBound CURRENT_ROW = new FrameBound("CURRENT ROW");
+    public static final FrameBound UNBOUNDED_FOLLOWING = new FrameBound("UNBOUNDED FOLLOWING");
+
+    private final String mSql;
+
+    private FrameBound(String sql) {
+      mSql = sql;
+    }
+
+    public static FrameBound preceding(int rows) {
+      Preconditions.checkArgument(rows >= 0);
+      return new FrameBound(rows + " PRECEDING");
+    }
+
+    public static FrameBound following(int rows) {
+      Preconditions.checkArgument(rows >= 0);
+      return new FrameBound(rows + " FOLLOWING");
+    }
+  }
+
   public interface CaseExpressions {
     CaseCondition cases();
     CaseCondition cases(Expression e);
@@ -164,9 +243,13 @@ public final class Expressions {
     ExpressionBuilder is();
     ExpressionCombiner is(Expression e);
 
+    ExpressionBuilder match();
+    ExpressionCombiner match(Expression e);
+
     ExpressionCombiner in(Query subquery);
     ExpressionCombiner in(QueryBuilder subqueryBuilder);
     ExpressionCombiner in(Expression... e);
+    ExpressionCombiner inKeySet(Collection<?> keys);
 
     ExpressionCombiner notIn(Query subquery);
     ExpressionCombiner notIn(QueryBuilder subqueryBuilder);
@@ -186,31 +269,62 @@ public final class Expressions {
 
   // mirror all method from ExpressionBuilder interface
   public static ExpressionCore not() {
-    return new Builder().not();
+    return Builder.EMPTY.not();
   }
 
   public static ExpressionCombiner column(String col) {
-    return new Builder().column(col);
+    return Builder.EMPTY.column(col);
   }
 
   public static ExpressionCombiner column(String table, String col) {
-    return new Builder().column(table, col);
+    return Builder.EMPTY.column(table, col);
+  }
+
+  /**
+   * Renders {@code col IN (SELECT ...)} against a TEMP table with the given
+   * keys. The table is created and filled by the perform methods of
+   * {@link Query}, {@link Update} and {@link Delete}, and dropped after the
+   * statement is executed, so for tens of thousands of keys SQLite can search
+   * the table's primary key index instead of evaluating a huge IN list.
+   *
+   * The rows returned by {@link Query#perform(android.database.sqlite.SQLiteDatabase)}
+   * are copied into Java heap before the table is dropped, so the cursor
+   * stays readable after that, but unlike a windowed cursor it holds the
+   * whole result in memory. Use {@link Query#stream(android.database.sqlite.SQLiteDatabase, int)}
+   * for large results: it copies at most one chunk at a time, at the cost of
+   * loading the keys again for every chunk. The table can't outlive the
+   * perform call, because it exists only on the connection held by the
+   * calling thread, while the cursor may be read and closed on other threads.
+   *
+   * Queries using key sets cannot be converted to raw or prepared queries,
+   * used in INSERT ... SELECT or as view definitions.
+   */
+  public static ExpressionCombiner inKeySet(String col, Collection<?> keys) {
+    return Builder.EMPTY.column(col).inKeySet(keys);
+  }
+
+  /**
+   * Refers to the value of the column in the row which failed to be inserted,
+   * for use in {@link ConflictActionSelector#doUpdate(Map, Object...)}.
+   */
+  public static ExpressionCombiner excluded(String col) {
+    return column("excluded", col);
   }
 
   public static ExpressionCombiner arg() {
-    return new Builder().arg();
+    return Builder.EMPTY.arg();
   }
 
   public static ExpressionCombiner nul() {
-    return new Builder().nul();
+    return Builder.EMPTY.nul();
   }
 
   public static ExpressionCombiner literal(Number number) {
-    return new Builder().literal(number);
+    return Builder.EMPTY.literal(number);
   }
 
   public static ExpressionCombiner literal(Object object) {
-    return new Builder().literal(object);
+    return Builder.EMPTY.literal(object);
   }
 
   @SafeVarargs
@@ -237,214 +351,380 @@ public final class Expressions {
   }
 
   public static ExpressionCombiner sum(Expression e) {
-    return new Builder().sum(e);
+    return Builder.EMPTY.sum(e);
   }
 
   public static ExpressionCombiner count(Expression e) {
-    return new Builder().count(e);
+    return Builder.EMPTY.count(e);
   }
 
   public static ExpressionCombiner count() {
-    return new Builder().count();
+    return Builder.EMPTY.count();
   }
 
   public static ExpressionCombiner max(Expression e) {
-    return new Builder().max(e);
+    return Builder.EMPTY.max(e);
   }
 
   public static ExpressionCombiner min(Expression e) {
-    return new Builder().min(e);
+    return Builder.EMPTY.min(e);
+  }
+
+  public static ExpressionCombiner rowNumber() {
+    return Builder.EMPTY.rowNumber();
+  }
+
+  public static ExpressionCombiner rank() {
+    return Builder.EMPTY.rank();
+  }
+
+  public static ExpressionCombiner denseRank() {
+    return Builder.EMPTY.denseRank();
+  }
+
+  public static ExpressionCombiner lag(Expression e) {
+    return Builder.EMPTY.lag(e);
+  }
+
+  public static ExpressionCombiner lag(Expression e, int offset) {
+    return Builder.EMPTY.lag(e, offset);
+  }
+
+  public static ExpressionCombiner lag(Expression e, int offset, Expression defaultValue) {
+    return Builder.EMPTY.lag(e, offset, defaultValue);
+  }
+
+  public static ExpressionCombiner lead(Expression e) {
+    return Builder.EMPTY.lead(e);
+  }
+
+  public static ExpressionCombiner lead(Expression e, int offset) {
+    return Builder.EMPTY.lead(e, offset);
+  }
+
+  public static ExpressionCombiner lead(Expression e, int offset, Expression defaultValue) {
+    return Builder.EMPTY.lead(e, offset, defaultValue);
+  }
+
+  /**
+   * FTS5 relevance of the current row, lower values are better matches.
+   * The hidden {@code rank} column of FTS5 table is an alias for bm25 with
+   * default weights, use {@code column("rank")} to refer to it, since
+   * {@link #rank()} is the window function.
+   * <p>
+   * Note that FTS5 is not compiled into the SQLite shipped with Android.
+   */
+  public static ExpressionCombiner bm25(String table, double... weights) {
+    return Builder.EMPTY.bm25(table, weights);
+  }
+
+  /**
+   * FTS5 {@code highlight()} function. FTS4 has no equivalent, use
+   * {@link #fts4Snippet(String, String, String, String, int, int)} with
+   * enough tokens to cover the whole column instead.
+   * <p>
+   * Note that FTS5 is not compiled into the SQLite shipped with Android.
+   */
+  public static ExpressionCombiner highlight(String table, int column, String open, String close) {
+    return Builder.EMPTY.highlight(table, column, open, close);
+  }
+
+  /**
+   * FTS5 {@code snippet()} function. FTS4 version takes the arguments in
+   * different order, use {@link #fts4Snippet(String, String, String, String, int, int)}
+   * for FTS4 tables.
+   * <p>
+   * Note that FTS5 is not compiled into the SQLite shipped with Android.
+   */
+  public static ExpressionCombiner snippet(String table, int column, String open, String close, String ellipsis, int tokens) {
+    return Builder.EMPTY.snippet(table, column, open, close, ellipsis, tokens);
+  }
+
+  /**
+   * FTS4 {@code snippet()} function. Pass -1 as column to pick the snippet
+   * from any column. The tokens count can be negative, in which case its
+   * absolute value is the maximum number of tokens.
+   */
+  public static ExpressionCombiner fts4Snippet(String table, String open, String close, String ellipsis, int column, int tokens) {
+    return Builder.EMPTY.fts4Snippet(table, open, close, ellipsis, column, tokens);
+  }
+
+  public static Window window() {
+    return new Window();
   }
 
   public static ExpressionCombiner ifNull(Expression left, Expression right) {
-    return new Builder().ifNull(left, right);
+    return Builder.EMPTY.ifNull(left, right);
   }
 
   public static ExpressionCombiner nullIf(Expression left, Expression right) {
-    return new Builder().nullIf(left, right);
+    return Builder.EMPTY.nullIf(left, right);
   }
 
   public static ExpressionCombiner coalesce(Expression... expressions) {
-    return new Builder().coalesce(expressions);
+    return Builder.EMPTY.coalesce(expressions);
   }
 
   public static ExpressionCombiner length(Expression e) {
-    return new Builder().length(e);
+    return Builder.EMPTY.length(e);
   }
 
   public static ExpressionCombiner concat(Expression... e) {
-    return new Builder().concat(e);
+    return Builder.EMPTY.concat(e);
   }
 
   public static ExpressionCombiner expr(String expression) {
-    return new Builder().expr(expression);
+    return Builder.EMPTY.expr(expression);
   }
 
   public static ExpressionCombiner expr(Expression expression) {
-    return new Builder().expr(expression);
+    return Builder.EMPTY.expr(expression);
   }
 
   public static ExpressionCombiner join(String on, Expression... e) {
-    return new Builder().join(on, e);
+    return Builder.EMPTY.join(on, e);
   }
 
   public static CaseCondition cases() {
-    return new Builder().cases();
+    return Builder.EMPTY.cases();
   }
 
   public static CaseCondition cases(Expression e) {
-    return new Builder().cases(e);
+    return Builder.EMPTY.cases(e);
   }
 
-  private static class Builder extends ExpressionCombiner implements ExpressionBuilder, CaseExpressionBuilder, CaseValue {
-    private StringBuilder mBuilder = new StringBuilder();
-    private Map<Integer, Object> mArgs = Maps.newHashMap();
-    private List<Query> mSubqueries = Lists.newArrayList();
-    private int mArgsCount;
+  /**
+   * Marks the arg slots which are filled with the args passed along with the
+   * expression, e.g. to {@link Query.QueryBuilder#where(Expression, Object[])}.
+   */
+  private static final Object UNBOUND_ARG = new Object();
+
+  static final class ArgSlots {
+    private Object[] mSlots = new Object[8];
+    private int mSize;
+    private int mBoundArgsCount;
 
-    private static final Joiner ARGS_JOINER = Joiner.on(", ");
-    private static final Joiner CONCAT_JOINER = Joiner.on(" || ");
-    private static final Function<Expression, String> GET_EXPR_SQL = new Function<Expression, String>() {
-      @Override
-      public String apply(Expression e) {
-        return e.getSql();
+    void addUnbound() {
+      add(UNBOUND_ARG);
+    }
+
+    void addBound(Object[] args) {
+      for (Object arg : args) {
+        add(arg);
       }
-    };
+      mBoundArgsCount += args.length;
+    }
 
-    private void expressions(Expression e) {
-      addArgs(e);
+    private void addSlots(Object[] slots, int boundArgsCount) {
+      for (Object slot : slots) {
+        add(slot);
+      }
+      mBoundArgsCount += boundArgsCount;
+    }
 
-      mBuilder
-          .append("(")
-          .append(e.getSql())
-          .append(")");
+    private void add(Object slot) {
+      if (mSize == mSlots.length) {
+        mSlots = Arrays.copyOf(mSlots, mSize * 2);
+      }
+      mSlots[mSize++] = slot;
     }
+  }
 
-    private void expressions(Expression... e) {
-      for (Expression expression : e) {
-        addArgs(expression);
+  // Every step of the fluent chain is an immutable node appending a single
+  // part to the previous node, so composing expressions never copies the SQL
+  // or args built so far. The SQL and arg slots are rendered once, when they
+  // are needed, and the nested expressions are rendered straight into the
+  // buffer of the enclosing expression.
+  private static final class Builder extends ExpressionCombiner implements ExpressionBuilder, CaseExpressionBuilder, CaseValue {
+    private static final Builder EMPTY = new Builder(null, null);
+
+    private static final Part EQ = new OperatorPart("==");
+    private static final Part NE = new OperatorPart("!=");
+    private static final Part GT = new OperatorPart(">");
+    private static final Part GE = new OperatorPart(">=");
+    private static final Part LT = new OperatorPart("<");
+    private static final Part LE = new OperatorPart("<=");
+    private static final Part IS = new OperatorPart("IS");
+    private static final Part MATCH = new OperatorPart("MATCH");
+    private static final Part IN = new OperatorPart("IN");
+    private static final Part OR = new OperatorPart("OR");
+    private static final Part AND = new OperatorPart("AND");
+    private static final Part NOT_IN_PREFIX = new TextPart(" NOT");
+    private static final Part NOT = new TextPart("NOT ");
+    private static final Part ARG = new ArgPart();
+    private static final Part NUL = new TextPart("NULL");
+    private static final Part COUNT_ALL = new TextPart("COUNT(*)");
+    private static final Part CASE = new TextPart("CASE");
+    private static final Part CASE_WITH_BASE = new TextPart("CASE ");
+    private static final Part WHEN = new TextPart(" WHEN ");
+    private static final Part THEN = new TextPart(" THEN ");
+    private static final Part ELSE = new TextPart(" ELSE ");
+    private static final Part END = new TextPart(" END");
+
+    private final Builder mPrevious;
+    private final Part mPart;
+    private final int mPartsCount;
+    private final int mEstimatedLength;
+
+    private volatile Rendered mRendered;
+
+    private Builder(Builder previous, Part part) {
+      mPrevious = previous;
+      mPart = part;
+      mPartsCount = previous != null ? previous.mPartsCount + 1 : 0;
+      mEstimatedLength = previous != null ? previous.mEstimatedLength + part.estimateLength() : 0;
+    }
+
+    private Builder append(Part part) {
+      return new Builder(this, part);
+    }
+
+    private Builder expressions(Expression... e) {
+      return append(new ExpressionsPart("(", ", ", ")", e));
+    }
+
+    private Part[] getParts() {
+      Part[] parts = new Part[mPartsCount];
+      Builder builder = this;
+      for (int i = mPartsCount - 1; i >= 0; i--) {
+        parts[i] = builder.mPart;
+        builder = builder.mPrevious;
       }
+      return parts;
+    }
 
-      mBuilder
-          .append("(")
-          .append(ARGS_JOINER.join(getSQLs(e)))
-          .append(")");
+    private Rendered getRendered() {
+      Rendered rendered = mRendered;
+      if (rendered == null) {
+        StringBuilder sql = new StringBuilder(mEstimatedLength);
+        ArgSlots args = new ArgSlots();
+        render(sql, args);
+        rendered = new Rendered(sql.toString(), Arrays.copyOf(args.mSlots, args.mSize), args.mBoundArgsCount);
+        mRendered = rendered;
+      }
+      return rendered;
     }
 
-    private void addArgs(Expression expression) {
-      for (Entry<Integer, Object> boundArg : expression.getBoundArgs().entrySet()) {
-        mArgs.put(mArgsCount + boundArg.getKey(), boundArg.getValue());
+    @Override
+    void render(StringBuilder sql, ArgSlots args) {
+      Rendered rendered = mRendered;
+      if (rendered != null) {
+        sql.append(rendered.mSql);
+        args.addSlots(rendered.mArgSlots, rendered.mBoundArgsCount);
+        return;
       }
-      mArgsCount += expression.getArgsCount();
+
+      int start = sql.length();
+      for (Part part : getParts()) {
+        part.render(sql, args);
+      }
+      trim(sql, start);
     }
 
-    private ExpressionBuilder binaryOperator(String operator) {
-      mBuilder.append(" ");
-      mBuilder.append(operator);
-      mBuilder.append(" ");
-      return this;
+    private static void trim(StringBuilder sql, int start) {
+      int end = sql.length();
+      while (end > start && sql.charAt(end - 1) <= ' ') {
+        end--;
+      }
+      sql.setLength(end);
+
+      int leading = start;
+      while (leading < end && sql.charAt(leading) <= ' ') {
+        leading++;
+      }
+      if (leading > start) {
+        sql.delete(start, leading);
+      }
+    }
+
+    @Override
+    int estimateLength() {
+      return mEstimatedLength;
     }
 
     @Override
     public ExpressionBuilder eq() {
-      return binaryOperator("==");
+      return append(EQ);
     }
 
     @Override
     public ExpressionCombiner eq(Expression e) {
-      eq();
-      expressions(e);
-      return this;
+      return append(EQ).expressions(e);
     }
 
     @Override
     public ExpressionBuilder ne() {
-      return binaryOperator("!=");
+      return append(NE);
     }
 
     @Override
     public ExpressionCombiner ne(Expression e) {
-      ne();
-      expressions(e);
-      return this;
+      return append(NE).expressions(e);
     }
 
     @Override
     public ExpressionBuilder gt() {
-      return binaryOperator(">");
+      return append(GT);
     }
 
     @Override
     public ExpressionCombiner gt(Expression e) {
-      gt();
-      expressions(e);
-      return this;
+      return append(GT).expressions(e);
     }
 
     @Override
     public ExpressionBuilder ge() {
-      return binaryOperator(">=");
+      return append(GE);
     }
 
     @Override
     public ExpressionCombiner ge(Expression e) {
-      ge();
-      expressions(e);
-      return this;
+      return append(GE).expressions(e);
     }
 
     @Override
     public ExpressionBuilder lt() {
-      return binaryOperator("<");
+      return append(LT);
     }
 
     @Override
     public ExpressionCombiner lt(Expression e) {
-      lt();
-      expressions(e);
-      return this;
+      return append(LT).expressions(e);
     }
 
     @Override
     public ExpressionBuilder le() {
-      return binaryOperator("<=");
+      return append(LE);
     }
 
     @Override
     public ExpressionCombiner le(Expression e) {
-      le();
-      expressions(e);
-      return this;
+      return append(LE).expressions(e);
     }
 
     @Override
     public ExpressionBuilder is() {
-      return binaryOperator("IS");
+      return append(IS);
     }
 
     @Override
     public ExpressionCombiner is(Expression e) {
-      is();
-      expressions(e);
-      return this;
+      return append(IS).expressions(e);
     }
 
     @Override
-    public ExpressionCombiner in(Query subquery) {
-      RawQuery rawQuery = subquery.toRawQuery();
-      for (String rawQueryArg : rawQuery.mRawQueryArgs) {
-        mArgs.put(mArgsCount++, rawQueryArg);
-      }
-      mSubqueries.add(subquery);
-
-      binaryOperator("IN");
+    public ExpressionBuilder match() {
+      return append(MATCH);
+    }
 
-      mBuilder
-          .append("(")
-          .append(rawQuery.mRawQuery)
-          .append(")");
+    @Override
+    public ExpressionCombiner match(Expression e) {
+      return append(MATCH).expressions(e);
+    }
 
-      return this;
+    @Override
+    public ExpressionCombiner in(Query subquery) {
+      return append(IN).append(new SubqueryPart(subquery));
     }
 
     @Override
@@ -454,15 +734,17 @@ public final class Expressions {
 
     @Override
     public ExpressionCombiner in(Expression... e) {
-      binaryOperator("IN");
-      expressions(e);
-      return this;
+      return append(IN).expressions(e);
+    }
+
+    @Override
+    public ExpressionCombiner inKeySet(Collection<?> keys) {
+      return append(IN).append(new KeySetPart(new KeySet(keys)));
     }
 
     @Override
     public ExpressionCombiner notIn(Query subquery) {
-      mBuilder.append(" NOT");
-      return in(subquery);
+      return append(NOT_IN_PREFIX).in(subquery);
     }
 
     @Override
@@ -472,105 +754,165 @@ public final class Expressions {
 
     @Override
     public ExpressionCombiner notIn(Expression... e) {
-      mBuilder.append(" NOT");
-      return in(e);
+      return append(NOT_IN_PREFIX).in(e);
     }
 
     @Override
     public ExpressionBuilder or() {
-      return binaryOperator("OR");
+      return append(OR);
     }
 
     @Override
     public ExpressionCombiner or(Expression e) {
-      or();
-      expressions(e);
-      return this;
+      return append(OR).expressions(e);
     }
 
     @Override
     public ExpressionBuilder and() {
-      return binaryOperator("AND");
+      return append(AND);
     }
 
     @Override
     public ExpressionCombiner and(Expression e) {
-      and();
-      expressions(e);
-      return this;
+      return append(AND).expressions(e);
     }
 
     @Override
     public String getSql() {
-      return mBuilder.toString().trim();
+      return getRendered().mSql;
     }
 
     @Override
     public int getArgsCount() {
-      return mArgsCount;
+      return getRendered().mArgSlots.length;
+    }
+
+    @Override
+    int getBoundArgsCount() {
+      return getRendered().mBoundArgsCount;
     }
 
     @Override
     public Map<Integer, Object> getBoundArgs() {
-      return mArgs;
+      Object[] slots = getRendered().mArgSlots;
+      Map<Integer, Object> boundArgs = Maps.newLinkedHashMap();
+      for (int i = 0; i < slots.length; i++) {
+        if (slots[i] != UNBOUND_ARG) {
+          boundArgs.put(i, slots[i]);
+        }
+      }
+      return boundArgs;
+    }
+
+    @Override
+    public List<KeySet> getKeySets() {
+      List<KeySet> keySets = Lists.newArrayList();
+      for (Part part : getParts()) {
+        part.addKeySets(keySets);
+      }
+      return keySets;
+    }
+
+    @Override
+    public SetMultimap<String, String> getTableAliases() {
+      SetMultimap<String, String> aliases = LinkedHashMultimap.create();
+      for (Part part : getParts()) {
+        part.addTableAliases(aliases);
+      }
+      return aliases;
+    }
+
+    @Override
+    public ColumnUsage getColumnUsage() {
+      ColumnUsage usage = new ColumnUsage();
+      Part previous = null;
+      // NOT binds weaker than comparisons, so it negates everything up to
+      // the next AND or OR, and the negated constraints can't use an index
+      boolean negated = false;
+      for (Part part : getParts()) {
+        if (part == NOT) {
+          negated = true;
+        } else if (part == AND || part == OR) {
+          negated = false;
+        }
+        if (!negated) {
+          part.addColumnUsage(usage, previous);
+        }
+        previous = part;
+      }
+      return usage;
     }
 
     @Override
     public Set<String> getTables() {
-      return FluentIterable
-          .from(mSubqueries)
-          .transformAndConcat(GET_TABLES)
-          .toSet();
+      Set<String> tables = Sets.newLinkedHashSet();
+      for (Part part : getParts()) {
+        part.addTables(tables);
+      }
+      return tables;
     }
 
     @SafeVarargs
     @Override
     public final <T> Object[] getMergedArgs(T... boundArgs) {
-      ArrayList<Object> args = Lists.newArrayList();
-      addExpressionArgs(args, this, boundArgs);
-      return args.toArray();
+      Rendered rendered = getRendered();
+      Object[] args = rendered.mArgSlots.clone();
+      int unboundArgsCount = args.length - rendered.mBoundArgsCount;
+
+      if (boundArgs == null) {
+        Preconditions.checkArgument(
+            unboundArgsCount == 0,
+            "Expression contains args placeholders, but bound args list is null"
+        );
+        return args;
+      }
+
+      Preconditions.checkArgument(
+          unboundArgsCount == boundArgs.length,
+          "Invalid number of arguments: expression has %s arg placeholders and %s bound args, so I need %s additional args specified, but there was %s args",
+          args.length,
+          rendered.mBoundArgsCount,
+          unboundArgsCount,
+          boundArgs.length
+      );
+
+      int boundArgsIndex = 0;
+      for (int i = 0; i < args.length && boundArgsIndex < boundArgs.length; i++) {
+        if (args[i] == UNBOUND_ARG) {
+          args[i] = boundArgs[boundArgsIndex++];
+        }
+      }
+      return args;
     }
 
     @Override
     public ExpressionCombiner column(String col) {
-      mBuilder.append(col);
-      return this;
+      return append(new ColumnPart(col, col));
     }
 
     @Override
     public ExpressionCombiner column(String table, String col) {
-      mBuilder.append(table);
-      mBuilder.append(".");
-      mBuilder.append(col);
-      return this;
+      return append(new ColumnPart(table + "." + col, col));
     }
 
     @Override
     public ExpressionCombiner arg() {
-      mBuilder.append("?");
-      ++mArgsCount;
-      return this;
+      return append(ARG);
     }
 
     @Override
     public ExpressionCombiner nul() {
-      mBuilder.append("NULL");
-      return this;
+      return append(NUL);
     }
 
     @Override
     public ExpressionCombiner literal(Number number) {
-      mBuilder.append(number.toString());
-      return this;
+      return append(new TextPart(number.toString()));
     }
 
     @Override
     public ExpressionCombiner literal(Object object) {
-      mBuilder
-          .append('\'')
-          .append(object.toString().replaceAll("'", "''"))
-          .append('\'');
-      return this;
+      return append(new TextPart("'" + object.toString().replace("'", "''") + "'"));
     }
 
     @Override
@@ -585,8 +927,7 @@ public final class Expressions {
 
     @Override
     public ExpressionCombiner count() {
-      mBuilder.append("COUNT(*)");
-      return this;
+      return append(COUNT_ALL);
     }
 
     @Override
@@ -599,6 +940,92 @@ public final class Expressions {
       return function("MIN", e);
     }
 
+    @Override
+    public ExpressionCombiner rowNumber() {
+      return function("row_number");
+    }
+
+    @Override
+    public ExpressionCombiner rank() {
+      return function("rank");
+    }
+
+    @Override
+    public ExpressionCombiner denseRank() {
+      return function("dense_rank");
+    }
+
+    @Override
+    public ExpressionCombiner lag(Expression e) {
+      return function("lag", e);
+    }
+
+    @Override
+    public ExpressionCombiner lag(Expression e, int offset) {
+      return function("lag", e, Expressions.literal(offset));
+    }
+
+    @Override
+    public ExpressionCombiner lag(Expression e, int offset, Expression defaultValue) {
+      return function("lag", e, Expressions.literal(offset), defaultValue);
+    }
+
+    @Override
+    public ExpressionCombiner lead(Expression e) {
+      return function("lead", e);
+    }
+
+    @Override
+    public ExpressionCombiner lead(Expression e, int offset) {
+      return function("lead", e, Expressions.literal(offset));
+    }
+
+    @Override
+    public ExpressionCombiner lead(Expression e, int offset, Expression defaultValue) {
+      return function("lead", e, Expressions.literal(offset), defaultValue);
+    }
+
+    @Override
+    public ExpressionCombiner bm25(String table, double... weights) {
+      Expression[] args = new Expression[weights.length + 1];
+      args[0] = Expressions.column(table);
+      for (int i = 0; i < weights.length; i++) {
+        args[i + 1] = Expressions.literal(weights[i]);
+      }
+      return function("bm25", args);
+    }
+
+    @Override
+    public ExpressionCombiner highlight(String table, int column, String open, String close) {
+      return function("highlight",
+          Expressions.column(table),
+          Expressions.literal(column),
+          Expressions.literal(open),
+          Expressions.literal(close));
+    }
+
+    @Override
+    public ExpressionCombiner snippet(String table, int column, String open, String close, String ellipsis, int tokens) {
+      return function("snippet",
+          Expressions.column(table),
+          Expressions.literal(column),
+          Expressions.literal(open),
+          Expressions.literal(close),
+          Expressions.literal(ellipsis),
+          Expressions.literal(tokens));
+    }
+
+    @Override
+    public ExpressionCombiner fts4Snippet(String table, String open, String close, String ellipsis, int column, int tokens) {
+      return function("snippet",
+          Expressions.column(table),
+          Expressions.literal(open),
+          Expressions.literal(close),
+          Expressions.literal(ellipsis),
+          Expressions.literal(column),
+          Expressions.literal(tokens));
+    }
+
     @Override
     public ExpressionCombiner ifNull(Expression left, Expression right) {
       return function("ifnull", left, right);
@@ -622,12 +1049,7 @@ public final class Expressions {
 
     @Override
     public ExpressionCombiner concat(Expression... e) {
-      mBuilder.append(CONCAT_JOINER.join(getSQLs(e)));
-      return this;
-    }
-
-    private Iterable<String> getSQLs(Expression[] e) {
-      return Iterables.transform(Arrays.asList(e), GET_EXPR_SQL);
+      return append(new ExpressionsPart("", " || ", "", e));
     }
 
     private static <T> Iterable<T> intersperse(final T element, final Iterable<T> iterable) {
@@ -670,73 +1092,346 @@ public final class Expressions {
     }
 
     private ExpressionCombiner function(String func, Expression... e) {
-      mBuilder.append(func);
-      expressions(e);
-      return this;
+      return append(new ExpressionsPart(func + "(", ", ", ")", e));
     }
 
     @Override
     public ExpressionCombiner expr(String expr) {
-      mBuilder.append(expr);
-      return this;
+      return append(new TextPart(expr));
     }
 
     @Override
     public ExpressionCombiner expr(Expression expression) {
-      expressions(expression);
-      return this;
+      return expressions(expression);
     }
 
     @Override
     public ExpressionCore not() {
-      mBuilder.append("NOT ");
-      return this;
+      return append(NOT);
     }
 
     @Override
     public ExpressionCombiner otherwise(Expression e) {
-      mBuilder.append(" ELSE ");
-      expressions(e);
-      return end();
+      return append(ELSE).expressions(e).end();
     }
 
     @Override
     public CaseValue when(Expression e) {
-      mBuilder.append(" WHEN ");
-      expressions(e);
-      return this;
+      return append(WHEN).expressions(e);
     }
 
     @Override
     public ExpressionCombiner end() {
-      mBuilder.append(" END");
-      return this;
+      return append(END);
     }
 
     @Override
     public CaseCondition cases() {
-      mBuilder.append("CASE");
-      return this;
+      return append(CASE);
     }
 
     @Override
     public CaseCondition cases(Expression e) {
-      mBuilder.append("CASE ");
-      expressions(e);
-      return this;
+      return append(CASE_WITH_BASE).expressions(e);
     }
 
     @Override
     public CaseExpressionBuilder then(Expression e) {
-      mBuilder.append(" THEN ");
-      expressions(e);
-      return this;
+      return append(THEN).expressions(e);
     }
 
     @Override
     public ExpressionCombiner collate(CollatingSequence collatingSequence) {
-      mBuilder.append(" COLLATE ").append(collatingSequence.name());
-      return this;
+      return append(new TextPart(" COLLATE " + collatingSequence.name()));
+    }
+
+    @Override
+    public ExpressionCombiner over(Window window) {
+      return append(new WindowPart(window));
+    }
+
+    private static final class Rendered {
+      final String mSql;
+      final Object[] mArgSlots;
+      final int mBoundArgsCount;
+
+      Rendered(String sql, Object[] argSlots, int boundArgsCount) {
+        mSql = sql;
+        mArgSlots = argSlots;
+        mBoundArgsCount = boundArgsCount;
+      }
+    }
+  }
+
+  private abstract static class Part {
+    abstract int estimateLength();
+    abstract void render(StringBuilder sql, ArgSlots args);
+
+    void addTables(Set<String> tables) {
+    }
+
+    void addKeySets(List<KeySet> keySets) {
+    }
+
+    void addTableAliases(SetMultimap<String, String> aliases) {
+    }
+
+    void addColumnUsage(ColumnUsage usage, Part previous) {
+    }
+  }
+
+  private static class TextPart extends Part {
+    final String mSql;
+
+    TextPart(String sql) {
+      mSql = sql;
+    }
+
+    @Override
+    int estimateLength() {
+      return mSql.length();
+    }
+
+    @Override
+    void render(StringBuilder sql, ArgSlots args) {
+      sql.append(mSql);
+    }
+  }
+
+  private static final class ColumnPart extends TextPart {
+    final String mColumn;
+
+    ColumnPart(String sql, String column) {
+      super(sql);
+      mColumn = column;
+    }
+  }
+
+  private static final class OperatorPart extends TextPart {
+    final String mOperator;
+
+    OperatorPart(String operator) {
+      super(" " + operator + " ");
+      mOperator = operator;
+    }
+
+    @Override
+    void addColumnUsage(ColumnUsage usage, Part previous) {
+      usage.onOperator(previous instanceof ColumnPart ? ((ColumnPart) previous).mColumn : null, mOperator);
+    }
+  }
+
+  private static final class ArgPart extends Part {
+    @Override
+    int estimateLength() {
+      return 1;
+    }
+
+    @Override
+    void render(StringBuilder sql, ArgSlots args) {
+      sql.append('?');
+      args.addUnbound();
+    }
+  }
+
+  private static final class ExpressionsPart extends Part {
+    private final String mPrefix;
+    private final String mSeparator;
+    private final String mSuffix;
+    private final Expression[] mExpressions;
+
+    ExpressionsPart(String prefix, String separator, String suffix, Expression[] expressions) {
+      mPrefix = prefix;
+      mSeparator = separator;
+      mSuffix = suffix;
+      mExpressions = expressions.clone();
+    }
+
+    @Override
+    int estimateLength() {
+      int length = mPrefix.length() + mSuffix.length();
+      for (Expression expression : mExpressions) {
+        length += expression.estimateLength() + mSeparator.length();
+      }
+      return length;
+    }
+
+    @Override
+    void render(StringBuilder sql, ArgSlots args) {
+      sql.append(mPrefix);
+      for (int i = 0; i < mExpressions.length; i++) {
+        if (i > 0) {
+          sql.append(mSeparator);
+        }
+        mExpressions[i].render(sql, args);
+      }
+      sql.append(mSuffix);
+    }
+
+    @Override
+    void addTables(Set<String> tables) {
+      for (Expression expression : mExpressions) {
+        tables.addAll(expression.getTables());
+      }
+    }
+
+    @Override
+    void addKeySets(List<KeySet> keySets) {
+      for (Expression expression : mExpressions) {
+        keySets.addAll(expression.getKeySets());
+      }
+    }
+
+    @Override
+    void addTableAliases(SetMultimap<String, String> aliases) {
+      for (Expression expression : mExpressions) {
+        aliases.putAll(expression.getTableAliases());
+      }
+    }
+
+    @Override
+    void addColumnUsage(ColumnUsage usage, Part previous) {
+      for (Expression expression : mExpressions) {
+        usage.addAll(expression.getColumnUsage());
+      }
+    }
+  }
+
+  private static final class SubqueryPart extends Part {
+    private final Query mSubquery;
+
+    SubqueryPart(Query subquery) {
+      mSubquery = subquery;
+    }
+
+    @Override
+    int estimateLength() {
+      return mSubquery.getSql().length() + 2;
+    }
+
+    @Override
+    void render(StringBuilder sql, ArgSlots args) {
+      sql.append('(').append(mSubquery.getSql()).append(')');
+      args.addBound(mSubquery.getArgs());
+    }
+
+    @Override
+    void addTables(Set<String> tables) {
+      tables.addAll(mSubquery.getTables());
+    }
+
+    @Override
+    void addKeySets(List<KeySet> keySets) {
+      keySets.addAll(mSubquery.getKeySets());
+    }
+
+    @Override
+    void addTableAliases(SetMultimap<String, String> aliases) {
+      aliases.putAll(mSubquery.getTableAliases());
+    }
+  }
+
+  private static final class KeySetPart extends TextPart {
+    private final KeySet mKeySet;
+
+    KeySetPart(KeySet keySet) {
+      super("(" + keySet.getSql() + ")");
+      mKeySet = keySet;
+    }
+
+    @Override
+    void addKeySets(List<KeySet> keySets) {
+      keySets.add(mKeySet);
+    }
+  }
+
+  private static final class WindowPart extends Part {
+    private final Expression[] mPartitionBy;
+    private final Expression[] mOrderBy;
+    private final String[] mOrderByDirections;
+    private final String mFrame;
+
+    WindowPart(Window window) {
+      mPartitionBy = window.mPartitionBy.toArray(new Expression[window.mPartitionBy.size()]);
+      mOrderBy = window.mOrderBy.toArray(new Expression[window.mOrderBy.size()]);
+      mOrderByDirections = window.mOrderByDirections.toArray(new String[window.mOrderByDirections.size()]);
+      mFrame = window.mFrame;
+    }
+
+    private Iterable<Expression> getExpressions() {
+      return Iterables.concat(Arrays.asList(mPartitionBy), Arrays.asList(mOrderBy));
+    }
+
+    @Override
+    int estimateLength() {
+      int length = 32 + (mFrame != null ? mFrame.length() : 0);
+      for (Expression expression : getExpressions()) {
+        length += expression.estimateLength() + 7;
+      }
+      return length;
+    }
+
+    @Override
+    void render(StringBuilder sql, ArgSlots args) {
+      sql.append(" OVER (");
+      int start = sql.length();
+      if (mPartitionBy.length > 0) {
+        sql.append("PARTITION BY ");
+        for (int i = 0; i < mPartitionBy.length; i++) {
+          if (i > 0) {
+            sql.append(", ");
+          }
+          mPartitionBy[i].render(sql, args);
+        }
+      }
+      if (mOrderBy.length > 0) {
+        if (sql.length() > start) {
+          sql.append(' ');
+        }
+        sql.append("ORDER BY ");
+        for (int i = 0; i < mOrderBy.length; i++) {
+          if (i > 0) {
+            sql.append(", ");
+          }
+          mOrderBy[i].render(sql, args);
+          sql.append(mOrderByDirections[i]);
+        }
+      }
+      if (mFrame != null) {
+        if (sql.length() > start) {
+          sql.append(' ');
+        }
+        sql.append(mFrame);
+      }
+      sql.append(')');
+    }
+
+    @Override
+    void addTables(Set<String> tables) {
+      for (Expression expression : getExpressions()) {
+        tables.addAll(expression.getTables());
+      }
+    }
+
+    @Override
+    void addKeySets(List<KeySet> keySets) {
+      for (Expression expression : getExpressions()) {
+        keySets.addAll(expression.getKeySets());
+      }
+    }
+
+    @Override
+    void addTableAliases(SetMultimap<String, String> aliases) {
+      for (Expression expression : getExpressions()) {
+        aliases.putAll(expression.getTableAliases());
+      }
+    }
+
+    @Override
+    void addColumnUsage(ColumnUsage usage, Part previous) {
+      for (Expression expression : getExpressions()) {
+        usage.addAll(expression.getColumnUsage());
+      }
     }
   }
 }
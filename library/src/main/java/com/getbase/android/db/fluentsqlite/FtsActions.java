@@ -0,0 +1,231 @@
+package com.getbase.android.db.fluentsqlite;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.List;
+
+/**
+ * DDL for full-text search virtual tables. Tables created with external
+ * content are kept in sync with the content table by triggers:
+ *
+ * <pre>
+ * FtsActions
+ *     .create(Module.FTS4)
+ *     .table("deals_fts")
+ *     .columns("name", "description")
+ *     .externalContent("deals", "_id")
+ *     .perform(db);
+ * </pre>
+ *
+ * Note that FTS5 is not compiled into the SQLite shipped with Android, so
+ * {@link Module#FTS5} tables can be only used with a bundled SQLite build.
+ */
+public final class FtsActions {
+  private FtsActions() {
+  }
+
+  public enum Module {
+    FTS4("fts4", "docid"),
+    FTS5("fts5", "rowid");
+
+    private final String mName;
+    private final String mRowId;
+
+    Module(String name, String rowId) {
+      mName = name;
+      mRowId = rowId;
+    }
+  }
+
+  public static FtsTableSelector<FtsColumnsSelector> create(Module module) {
+    return new CreateFtsTableAction(checkNotNull(module));
+  }
+
+  public static FtsTableSelector<FtsAction> dropIfExists() {
+    return new DropFtsTableAction();
+  }
+
+  /**
+   * Rebuilds the full-text index of the table with external content from the
+   * current content table rows, e.g. after the table was created for existing
+   * data.
+   */
+  public static FtsTableSelector<FtsAction> rebuild() {
+    return new RebuildFtsTableAction();
+  }
+
+  public static class DropFtsTableAction implements FtsTableSelector<FtsAction>, FtsAction {
+    private String mTable;
+
+    DropFtsTableAction() {
+    }
+
+    @Override
+    public void perform(SQLiteDatabase db) {
+      for (String trigger : getTriggers(mTable)) {
+        ExecutionListeners.execSQL(db, "DROP TRIGGER IF EXISTS " + trigger);
+      }
+      ExecutionListeners.execSQL(db, "DROP TABLE IF EXISTS " + mTable);
+    }
+
+    @Override
+    public FtsAction table(String table) {
+      mTable = checkNotNull(table);
+      return this;
+    }
+  }
+
+  public static class RebuildFtsTableAction implements FtsTableSelector<FtsAction>, FtsAction {
+    private String mTable;
+
+    RebuildFtsTableAction() {
+    }
+
+    @Override
+    public void perform(SQLiteDatabase db) {
+      ExecutionListeners.execSQL(db, "INSERT INTO " + mTable + " (" + mTable + ") VALUES ('rebuild')");
+    }
+
+    @Override
+    public FtsAction table(String table) {
+      mTable = checkNotNull(table);
+      return this;
+    }
+  }
+
+  public static class CreateFtsTableAction implements FtsTableSelector<FtsColumnsSelector>, FtsColumnsSelector, FtsAction {
+    private final Module mModule;
+    private String mTable;
+    private List<String> mColumns;
+    private String mContentTable;
+    private String mContentRowId;
+    private String mTokenizer;
+
+    CreateFtsTableAction(Module module) {
+      mModule = module;
+    }
+
+    @Override
+    public FtsColumnsSelector table(String table) {
+      mTable = checkNotNull(table);
+      return this;
+    }
+
+    @Override
+    public CreateFtsTableAction columns(String... columns) {
+      checkArgument(columns.length > 0, "FTS table requires at least one column");
+      mColumns = ImmutableList.copyOf(columns);
+      return this;
+    }
+
+    /**
+     * Creates the table without its own copy of indexed text, which is read
+     * from the specified columns of content table instead. The triggers
+     * keeping the index in sync with the content table are created as well.
+     * For FTS4 tables the content row id column has to be the rowid or its
+     * INTEGER PRIMARY KEY alias.
+     */
+    public CreateFtsTableAction externalContent(String contentTable, String contentRowId) {
+      mContentTable = checkNotNull(contentTable);
+      mContentRowId = checkNotNull(contentRowId);
+      return this;
+    }
+
+    public CreateFtsTableAction tokenize(String tokenizer) {
+      mTokenizer = checkNotNull(tokenizer);
+      return this;
+    }
+
+    @Override
+    public void perform(SQLiteDatabase db) {
+      ExecutionListeners.execSQL(db, getCreateTableSql());
+
+      if (mContentTable != null) {
+        for (String trigger : getTriggersSql()) {
+          ExecutionListeners.execSQL(db, trigger);
+        }
+      }
+    }
+
+    private String getCreateTableSql() {
+      List<String> args = Lists.newArrayList(mColumns);
+      if (mContentTable != null) {
+        args.add("content='" + mContentTable + "'");
+        if (mModule == Module.FTS5) {
+          args.add("content_rowid='" + mContentRowId + "'");
+        }
+      }
+      if (mTokenizer != null) {
+        args.add(mModule == Module.FTS5
+            ? "tokenize='" + mTokenizer + "'"
+            : "tokenize=" + mTokenizer);
+      }
+
+      return "CREATE VIRTUAL TABLE " + mTable + " USING " + mModule.mName + "(" + Joiner.on(", ").join(args) + ")";
+    }
+
+    private List<String> getTriggersSql() {
+      String insert = "INSERT INTO " + mTable + " (" + mModule.mRowId + ", " + Joiner.on(", ").join(mColumns) + ") VALUES (" + getValues("new") + ");";
+
+      if (mModule == Module.FTS5) {
+        String delete = "INSERT INTO " + mTable + " (" + mTable + ", rowid, " + Joiner.on(", ").join(mColumns) + ") VALUES ('delete', " + getValues("old") + ");";
+
+        return ImmutableList.of(
+            getTriggerSql("ai", "AFTER INSERT", insert),
+            getTriggerSql("ad", "AFTER DELETE", delete),
+            getTriggerSql("au", "AFTER UPDATE", delete + " " + insert)
+        );
+      } else {
+        // FTS4 reads the old values from content table, so they have to be
+        // removed from the index before the content row changes
+        String delete = "DELETE FROM " + mTable + " WHERE docid=old." + mContentRowId + ";";
+
+        return ImmutableList.of(
+            getTriggerSql("bu", "BEFORE UPDATE", delete),
+            getTriggerSql("bd", "BEFORE DELETE", delete),
+            getTriggerSql("au", "AFTER UPDATE", insert),
+            getTriggerSql("ai", "AFTER INSERT", insert)
+        );
+      }
+    }
+
+    private String getValues(String alias) {
+      List<String> values = Lists.newArrayList(alias + "." + mContentRowId);
+      for (String column : mColumns) {
+        values.add(alias + "." + column);
+      }
+      return Joiner.on(", ").join(values);
+    }
+
+    private String getTriggerSql(String suffix, String event, String body) {
+      return "CREATE TRIGGER " + mTable + "_" + suffix + " " + event + " ON " + mContentTable + " BEGIN " + body + " END";
+    }
+  }
+
+  private static List<String> getTriggers(String table) {
+    List<String> triggers = Lists.newArrayList();
+    for (String suffix : new String[] { "ai", "ad", "au", "bu", "bd" }) {
+      triggers.add(table + "_" + suffix);
+    }
+    return triggers;
+  }
+
+  public interface FtsTableSelector<T> {
+    T table(String table);
+  }
+
+  public interface FtsColumnsSelector {
+    CreateFtsTableAction columns(String... columns);
+  }
+
+  public interface FtsAction {
+    void perform(SQLiteDatabase db);
+  }
+}
@@ -0,0 +1,175 @@
+package com.getbase.android.db.fluentsqlite;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.getbase.android.db.fluentsqlite.Expressions.Expression;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Collections;
+import java.util.List;
+
+public final class IndexActions {
+  private IndexActions() {
+  }
+
+  public static IndexSelector<IndexTableSelector> create() {
+    return new CreateIndexAction();
+  }
+
+  public static IndexSelector<IndexAction> dropIfExists() {
+    return new DropIndexAction();
+  }
+
+  /**
+   * Builds the index which lets SQLite find the rows of given single table
+   * query without a full scan: the columns compared for equality in WHERE
+   * clause come first, followed by ORDER BY columns or, if the query is not
+   * ordered by plain columns, by one of the columns compared with range
+   * operators.
+   * <p>
+   * Only the WHERE clauses built with {@link Expressions} in form of
+   * {@code column OPERATOR ...} are taken into account, and the clauses using
+   * OR are ignored. The returned list is empty if no index can be built.
+   */
+  public static List<CreateIndexAction> forQuery(Query query) {
+    CreateIndexAction index = query.buildIndex();
+    return index != null
+        ? Collections.singletonList(index)
+        : Collections.<CreateIndexAction>emptyList();
+  }
+
+  public static class DropIndexAction implements IndexSelector<IndexAction>, IndexAction {
+    private String mIndex;
+
+    DropIndexAction() {
+    }
+
+    @Override
+    public void perform(SQLiteDatabase db) {
+      ExecutionListeners.execSQL(db, "DROP INDEX IF EXISTS " + mIndex);
+    }
+
+    @Override
+    public IndexAction index(String index) {
+      mIndex = checkNotNull(index);
+      return this;
+    }
+  }
+
+  public static class CreateIndexAction implements IndexSelector<IndexTableSelector>, IndexTableSelector, IndexAction {
+    private String mIndex;
+    private String mTable;
+    private boolean mUnique;
+    private boolean mIfNotExists;
+    private final List<String> mTerms = Lists.newArrayList();
+    private String mWhere;
+
+    CreateIndexAction() {
+    }
+
+    @Override
+    public IndexTableSelector index(String index) {
+      mIndex = checkNotNull(index);
+      return this;
+    }
+
+    @Override
+    public CreateIndexAction on(String table) {
+      mTable = checkNotNull(table);
+      return this;
+    }
+
+    public CreateIndexAction unique() {
+      mUnique = true;
+      return this;
+    }
+
+    public CreateIndexAction ifNotExists() {
+      mIfNotExists = true;
+      return this;
+    }
+
+    public CreateIndexAction columns(String... columns) {
+      for (String column : columns) {
+        column(column);
+      }
+      return this;
+    }
+
+    public CreateIndexAction column(String column) {
+      mTerms.add(checkNotNull(column));
+      return this;
+    }
+
+    public CreateIndexAction columnDesc(String column) {
+      mTerms.add(checkNotNull(column) + " DESC");
+      return this;
+    }
+
+    public CreateIndexAction expr(Expression expression) {
+      mTerms.add(getRawSql(expression));
+      return this;
+    }
+
+    /**
+     * Creates partial index, which contains only the rows matching given
+     * expression.
+     */
+    public CreateIndexAction where(Expression expression) {
+      mWhere = getRawSql(expression);
+      return this;
+    }
+
+    public String toRawSql() {
+      checkState(!mTerms.isEmpty(), "Index requires at least one column or expression");
+
+      StringBuilder builder = new StringBuilder("CREATE ");
+      if (mUnique) {
+        builder.append("UNIQUE ");
+      }
+      builder.append("INDEX ");
+      if (mIfNotExists) {
+        builder.append("IF NOT EXISTS ");
+      }
+      builder
+          .append(mIndex)
+          .append(" ON ")
+          .append(mTable)
+          .append(" (");
+      Joiner.on(", ").appendTo(builder, mTerms);
+      builder.append(")");
+      if (mWhere != null) {
+        builder.append(" WHERE ").append(mWhere);
+      }
+      return builder.toString();
+    }
+
+    @Override
+    public void perform(SQLiteDatabase db) {
+      ExecutionListeners.execSQL(db, toRawSql());
+    }
+
+    private static String getRawSql(Expression expression) {
+      checkNotNull(expression);
+      checkArgument(expression.getArgsCount() == 0, "Cannot use expression with args for Index creation");
+      return expression.getSql();
+    }
+  }
+
+  public interface IndexSelector<T> {
+    T index(String index);
+  }
+
+  public interface IndexTableSelector {
+    CreateIndexAction on(String table);
+  }
+
+  public interface IndexAction {
+    void perform(SQLiteDatabase db);
+  }
+}
@@ -2,22 +2,36 @@ package com.getbase.android.db.fluentsqlite;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.getbase.android.db.fluentsqlite.ExecutionListeners.Execution;
+import com.getbase.android.db.fluentsqlite.Expressions.Expression;
 import com.getbase.android.db.fluentsqlite.Query.QueryBuilder;
 import com.getbase.android.db.provider.Utils;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
 
 import android.content.ContentValues;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteStatement;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
 public class Insert implements InsertValuesBuilder {
   final String mTable;
   final ContentValues mValues;
+  String mConflictAlgorithm;
+  Upsert mUpsert;
 
   private Insert(String table, ContentValues values) {
     mTable = table;
@@ -54,8 +68,9 @@ public class Insert implements InsertValuesBuilder {
     @Override
     public InsertWithSelect resultOf(Query query) {
       checkNotNull(query);
+      query.checkCanBeEmbedded();
 
-      return new InsertWithSelect(mTable, query.toRawQuery(), mQueryFormColumns);
+      return new InsertWithSelect(mTable, query, mQueryFormColumns);
     }
 
     @Override
@@ -64,6 +79,11 @@ public class Insert implements InsertValuesBuilder {
       return resultOf(queryBuilder.build());
     }
 
+    @Override
+    public BulkInsert rows(Iterable<ContentValues> rows) {
+      return new BulkInsert(mTable, checkNotNull(rows));
+    }
+
     @Override
     public Insert values(ContentValues values) {
       return new Insert(mTable, new ContentValues(values));
@@ -78,26 +98,110 @@ public class Insert implements InsertValuesBuilder {
     }
   }
 
+  public Insert orReplace() {
+    mConflictAlgorithm = "OR REPLACE";
+    return this;
+  }
+
+  public Insert orIgnore() {
+    mConflictAlgorithm = "OR IGNORE";
+    return this;
+  }
+
+  public ConflictActionSelector<Insert> onConflict(String... columns) {
+    return new ConflictTarget<Insert>(columns) {
+      @Override
+      Insert withUpsert(Upsert upsert) {
+        mUpsert = upsert;
+        return Insert.this;
+      }
+    };
+  }
+
   public long perform(SQLiteDatabase db) {
-    return db.insert(mTable, null, mValues);
+    if (mConflictAlgorithm != null || mUpsert != null || StatementCache.isOpen(db) && mValues.size() > 0) {
+      // SQLiteDatabase.insert() reports errors by returning -1
+      try {
+        return performCompiledStatement(db);
+      } catch (SQLException e) {
+        return -1;
+      }
+    }
+
+    Execution execution = ExecutionListeners.start(db);
+    long rowId = db.insert(mTable, null, mValues);
+    if (execution != null) {
+      execution.finish(getInsertSql(), mValues.size(), rowId != -1 ? 1 : 0);
+    }
+    return rowId;
   }
 
   public long performOrThrow(SQLiteDatabase db) {
-    return db.insertOrThrow(mTable, null, mValues);
+    if (mConflictAlgorithm != null || mUpsert != null || StatementCache.isOpen(db) && mValues.size() > 0) {
+      return performCompiledStatement(db);
+    }
+
+    Execution execution = ExecutionListeners.start(db);
+    long rowId = db.insertOrThrow(mTable, null, mValues);
+    if (execution != null) {
+      execution.finish(getInsertSql(), mValues.size(), rowId != -1 ? 1 : 0);
+    }
+    return rowId;
+  }
+
+  private long performCompiledStatement(SQLiteDatabase db) {
+    Preconditions.checkState(mValues.size() > 0, "Cannot insert empty row with conflict clause");
+
+    Execution execution = ExecutionListeners.start(db);
+
+    long rowId;
+    CompiledInsert statement = new CompiledInsert(db, mConflictAlgorithm, mTable, mValues.keySet(), 1, mUpsert);
+    try {
+      rowId = statement.execute(mValues);
+    } finally {
+      statement.release();
+    }
+
+    if (execution != null) {
+      execution.finish(statement.mSql, statement.getArgsCount(), rowId != -1 ? 1 : 0);
+    }
+    return rowId;
+  }
+
+  String getStatementSql() {
+    return CompiledInsert.getSql(mConflictAlgorithm, mTable, CompiledInsert.sortColumns(mValues.keySet()), 1, mUpsert);
+  }
+
+  // SQLiteDatabase.insert() lists the columns in ContentValues iteration
+  // order, so the reported SQL follows the same order
+  private String getInsertSql() {
+    StringBuilder sql = new StringBuilder("INSERT INTO ").append(mTable).append(" (");
+    StringBuilder placeholders = new StringBuilder();
+    for (String column : mValues.keySet()) {
+      if (placeholders.length() > 0) {
+        sql.append(", ");
+        placeholders.append(", ");
+      }
+      sql.append(column);
+      placeholders.append('?');
+    }
+    sql.append(") VALUES (").append(placeholders).append(')');
+
+    return sql.toString();
   }
 
   public static class InsertWithSelect {
     private final String mTable;
-    private final RawQuery mQuery;
+    private final Query mQuery;
     private final List<String> mQueryFormColumns;
 
-    InsertWithSelect(String table, RawQuery query, List<String> queryFormColumns) {
+    InsertWithSelect(String table, Query query, List<String> queryFormColumns) {
       mTable = table;
       mQuery = query;
       mQueryFormColumns = queryFormColumns;
     }
 
-    public long perform(SQLiteDatabase db) {
+    String getSql() {
       StringBuilder builder = new StringBuilder();
       builder.append("INSERT INTO ").append(mTable).append(" ");
       if (!mQueryFormColumns.isEmpty()) {
@@ -106,19 +210,31 @@ public class Insert implements InsertValuesBuilder {
             .append(Joiner.on(", ").join(mQueryFormColumns))
             .append(") ");
       }
-      builder.append(mQuery.mRawQuery);
+      builder.append(mQuery.getSql());
+
+      return builder.toString();
+    }
 
-      SQLiteStatement statement = db.compileStatement(builder.toString());
+    public long perform(SQLiteDatabase db) {
+      Execution execution = ExecutionListeners.start(db);
+
+      String sql = getSql();
+      Object[] args = mQuery.getArgs();
+      long rowId;
+      SQLiteStatement statement = StatementCache.acquire(db, sql);
       try {
-        int argIndex = 1;
-        for (String arg : mQuery.mRawQueryArgs) {
-          Utils.bindContentValueArg(statement, argIndex++, arg);
-        }
+        // typed args are bound the same way as when the query is performed
+        BindArgs.bindAll(statement, args);
 
-        return statement.executeInsert();
+        rowId = statement.executeInsert();
       } finally {
-        statement.close();
+        StatementCache.release(db, sql, statement);
+      }
+
+      if (execution != null) {
+        execution.finish(sql, args.length, -1);
       }
+      return rowId;
     }
 
     public long performOrThrow(SQLiteDatabase db) {
@@ -130,6 +246,349 @@ public class Insert implements InsertValuesBuilder {
     }
   }
 
+  /**
+   * Inserts many rows inside a single transaction. One statement is compiled
+   * for every distinct set of columns and is reused for all rows having
+   * the same columns. If any insert fails, the exception is thrown and none
+   * of the rows are inserted.
+   */
+  public static class BulkInsert {
+    // SQLITE_MAX_VARIABLE_NUMBER and SQLITE_MAX_COMPOUND_SELECT defaults;
+    // before SQLite 3.8.8 every row of VALUES counts as a compound SELECT
+    private static final int MAX_BOUND_VARIABLES = 999;
+    private static final int MAX_VALUES_ROWS = 500;
+
+    final String mTable;
+    final Iterable<ContentValues> mRows;
+    boolean mMultiRowValues;
+    String mConflictAlgorithm;
+    Upsert mUpsert;
+
+    private BulkInsert(String table, Iterable<ContentValues> rows) {
+      mTable = table;
+      mRows = rows;
+    }
+
+    /**
+     * Packs consecutive rows with the same columns into single
+     * {@code INSERT ... VALUES (...), (...)} statements, each binding at most
+     * 999 args and inserting at most 500 rows. Row ids are not available in
+     * this mode.
+     */
+    public BulkInsert multiRowValues() {
+      mMultiRowValues = true;
+      return this;
+    }
+
+    public BulkInsert orReplace() {
+      mConflictAlgorithm = "OR REPLACE";
+      return this;
+    }
+
+    public BulkInsert orIgnore() {
+      mConflictAlgorithm = "OR IGNORE";
+      return this;
+    }
+
+    public ConflictActionSelector<BulkInsert> onConflict(String... columns) {
+      return new ConflictTarget<BulkInsert>(columns) {
+        @Override
+        BulkInsert withUpsert(Upsert upsert) {
+          mUpsert = upsert;
+          return BulkInsert.this;
+        }
+      };
+    }
+
+    /**
+     * @return Number of inserted rows, or updated rows for DO UPDATE inserts.
+     * The rows skipped by OR IGNORE or DO NOTHING are not counted.
+     */
+    public int perform(SQLiteDatabase db) {
+      return execute(db, false).mInsertedRowsCount;
+    }
+
+    /**
+     * @return Row ids of the inserted rows, in the order of the rows
+     */
+    public long[] performForRowIds(SQLiteDatabase db) {
+      Preconditions.checkState(!mMultiRowValues, "Row ids are not available for multi-row VALUES inserts");
+      Preconditions.checkState(mUpsert == null || !mUpsert.mUpdate, "Row ids are not available for DO UPDATE inserts");
+      BulkInsertResult result = execute(db, true);
+      return Arrays.copyOf(result.mRowIds, result.mRowsCount);
+    }
+
+    private BulkInsertResult execute(SQLiteDatabase db, boolean collectRowIds) {
+      Execution execution = ExecutionListeners.start(db);
+
+      BulkInsertResult result = new BulkInsertResult(collectRowIds ? initialCapacity() : 0);
+      Map<Object, CompiledInsert> statements = new LinkedHashMap<>();
+
+      db.beginTransaction();
+      try {
+        if (mMultiRowValues) {
+          insertChunks(db, statements, result);
+        } else {
+          insertRows(db, statements, result, collectRowIds);
+        }
+        db.setTransactionSuccessful();
+      } finally {
+        for (CompiledInsert statement : statements.values()) {
+          statement.release();
+        }
+        db.endTransaction();
+      }
+
+      if (execution != null) {
+        List<String> sql = Lists.newArrayList();
+        for (CompiledInsert statement : statements.values()) {
+          sql.add(statement.mSql);
+        }
+        execution.finish(Joiner.on("; ").join(sql), result.mArgsCount, result.mInsertedRowsCount);
+      }
+
+      return result;
+    }
+
+    private void insertRows(SQLiteDatabase db, Map<Object, CompiledInsert> statements, BulkInsertResult result, boolean collectRowIds) {
+      for (ContentValues values : mRows) {
+        Preconditions.checkArgument(values.size() > 0, "Cannot insert empty row");
+
+        CompiledInsert statement = statements.get(values.keySet());
+        if (statement == null) {
+          statement = new CompiledInsert(db, mConflictAlgorithm, mTable, values.keySet(), 1, mUpsert);
+          statements.put(ImmutableSet.copyOf(values.keySet()), statement);
+        }
+
+        long rowId = statement.execute(values);
+        result.add(rowId, collectRowIds);
+        result.mArgsCount += statement.getArgsCount();
+      }
+    }
+
+    private void insertChunks(SQLiteDatabase db, Map<Object, CompiledInsert> statements, BulkInsertResult result) {
+      List<ContentValues> chunk = Lists.newArrayList();
+      Set<String> chunkColumns = null;
+      int maxChunkSize = 0;
+
+      for (ContentValues values : mRows) {
+        Preconditions.checkArgument(values.size() > 0, "Cannot insert empty row");
+
+        if (!chunk.isEmpty() && (chunk.size() == maxChunkSize || !chunkColumns.equals(values.keySet()))) {
+          insertChunk(db, statements, result, chunkColumns, chunk);
+          chunk.clear();
+        }
+        if (chunk.isEmpty()) {
+          chunkColumns = ImmutableSet.copyOf(values.keySet());
+          int upsertArgsCount = mUpsert != null ? mUpsert.mArgs.length : 0;
+          maxChunkSize = Math.max(1, Math.min(MAX_VALUES_ROWS, (MAX_BOUND_VARIABLES - upsertArgsCount) / chunkColumns.size()));
+        }
+        chunk.add(values);
+      }
+
+      if (!chunk.isEmpty()) {
+        insertChunk(db, statements, result, chunkColumns, chunk);
+      }
+    }
+
+    private void insertChunk(SQLiteDatabase db, Map<Object, CompiledInsert> statements, BulkInsertResult result, Set<String> columns, List<ContentValues> chunk) {
+      List<Object> key = ImmutableList.<Object>of(columns, chunk.size());
+      CompiledInsert statement = statements.get(key);
+      if (statement == null) {
+        statement = new CompiledInsert(db, mConflictAlgorithm, mTable, columns, chunk.size(), mUpsert);
+        statements.put(key, statement);
+      }
+
+      result.mInsertedRowsCount += statement.execute(chunk);
+      result.mRowsCount += chunk.size();
+      result.mArgsCount += statement.getArgsCount();
+    }
+
+    private int initialCapacity() {
+      return mRows instanceof Collection ? ((Collection<?>) mRows).size() : 16;
+    }
+  }
+
+  static final class Upsert {
+    final String mSql;
+    final Object[] mArgs;
+    final boolean mUpdate;
+
+    Upsert(String sql, Object[] args, boolean update) {
+      mSql = sql;
+      mArgs = args;
+      mUpdate = update;
+    }
+  }
+
+  private abstract static class ConflictTarget<T> implements ConflictActionSelector<T> {
+    private final String[] mColumns;
+
+    ConflictTarget(String[] columns) {
+      Preconditions.checkArgument(columns != null, "Column list cannot be null");
+      mColumns = columns.clone();
+    }
+
+    abstract T withUpsert(Upsert upsert);
+
+    private StringBuilder target() {
+      StringBuilder builder = new StringBuilder(" ON CONFLICT");
+      if (mColumns.length > 0) {
+        builder.append(" (").append(Joiner.on(", ").join(mColumns)).append(')');
+      }
+      return builder;
+    }
+
+    @Override
+    public T doNothing() {
+      return withUpsert(new Upsert(target().append(" DO NOTHING").toString(), new Object[0], false));
+    }
+
+    @Override
+    public T doUpdate(Map<String, ? extends Expression> assignments, Object... boundArgs) {
+      Preconditions.checkState(mColumns.length > 0, "DO UPDATE requires conflict target columns");
+      Preconditions.checkArgument(!assignments.isEmpty(), "DO UPDATE requires at least one assignment");
+
+      StringBuilder builder = target().append(" DO UPDATE SET ");
+      List<Object> args = Lists.newArrayList();
+      int boundArgsIndex = 0;
+      boolean first = true;
+      for (Entry<String, ? extends Expression> assignment : assignments.entrySet()) {
+        if (!first) {
+          builder.append(", ");
+        }
+        first = false;
+
+        Expression expression = assignment.getValue();
+        builder.append(assignment.getKey()).append(" = ").append(expression.getSql());
+
+        int unboundArgsCount = expression.getArgsCount() - expression.getBoundArgsCount();
+        Preconditions.checkArgument(boundArgsIndex + unboundArgsCount <= boundArgs.length, "Not enough args for DO UPDATE assignments");
+        Expressions.addExpressionArgs(args, expression, Arrays.copyOfRange(boundArgs, boundArgsIndex, boundArgsIndex + unboundArgsCount));
+        boundArgsIndex += unboundArgsCount;
+      }
+      Preconditions.checkArgument(boundArgsIndex == boundArgs.length, "Too many args for DO UPDATE assignments");
+
+      return withUpsert(new Upsert(builder.toString(), args.toArray(), true));
+    }
+
+    @Override
+    public T doUpdateExcluded(String... columns) {
+      Map<String, Expression> assignments = new LinkedHashMap<>();
+      for (String column : columns) {
+        assignments.put(column, Expressions.excluded(column));
+      }
+      return doUpdate(assignments);
+    }
+  }
+
+  private static class CompiledInsert {
+    final SQLiteDatabase mDb;
+    final String mSql;
+    final String[] mColumns;
+    final int mRowsCount;
+    final Object[] mUpsertArgs;
+    final SQLiteStatement mStatement;
+
+    CompiledInsert(SQLiteDatabase db, String conflictAlgorithm, String table, Set<String> columns, int rowsCount, Upsert upsert) {
+      mColumns = sortColumns(columns);
+      mRowsCount = rowsCount;
+      mUpsertArgs = upsert != null ? upsert.mArgs : new Object[0];
+      mSql = getSql(conflictAlgorithm, table, mColumns, rowsCount, upsert);
+
+      mDb = db;
+      mStatement = StatementCache.acquire(db, mSql);
+    }
+
+    // sorted, so that the same set of columns always renders the same SQL
+    static String[] sortColumns(Set<String> columns) {
+      return Ordering.natural().sortedCopy(columns).toArray(new String[columns.size()]);
+    }
+
+    static String getSql(String conflictAlgorithm, String table, String[] columns, int rowsCount, Upsert upsert) {
+      StringBuilder builder = new StringBuilder("INSERT ");
+      if (conflictAlgorithm != null) {
+        builder.append(conflictAlgorithm).append(' ');
+      }
+      builder
+          .append("INTO ")
+          .append(table)
+          .append(" (")
+          .append(Joiner.on(", ").join(columns))
+          .append(") VALUES ");
+      for (int row = 0; row < rowsCount; row++) {
+        builder.append(row > 0 ? ", (" : "(");
+        for (int i = 0; i < columns.length; i++) {
+          builder.append(i > 0 ? ", ?" : "?");
+        }
+        builder.append(')');
+      }
+      if (upsert != null) {
+        builder.append(upsert.mSql);
+      }
+      return builder.toString();
+    }
+
+    void release() {
+      StatementCache.release(mDb, mSql, mStatement);
+    }
+
+    int getArgsCount() {
+      return mRowsCount * mColumns.length + mUpsertArgs.length;
+    }
+
+    long execute(ContentValues values) {
+      for (int i = 0; i < mColumns.length; i++) {
+        Utils.bindContentValueArg(mStatement, i + 1, values.get(mColumns[i]));
+      }
+      bindUpsertArgs(mColumns.length + 1);
+      return mStatement.executeInsert();
+    }
+
+    // executeInsert() returns only the last row id, which doesn't say how many
+    // of the rows were actually inserted
+    int execute(List<ContentValues> rows) {
+      int argIndex = 1;
+      for (ContentValues values : rows) {
+        for (String column : mColumns) {
+          Utils.bindContentValueArg(mStatement, argIndex++, values.get(column));
+        }
+      }
+      bindUpsertArgs(argIndex);
+      return mStatement.executeUpdateDelete();
+    }
+
+    private void bindUpsertArgs(int firstIndex) {
+      for (int i = 0; i < mUpsertArgs.length; i++) {
+        BindArgs.bind(mStatement, firstIndex + i, mUpsertArgs[i]);
+      }
+    }
+  }
+
+  private static class BulkInsertResult {
+    long[] mRowIds;
+    int mRowsCount;
+    int mInsertedRowsCount;
+    int mArgsCount;
+
+    BulkInsertResult(int capacity) {
+      mRowIds = new long[capacity];
+    }
+
+    void add(long rowId, boolean collectRowId) {
+      if (collectRowId) {
+        if (mRowsCount == mRowIds.length) {
+          mRowIds = Arrays.copyOf(mRowIds, Math.max(16, mRowIds.length * 2));
+        }
+        mRowIds[mRowsCount] = rowId;
+      }
+      mRowsCount++;
+      if (rowId != -1) {
+        mInsertedRowsCount++;
+      }
+    }
+  }
+
   public static class DefaultValuesInsert {
     final String mTable;
     final String mNullColumnHack;
@@ -140,11 +599,25 @@ public class Insert implements InsertValuesBuilder {
     }
 
     public long perform(SQLiteDatabase db) {
-      return db.insert(mTable, mNullColumnHack, null);
+      Execution execution = ExecutionListeners.start(db);
+      long rowId = db.insert(mTable, mNullColumnHack, null);
+      if (execution != null) {
+        execution.finish(getInsertSql(), 0, rowId != -1 ? 1 : 0);
+      }
+      return rowId;
     }
 
     public long performOrThrow(SQLiteDatabase db) {
-      return db.insertOrThrow(mTable, mNullColumnHack, null);
+      Execution execution = ExecutionListeners.start(db);
+      long rowId = db.insertOrThrow(mTable, mNullColumnHack, null);
+      if (execution != null) {
+        execution.finish(getInsertSql(), 0, rowId != -1 ? 1 : 0);
+      }
+      return rowId;
+    }
+
+    private String getInsertSql() {
+      return "INSERT INTO " + mTable + " (" + mNullColumnHack + ") VALUES (NULL)";
     }
   }
 
@@ -1,7 +1,11 @@
 package com.getbase.android.db.fluentsqlite;
 
+import com.getbase.android.db.fluentsqlite.Insert.BulkInsert;
 import com.getbase.android.db.fluentsqlite.Insert.DefaultValuesInsert;
 
+import android.content.ContentValues;
+
 public interface InsertFormSelector extends InsertValuesBuilder, InsertSubqueryForm {
   DefaultValuesInsert defaultValues(String nullColumnHack);
+  BulkInsert rows(Iterable<ContentValues> rows);
 }
@@ -0,0 +1,153 @@
+package com.getbase.android.db.fluentsqlite;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keys used by {@link Expressions#inKeySet(String, Collection)}, loaded into
+ * a TEMP table for the duration of the statement using them.
+ *
+ * The expressions refer to the table by a unique placeholder name, which is
+ * replaced by {@link #bind(String, List)} with the name based on the key set
+ * position in the executed statement. This way the same statement always has
+ * the same SQL, which lets SQLite and {@link StatementCache} reuse it.
+ */
+final class KeySet {
+  private static final AtomicInteger sNextId = new AtomicInteger();
+
+  final String mPlaceholder;
+  final List<Object> mKeys;
+
+  KeySet(Collection<?> keys) {
+    for (Object key : keys) {
+      Preconditions.checkArgument(key != null, "Key set cannot contain null");
+    }
+
+    mPlaceholder = "fluentsqlite_keyset_" + sNextId.getAndIncrement() + "_";
+    mKeys = ImmutableList.copyOf(keys);
+  }
+
+  String getSql() {
+    return "SELECT _id FROM temp." + mPlaceholder;
+  }
+
+  static String getTable(int index) {
+    return "fluentsqlite_keys_" + index;
+  }
+
+  // the same key set can be used in several places of one statement, e.g. in
+  // two compound parts, but its table has to be created only once; KeySet
+  // doesn't override equals(), so the set removes only the same instances
+  private static List<KeySet> distinct(List<KeySet> keySets) {
+    return ImmutableList.copyOf(new LinkedHashSet<>(keySets));
+  }
+
+  static String bind(String sql, List<KeySet> keySets) {
+    if (keySets.isEmpty()) {
+      return sql;
+    }
+
+    List<KeySet> distinct = distinct(keySets);
+    for (int i = 0; i < distinct.size(); i++) {
+      sql = sql.replace(distinct.get(i).mPlaceholder, getTable(i));
+    }
+    return sql;
+  }
+
+  private void create(SQLiteDatabase db, String table) {
+    db.execSQL("CREATE TEMP TABLE " + table + " (_id PRIMARY KEY) WITHOUT ROWID");
+
+    SQLiteStatement statement = db.compileStatement("INSERT OR IGNORE INTO temp." + table + " (_id) VALUES (?)");
+    try {
+      for (Object key : mKeys) {
+        BindArgs.bind(statement, 1, key);
+        statement.executeInsert();
+      }
+    } finally {
+      statement.close();
+    }
+  }
+
+  private static void drop(SQLiteDatabase db, String table) {
+    db.execSQL("DROP TABLE IF EXISTS temp." + table);
+  }
+
+  /**
+   * Creates the TEMP tables for the key sets in a transaction, which keeps
+   * them on a single connection. The tables are dropped by
+   * {@link Scope#setSuccessful()} or, if the statement fails, by
+   * {@link Scope#close()}, because the rollback doesn't remove them when
+   * the transaction is nested in the caller's transaction. The transaction
+   * is non-exclusive, so queries using key sets don't block other readers.
+   */
+  static Scope load(SQLiteDatabase db, List<KeySet> keySets) {
+    if (keySets.isEmpty()) {
+      return Scope.EMPTY;
+    }
+
+    List<KeySet> distinct = distinct(keySets);
+
+    db.beginTransactionNonExclusive();
+    Scope scope = new Scope(db, distinct.size());
+    try {
+      for (int i = 0; i < distinct.size(); i++) {
+        distinct.get(i).create(db, getTable(i));
+      }
+    } catch (RuntimeException e) {
+      scope.close();
+      throw e;
+    }
+    return scope;
+  }
+
+  static final class Scope {
+    static final Scope EMPTY = new Scope(null, 0);
+
+    private final SQLiteDatabase mDb;
+    private final int mTablesCount;
+    private boolean mDropped;
+
+    private Scope(SQLiteDatabase db, int tablesCount) {
+      mDb = db;
+      mTablesCount = tablesCount;
+    }
+
+    // statements can't be executed in a transaction marked as successful,
+    // so the tables are dropped before
+    void setSuccessful() {
+      if (mDb != null) {
+        dropTables();
+        mDb.setTransactionSuccessful();
+      }
+    }
+
+    void close() {
+      if (mDb != null) {
+        try {
+          if (!mDropped) {
+            dropTables();
+          }
+        } catch (RuntimeException e) {
+          // don't hide the exception which failed the statement
+        } finally {
+          mDb.endTransaction();
+        }
+      }
+    }
+
+    private void dropTables() {
+      mDropped = true;
+      for (int i = 0; i < mTablesCount; i++) {
+        drop(mDb, getTable(i));
+      }
+    }
+  }
+}
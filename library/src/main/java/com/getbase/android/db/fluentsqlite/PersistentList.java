@@ -0,0 +1,91 @@
+package com.getbase.android.db.fluentsqlite;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable list with O(1) amortized append, where every version shares the
+ * backing array with the version it was derived from.
+ *
+ * The first version appending after a given size claims the next slot of the
+ * shared array in place. Any other version appending after the same size (for
+ * example a second variant derived from the same base query) finds the slot
+ * already taken and copies the array prefix it can see.
+ */
+final class PersistentList<E> extends AbstractList<E> implements RandomAccess {
+  private static final PersistentList<Object> EMPTY = new PersistentList<>(new Storage(0), 0);
+
+  private final Storage mStorage;
+  private final int mSize;
+
+  private PersistentList(Storage storage, int size) {
+    mStorage = storage;
+    mSize = size;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <E> PersistentList<E> empty() {
+    return (PersistentList<E>) EMPTY;
+  }
+
+  PersistentList<E> plus(E element) {
+    Storage storage = mStorage;
+    if (mSize == storage.mItems.length || !storage.mFill.compareAndSet(mSize, mSize + 1)) {
+      storage = new Storage(Arrays.copyOf(storage.mItems, Math.max(4, mSize * 2)), mSize + 1);
+    }
+    storage.mItems[mSize] = element;
+    return new PersistentList<>(storage, mSize + 1);
+  }
+
+  PersistentList<E> plusAll(Collection<? extends E> elements) {
+    int count = elements.size();
+    if (count == 0) {
+      return this;
+    }
+    Storage storage = mStorage;
+    if (mSize + count > storage.mItems.length || !storage.mFill.compareAndSet(mSize, mSize + count)) {
+      storage = new Storage(Arrays.copyOf(storage.mItems, Math.max(4, (mSize + count) * 2)), mSize + count);
+    }
+    int index = mSize;
+    for (E element : elements) {
+      storage.mItems[index++] = element;
+    }
+    return new PersistentList<>(storage, mSize + count);
+  }
+
+  @SafeVarargs
+  final PersistentList<E> plusAll(E... elements) {
+    return plusAll(Arrays.asList(elements));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public E get(int index) {
+    if (index < 0 || index >= mSize) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mSize);
+    }
+    return (E) mStorage.mItems[index];
+  }
+
+  @Override
+  public int size() {
+    return mSize;
+  }
+
+  private static final class Storage {
+    final Object[] mItems;
+    final AtomicInteger mFill;
+
+    Storage(int capacity) {
+      this(new Object[capacity], 0);
+    }
+
+    Storage(Object[] items, int fill) {
+      mItems = items;
+      mFill = new AtomicInteger(fill);
+    }
+  }
+}
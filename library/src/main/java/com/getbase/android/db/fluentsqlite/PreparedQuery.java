@@ -0,0 +1,182 @@
+package com.getbase.android.db.fluentsqlite;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.getbase.android.db.cursors.FluentCursor;
+import com.getbase.android.db.fluentsqlite.BindArgs.BindingCursorFactory;
+import com.getbase.android.db.fluentsqlite.ExecutionListeners.Execution;
+import com.google.common.collect.Lists;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Query with fixed SQL text and late-bound argument slots. Slots are declared
+ * by passing {@link #slot()} or {@link #slot(String)} in place of an argument
+ * value when building the {@link Query}:
+ *
+ * <pre>
+ * static final PreparedQuery BY_OWNER = select()
+ *     .from("items")
+ *     .where("owner_id = ?", slot("owner"))
+ *     .build()
+ *     .prepare();
+ *
+ * BY_OWNER.bind(ownerId).perform(db);
+ * </pre>
+ *
+ * The SQL is rendered once, so every execution sends exactly the same
+ * statement text to SQLite and only the arguments array is filled per call.
+ */
+public final class PreparedQuery {
+  private final String mSql;
+  private final Object[] mArgsTemplate;
+  private final int[] mSlotIndexes;
+  private final List<String> mSlotNames;
+
+  PreparedQuery(String sql, Object[] args) {
+    mSql = sql;
+    mArgsTemplate = new Object[args.length];
+    mSlotIndexes = new int[args.length];
+
+    List<Slot> slots = Lists.newArrayList();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i] instanceof Slot) {
+        Slot slot = (Slot) args[i];
+        int slotIndex = slots.indexOf(slot);
+        if (slotIndex == -1) {
+          slotIndex = slots.size();
+          slots.add(slot);
+        }
+        mSlotIndexes[i] = slotIndex;
+      } else {
+        mSlotIndexes[i] = -1;
+        mArgsTemplate[i] = args[i];
+      }
+    }
+
+    mSlotNames = Lists.newArrayListWithCapacity(slots.size());
+    for (Slot slot : slots) {
+      mSlotNames.add(slot.mName);
+    }
+  }
+
+  public static Slot slot() {
+    return new Slot(null);
+  }
+
+  public static Slot slot(String name) {
+    return new Slot(checkNotNull(name));
+  }
+
+  static boolean containsSlots(Object[] args) {
+    for (Object arg : args) {
+      if (arg instanceof Slot) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public String getSql() {
+    return mSql;
+  }
+
+  public int getSlotsCount() {
+    return mSlotNames.size();
+  }
+
+  public BoundQuery bind(Object... slotValues) {
+    checkNotNull(slotValues);
+    checkArgument(slotValues.length == mSlotNames.size(),
+        "Invalid number of arguments: query has %s slots, but there was %s args",
+        mSlotNames.size(),
+        slotValues.length
+    );
+
+    Object[] args = mArgsTemplate.clone();
+    for (int i = 0; i < args.length; i++) {
+      if (mSlotIndexes[i] != -1) {
+        args[i] = checkNotNull(slotValues[mSlotIndexes[i]], "Slot value cannot be null");
+      }
+    }
+
+    return new BoundQuery(mSql, args);
+  }
+
+  public BoundQuery bind(Map<String, ?> namedSlotValues) {
+    checkNotNull(namedSlotValues);
+
+    Object[] slotValues = new Object[mSlotNames.size()];
+    for (int i = 0; i < slotValues.length; i++) {
+      String name = mSlotNames.get(i);
+      checkArgument(name != null, "Cannot bind unnamed slot by name");
+      checkArgument(namedSlotValues.containsKey(name), "No value for slot %s", name);
+      slotValues[i] = namedSlotValues.get(name);
+    }
+
+    return bind(slotValues);
+  }
+
+  public static final class Slot {
+    private final String mName;
+
+    private Slot(String name) {
+      mName = name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      Slot slot = (Slot) o;
+      return mName != null && mName.equals(slot.mName);
+    }
+
+    @Override
+    public int hashCode() {
+      return mName != null ? mName.hashCode() : System.identityHashCode(this);
+    }
+
+    @Override
+    public String toString() {
+      return mName != null ? ":" + mName : "?";
+    }
+  }
+
+  public static final class BoundQuery {
+    private final String mSql;
+    private final Object[] mArgs;
+
+    private BoundQuery(String sql, Object[] args) {
+      mSql = sql;
+      mArgs = args;
+    }
+
+    public FluentCursor perform(SQLiteDatabase db) {
+      Execution execution = ExecutionListeners.start(db);
+
+      FluentCursor cursor;
+      if (BindArgs.containsTyped(mArgs)) {
+        cursor = new FluentCursor(db.rawQueryWithFactory(new BindingCursorFactory(mArgs), mSql, null, null));
+      } else {
+        cursor = new FluentCursor(db.rawQuery(mSql, BindArgs.toStrings(mArgs)));
+      }
+
+      if (execution != null) {
+        execution.finish(mSql, mArgs.length, -1);
+      }
+      return cursor;
+    }
+
+    public RawQuery toRawQuery() {
+      return new RawQuery(mSql, Collections.unmodifiableList(Arrays.asList(BindArgs.toStrings(mArgs))));
+    }
+  }
+}
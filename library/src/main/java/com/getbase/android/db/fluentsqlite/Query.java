@@ -1,44 +1,399 @@
 package com.getbase.android.db.fluentsqlite;
 
 import com.getbase.android.db.cursors.FluentCursor;
+import com.getbase.android.db.fluentsqlite.BindArgs.BindingCursorFactory;
+import com.getbase.android.db.fluentsqlite.ExecutionListeners.Execution;
 import com.getbase.android.db.fluentsqlite.Expressions.CollatingSequence;
 import com.getbase.android.db.fluentsqlite.Expressions.Expression;
-import com.google.common.base.Function;
-import com.google.common.base.Functions;
+import com.getbase.android.db.fluentsqlite.IndexActions.CreateIndexAction;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
-import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSet.Builder;
-import com.google.common.collect.LinkedListMultimap;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 
+import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabase.CursorFactory;
+import android.database.sqlite.SQLiteStatement;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public final class Query {
   private final QueryBuilderImpl mQueryBuilder;
 
+  // Rendered lazily and published through volatile write. The builder is
+  // never mutated after freeze(), so concurrent renders produce equal results
+  // and no locking is necessary.
+  private volatile RenderedQuery mRenderedQuery;
+  private volatile RenderedQuery mExecutableQuery;
+  private volatile Set<String> mTables;
+  private volatile TableSet mTableSet;
+  private volatile List<KeySet> mKeySets;
+
   private Query(QueryBuilderImpl queryBuilder) {
     mQueryBuilder = queryBuilder;
+    mQueryBuilder.freeze();
   }
 
+  /**
+   * Executes the query. If it uses {@link Expressions#inKeySet(String, java.util.Collection)},
+   * the returned cursor holds a copy of all rows in memory instead of reading
+   * them from the database window by window.
+   */
   public FluentCursor perform(SQLiteDatabase db) {
-    return mQueryBuilder.perform(db);
+    List<KeySet> keySets = getKeySets();
+    if (keySets.isEmpty()) {
+      return getExecutableQuery().perform(db);
+    }
+
+    KeySet.Scope scope = KeySet.load(db, keySets);
+    try {
+      FluentCursor cursor = copyRows(getExecutableQuery().perform(db));
+      scope.setSuccessful();
+      return cursor;
+    } finally {
+      scope.close();
+    }
+  }
+
+  // SQLiteCursor re-runs the query to fill the next window when the rows
+  // don't fit into the first one, which would fail once the key set tables
+  // are dropped, so the rows are copied before the tables are dropped
+  private static FluentCursor copyRows(Cursor cursor) {
+    try {
+      String[] columns = cursor.getColumnNames();
+      MatrixCursor result = new MatrixCursor(columns, cursor.getCount());
+      while (cursor.moveToNext()) {
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+          switch (cursor.getType(i)) {
+            case Cursor.FIELD_TYPE_NULL:
+              row[i] = null;
+              break;
+            case Cursor.FIELD_TYPE_INTEGER:
+              row[i] = cursor.getLong(i);
+              break;
+            case Cursor.FIELD_TYPE_FLOAT:
+              row[i] = cursor.getDouble(i);
+              break;
+            case Cursor.FIELD_TYPE_BLOB:
+              row[i] = cursor.getBlob(i);
+              break;
+            default:
+              row[i] = cursor.getString(i);
+          }
+        }
+        result.addRow(row);
+      }
+      return new FluentCursor(result);
+    } finally {
+      cursor.close();
+    }
   }
 
+  /**
+   * @throws IllegalStateException if the query uses key sets, whose tables
+   * exist only while the query is executed by its perform methods
+   */
   public RawQuery toRawQuery() {
-    return mQueryBuilder.toRawQuery();
+    checkNoKeySets();
+    return getExecutableQuery().toRawQuery();
+  }
+
+  /**
+   * Executes the query as compiled statement and returns the first column of
+   * the first row, without creating a cursor.
+   *
+   * @throws android.database.sqlite.SQLiteDoneException if the query returns no rows
+   */
+  public long performForLong(SQLiteDatabase db) {
+    RenderedQuery renderedQuery = getExecutableQuery();
+    return simpleQueryForLong(db, renderedQuery.mSql);
+  }
+
+  /**
+   * Executes the query as compiled statement and returns the first column of
+   * the first row, without creating a cursor.
+   *
+   * @throws android.database.sqlite.SQLiteDoneException if the query returns no rows
+   */
+  public String performForString(SQLiteDatabase db) {
+    KeySet.Scope scope = KeySet.load(db, getKeySets());
+    try {
+      String result = getExecutableQuery().simpleQueryForString(db);
+      scope.setSuccessful();
+      return result;
+    } finally {
+      scope.close();
+    }
+  }
+
+  /**
+   * Checks if the query returns at least one row using SELECT EXISTS(...),
+   * which lets SQLite stop at the first matching row.
+   */
+  public boolean exists(SQLiteDatabase db) {
+    return simpleQueryForLong(db, getExecutableQuery().getExistsSql()) != 0;
+  }
+
+  private long simpleQueryForLong(SQLiteDatabase db, String sql) {
+    KeySet.Scope scope = KeySet.load(db, getKeySets());
+    try {
+      long result = getExecutableQuery().simpleQueryForLong(db, sql);
+      scope.setSuccessful();
+      return result;
+    } finally {
+      scope.close();
+    }
+  }
+
+  /**
+   * Executes the query in chunks of at most {@code chunkSize} rows, so the
+   * memory used for iterating over the results doesn't depend on their size.
+   * Chunks after the first one are fetched by keyset pagination if all ORDER BY
+   * terms are present in the result columns, or with OFFSET otherwise.
+   *
+   * The query should define a deterministic order of rows, otherwise the
+   * chunks may skip or repeat some rows.
+   */
+  public QueryStream stream(SQLiteDatabase db, int chunkSize) {
+    Preconditions.checkArgument(chunkSize > 0, "Chunk size must be positive");
+    Preconditions.checkState(mQueryBuilder.mLimit == null, "Query with LIMIT clause cannot be streamed");
+    return new QueryStream(this, db, chunkSize);
+  }
+
+  Query chunk(Object[] lastRowValues, int offset, int chunkSize) {
+    QueryBuilderImpl builder = mQueryBuilder.copy();
+    builder.limit(chunkSize);
+    if (lastRowValues != null) {
+      builder.seekAfter(lastRowValues);
+    } else if (offset > 0) {
+      builder.offset(offset);
+    }
+    return new Query(builder);
+  }
+
+  List<String> getSeekColumns() {
+    return mQueryBuilder.getSeekColumns();
+  }
+
+  /**
+   * Runs EXPLAIN QUERY PLAN for this query and returns the parsed plan.
+   */
+  public QueryPlan explain(SQLiteDatabase db) {
+    KeySet.Scope scope = KeySet.load(db, getKeySets());
+    try {
+      QueryPlan plan;
+      RenderedQuery renderedQuery = getExecutableQuery();
+      FluentCursor cursor = renderedQuery.perform(db, "EXPLAIN QUERY PLAN " + renderedQuery.mSql);
+      try {
+        plan = QueryPlan.fromCursor(cursor);
+      } finally {
+        cursor.close();
+      }
+      scope.setSuccessful();
+      return plan;
+    } finally {
+      scope.close();
+    }
+  }
+
+  /**
+   * @throws IllegalStateException if the query uses key sets, whose tables
+   * exist only while the query is executed by its perform methods
+   */
+  public PreparedQuery prepare() {
+    checkNoKeySets();
+    RenderedQuery renderedQuery = getExecutableQuery();
+    return new PreparedQuery(renderedQuery.mSql, renderedQuery.mArgs);
+  }
+
+  String getSql() {
+    return getRenderedQuery().mSql;
+  }
+
+  List<KeySet> getKeySets() {
+    List<KeySet> keySets = mKeySets;
+    if (keySets == null) {
+      keySets = Collections.unmodifiableList(mQueryBuilder.getKeySets());
+      mKeySets = keySets;
+    }
+    return keySets;
+  }
+
+  Object[] getArgs() {
+    return getRenderedQuery().mArgs;
+  }
+
+  private void checkNoKeySets() {
+    Preconditions.checkState(getKeySets().isEmpty(), "Query using key sets can be executed only with its perform methods");
+  }
+
+  // for statements embedding this query, which bind its args themselves
+  void checkCanBeEmbedded() {
+    checkNoKeySets();
+    Preconditions.checkState(!PreparedQuery.containsSlots(getArgs()), "Query contains unbound slots, use prepare() and bind the slots values");
+  }
+
+  CreateIndexAction buildIndex() {
+    return mQueryBuilder.buildIndex();
+  }
+
+  // The SQL of rendered query refers to key set tables by their placeholders,
+  // so it can be embedded in other statements, while the executable query
+  // uses the table names of this statement.
+  private RenderedQuery getExecutableQuery() {
+    RenderedQuery executableQuery = mExecutableQuery;
+    if (executableQuery == null) {
+      RenderedQuery renderedQuery = getRenderedQuery();
+      List<KeySet> keySets = getKeySets();
+      executableQuery = keySets.isEmpty()
+          ? renderedQuery
+          : new RenderedQuery(KeySet.bind(renderedQuery.mSql, keySets), renderedQuery.mArgs);
+      mExecutableQuery = executableQuery;
+    }
+    return executableQuery;
+  }
+
+  private RenderedQuery getRenderedQuery() {
+    RenderedQuery renderedQuery = mRenderedQuery;
+    if (renderedQuery == null) {
+      renderedQuery = mQueryBuilder.render();
+      mRenderedQuery = renderedQuery;
+    }
+    return renderedQuery;
+  }
+
+  private static class RenderedQuery {
+    final String mSql;
+    final Object[] mArgs;
+
+    // subqueries are only embedded in other statements, so the raw query is
+    // built when this query is executed on its own
+    private volatile ExecutableArgs mExecutableArgs;
+
+    RenderedQuery(String sql, Object[] args) {
+      mSql = sql;
+      mArgs = args;
+    }
+
+    private String mExistsSql;
+
+    private ExecutableArgs getExecutableArgs() {
+      ExecutableArgs executableArgs = mExecutableArgs;
+      if (executableArgs == null) {
+        Preconditions.checkState(!PreparedQuery.containsSlots(mArgs), "Query contains unbound slots, use prepare() and bind the slots values");
+        executableArgs = new ExecutableArgs(mSql, mArgs);
+        mExecutableArgs = executableArgs;
+      }
+      return executableArgs;
+    }
+
+    RawQuery toRawQuery() {
+      return getExecutableArgs().mRawQuery;
+    }
+
+    String getExistsSql() {
+      // Strings are immutable, so the worst a race can do here is to build
+      // the same String twice.
+      String existsSql = mExistsSql;
+      if (existsSql == null) {
+        existsSql = "SELECT EXISTS(" + mSql + ")";
+        mExistsSql = existsSql;
+      }
+      return existsSql;
+    }
+
+    long simpleQueryForLong(SQLiteDatabase db, String sql) {
+      toRawQuery();
+
+      Execution execution = ExecutionListeners.start(db);
+
+      long result;
+      SQLiteStatement statement = db.compileStatement(sql);
+      try {
+        BindArgs.bindAll(statement, mArgs);
+        result = statement.simpleQueryForLong();
+      } finally {
+        statement.close();
+      }
+
+      if (execution != null) {
+        execution.finish(sql, mArgs.length, 1);
+      }
+      return result;
+    }
+
+    String simpleQueryForString(SQLiteDatabase db) {
+      String sql = toRawQuery().mRawQuery;
+
+      Execution execution = ExecutionListeners.start(db);
+
+      String result;
+      SQLiteStatement statement = db.compileStatement(sql);
+      try {
+        BindArgs.bindAll(statement, mArgs);
+        result = statement.simpleQueryForString();
+      } finally {
+        statement.close();
+      }
+
+      if (execution != null) {
+        execution.finish(sql, mArgs.length, 1);
+      }
+      return result;
+    }
+
+    FluentCursor perform(SQLiteDatabase db) {
+      return perform(db, toRawQuery().mRawQuery);
+    }
+
+    FluentCursor perform(SQLiteDatabase db, String sql) {
+      ExecutableArgs executableArgs = getExecutableArgs();
+
+      Execution execution = ExecutionListeners.start(db);
+
+      FluentCursor cursor;
+      if (executableArgs.mCursorFactory != null) {
+        cursor = new FluentCursor(db.rawQueryWithFactory(executableArgs.mCursorFactory, sql, null, null));
+      } else {
+        cursor = new FluentCursor(db.rawQuery(sql, executableArgs.mRawQueryArgs));
+      }
+
+      if (execution != null) {
+        // SQLite runs the query only when the cursor is accessed for the
+        // first time, so only preparing the statement is timed here
+        execution.finish(sql, mArgs.length, -1);
+      }
+      return cursor;
+    }
+  }
+
+  private static class ExecutableArgs {
+    final RawQuery mRawQuery;
+    final String[] mRawQueryArgs;
+    final CursorFactory mCursorFactory;
+
+    ExecutableArgs(String sql, Object[] args) {
+      mRawQueryArgs = BindArgs.toStrings(args);
+      mRawQuery = new RawQuery(sql, Collections.unmodifiableList(Arrays.asList(mRawQueryArgs.clone())));
+      mCursorFactory = BindArgs.containsTyped(args) ? new BindingCursorFactory(args) : null;
+    }
   }
 
   public QueryBuilder buildUpon() {
@@ -46,19 +401,34 @@ public final class Query {
   }
 
   public Set<String> getTables() {
-    return mQueryBuilder.getTables();
+    Set<String> tables = mTables;
+    if (tables == null) {
+      tables = mQueryBuilder.getTables();
+      mTables = tables;
+    }
+    return tables;
   }
 
-  private void getTables(ImmutableSet.Builder<String> builder) {
-    builder.addAll(mQueryBuilder.getTables());
+  public TableSet getTableSet() {
+    TableSet tableSet = mTableSet;
+    if (tableSet == null) {
+      tableSet = TableSet.of(getTables());
+      mTableSet = tableSet;
+    }
+    return tableSet;
   }
 
-  private static final Function<String, String> SURROUND_WITH_PARENS = new Function<String, String>() {
-    @Override
-    public String apply(String input) {
-      return "(" + input + ")";
-    }
-  };
+  /**
+   * @return Tables used anywhere in this query, including subqueries, keyed
+   * by their aliases
+   */
+  SetMultimap<String, String> getTableAliases() {
+    return mQueryBuilder.getTableAliases();
+  }
+
+  private void getTables(ImmutableSet.Builder<String> builder) {
+    builder.addAll(getTables());
+  }
 
   public static QueryBuilder select() {
     return new QueryBuilderImpl();
@@ -167,8 +537,7 @@ public final class Query {
     private CompoundQueryBuilderImpl(Query query) {
       mQueryBuilder = query.mQueryBuilder.copy();
       if (mQueryBuilder.isCompound()) {
-        mQueryBuilder.mCompoundQueryParts = Lists.newLinkedList();
-        mQueryBuilder.mCompoundQueryParts.add(new QueryOrOperator(query));
+        mQueryBuilder.mCompoundQueryParts = PersistentList.<QueryOrOperator>empty().plus(new QueryOrOperator(query));
       }
     }
 
@@ -210,11 +579,12 @@ public final class Query {
 
     private CompoundQueryBuilder withCompoundQueryPart(Query queryPart, String operation) {
       if (!mQueryBuilder.mCurrentQueryPart.isEmpty()) {
-        mQueryBuilder.mCompoundQueryParts.add(new QueryOrOperator(new QueryBuilderImpl(mQueryBuilder.mCurrentQueryPart).build()));
+        mQueryBuilder.mCompoundQueryParts = mQueryBuilder.mCompoundQueryParts.plus(new QueryOrOperator(new QueryBuilderImpl(mQueryBuilder.mCurrentQueryPart).build()));
       }
 
-      mQueryBuilder.mCompoundQueryParts.add(new QueryOrOperator(operation));
-      mQueryBuilder.mCompoundQueryParts.add(new QueryOrOperator(queryPart));
+      mQueryBuilder.mCompoundQueryParts = mQueryBuilder.mCompoundQueryParts
+          .plus(new QueryOrOperator(operation))
+          .plus(new QueryOrOperator(queryPart));
       mQueryBuilder.mCurrentQueryPart = new QueryBuilderImpl.CompoundQueryPart();
       return this;
     }
@@ -290,6 +660,8 @@ public final class Query {
   }
 
   private static class QueryBuilderImpl implements QueryBuilder, ColumnAliasBuilder, LimitOffsetBuilder, OrderingTermBuilder, ColumnListTableSelector, ColumnsListAliasBuilder {
+    private static final Pattern ORDER_COLUMN_PATTERN = Pattern.compile("(?:(\\w+)\\.)?(\\w+)");
+    private static final Pattern ALIASED_COLUMN_PATTERN = Pattern.compile("(.+) AS (\\w+)", Pattern.CASE_INSENSITIVE);
 
     @Override
     public Query build() {
@@ -300,27 +672,33 @@ public final class Query {
 
     private static class CompoundQueryPart {
 
-      private List<String> mProjection = Lists.newArrayList();
+      private PersistentList<String> mProjection = PersistentList.empty();
       private String mColumnWithPotentialAlias;
-      private List<String> mColumnsWithPotentialTable = Lists.newArrayList();
+      private PersistentList<String> mColumnsWithPotentialTable = PersistentList.empty();
       private String mColumnsListsTableWithPotentialAlias;
 
-      private List<String> mGroupByExpressions = Lists.newArrayList();
-      private List<String> mHaving = Lists.newArrayList();
-      private List<String> mSelection = Lists.newArrayList();
+      private PersistentList<String> mGroupByExpressions = PersistentList.empty();
+      private PersistentList<String> mHaving = PersistentList.empty();
+      private PersistentList<String> mSelection = PersistentList.empty();
 
-      private LinkedListMultimap<QueryPart, Object> mArgs = LinkedListMultimap.create();
+      private PersistentList<Object> mProjectionArgs = PersistentList.empty();
+      private PersistentList<Object> mSelectionArgs = PersistentList.empty();
+      private PersistentList<Object> mGroupByArgs = PersistentList.empty();
+      private PersistentList<Object> mHavingArgs = PersistentList.empty();
 
       private TableOrSubquery mPendingTable;
-      private LinkedHashMap<TableOrSubquery, String> mTables = Maps.newLinkedHashMap();
+      private PersistentList<TableSpec> mTables = PersistentList.empty();
 
       private boolean mIsDistinct = false;
 
       private String mPendingJoinType = "";
       private JoinSpec mPendingJoin;
-      private List<JoinSpec> mJoins = Lists.newArrayList();
+      private PersistentList<JoinSpec> mJoins = PersistentList.empty();
 
-      private Set<String> mTablesUsedInExpressions = Sets.newHashSet();
+      private PersistentList<String> mTablesUsedInExpressions = PersistentList.empty();
+      private PersistentList<KeySet> mKeySets = PersistentList.empty();
+      private PersistentList<Expression> mExpressions = PersistentList.empty();
+      private PersistentList<Expression> mWhereExpressions = PersistentList.empty();
 
       private boolean isEmpty() {
         return mProjection.isEmpty() &&
@@ -330,7 +708,10 @@ public final class Query {
             mGroupByExpressions.isEmpty() &&
             mHaving.isEmpty() &&
             mSelection.isEmpty() &&
-            mArgs.isEmpty() &&
+            mProjectionArgs.isEmpty() &&
+            mSelectionArgs.isEmpty() &&
+            mGroupByArgs.isEmpty() &&
+            mHavingArgs.isEmpty() &&
             mPendingTable == null &&
             mTables.isEmpty() &&
             Strings.isNullOrEmpty(mPendingJoinType) &&
@@ -343,42 +724,36 @@ public final class Query {
 
       CompoundQueryPart(CompoundQueryPart other) {
         mIsDistinct = other.mIsDistinct;
-        mProjection.addAll(other.mProjection);
+        mProjection = other.mProjection;
         mColumnWithPotentialAlias = other.mColumnWithPotentialAlias;
-        mColumnsWithPotentialTable.addAll(other.mColumnsWithPotentialTable);
+        mColumnsWithPotentialTable = other.mColumnsWithPotentialTable;
         mColumnsListsTableWithPotentialAlias = other.mColumnsListsTableWithPotentialAlias;
 
-        mGroupByExpressions.addAll(other.mGroupByExpressions);
-        mHaving.addAll(other.mHaving);
+        mGroupByExpressions = other.mGroupByExpressions;
+        mHaving = other.mHaving;
+        mSelection = other.mSelection;
 
-        mSelection.addAll(other.mSelection);
+        mProjectionArgs = other.mProjectionArgs;
+        mSelectionArgs = other.mSelectionArgs;
+        mGroupByArgs = other.mGroupByArgs;
+        mHavingArgs = other.mHavingArgs;
 
-        mArgs.putAll(other.mArgs);
-
-        if (other.mPendingTable != null) {
-          mPendingTable = new TableOrSubquery(other.mPendingTable);
-        } else {
-          mPendingTable = null;
-        }
-
-        for (Entry<TableOrSubquery, String> tableEntry : other.mTables.entrySet()) {
-          mTables.put(new TableOrSubquery(tableEntry.getKey()), tableEntry.getValue());
-        }
+        mPendingTable = other.mPendingTable;
+        mTables = other.mTables;
 
         mPendingJoinType = other.mPendingJoinType;
-        mPendingJoin = other.mPendingJoin != null ? new JoinSpec(other.mPendingJoin) : null;
+        mPendingJoin = other.mPendingJoin;
+        mJoins = other.mJoins;
 
-        mJoins = Lists.newArrayListWithCapacity(other.mJoins.size());
-        for (JoinSpec join : other.mJoins) {
-          mJoins.add(new JoinSpec(join));
-        }
-
-        mTablesUsedInExpressions.addAll(other.mTablesUsedInExpressions);
+        mTablesUsedInExpressions = other.mTablesUsedInExpressions;
+        mKeySets = other.mKeySets;
+        mExpressions = other.mExpressions;
+        mWhereExpressions = other.mWhereExpressions;
       }
 
       private void addPendingColumn() {
         if (mColumnWithPotentialAlias != null) {
-          mProjection.add(mColumnWithPotentialAlias);
+          mProjection = mProjection.plus(mColumnWithPotentialAlias);
           mColumnWithPotentialAlias = null;
         }
       }
@@ -386,30 +761,36 @@ public final class Query {
       private void addPendingColumns() {
         if (mColumnsListsTableWithPotentialAlias != null) {
           for (String column : mColumnsWithPotentialTable) {
-            mProjection.add(mColumnsListsTableWithPotentialAlias + "." + column);
+            mProjection = mProjection.plus(mColumnsListsTableWithPotentialAlias + "." + column);
           }
         } else {
-          mProjection.addAll(mColumnsWithPotentialTable);
+          mProjection = mProjection.plusAll(mColumnsWithPotentialTable);
         }
 
         mColumnsListsTableWithPotentialAlias = null;
-        mColumnsWithPotentialTable.clear();
+        mColumnsWithPotentialTable = PersistentList.empty();
       }
 
       private void addPendingTable(String alias) {
         if (mPendingTable != null) {
-          mTables.put(mPendingTable, alias);
+          mTables = mTables.plus(new TableSpec(mPendingTable, alias));
           mPendingTable = null;
         }
       }
 
       private void addPendingJoin() {
         if (mPendingJoin != null) {
-          mJoins.add(mPendingJoin);
+          mJoins = mJoins.plus(mPendingJoin);
           mPendingJoin = null;
         }
       }
 
+      private void addExpressionSources(Expression expression) {
+        mTablesUsedInExpressions = mTablesUsedInExpressions.plusAll(expression.getTables());
+        mKeySets = mKeySets.plusAll(expression.getKeySets());
+        mExpressions = mExpressions.plus(expression);
+      }
+
       private void processPendingParts() {
         addPendingColumn();
         addPendingColumns();
@@ -417,111 +798,128 @@ public final class Query {
         addPendingJoin();
       }
 
-      RawQuery toRawQuery() {
-        processPendingParts();
+      int estimateLength() {
+        int length = 16 + StatementWriter.length(mProjection, 2);
 
-        Preconditions.checkState(!(!mHaving.isEmpty() && mGroupByExpressions.isEmpty()), "a GROUP BY clause is required when using HAVING clause");
+        for (TableSpec table : mTables) {
+          length += table.mSource.estimateLength() + 8;
+          if (table.mAlias != null) {
+            length += table.mAlias.length();
+          }
+        }
+
+        for (JoinSpec join : mJoins) {
+          length += join.estimateLength();
+        }
+
+        length += 8 + StatementWriter.length(mSelection, 7);
+        length += 10 + StatementWriter.length(mGroupByExpressions, 2);
+        length += 8 + StatementWriter.length(mHaving, 7);
+
+        return length;
+      }
+
+      int getArgsCount() {
+        int argsCount = mProjectionArgs.size() + mSelectionArgs.size() + mGroupByArgs.size() + mHavingArgs.size();
+
+        for (TableSpec table : mTables) {
+          argsCount += table.mSource.getArgsCount();
+        }
 
-        List<String> args = Lists.newArrayList();
-        StringBuilder builder = new StringBuilder();
+        for (JoinSpec join : mJoins) {
+          argsCount += join.mJoinSource.getArgsCount();
+          if (join.mUsingColumns == null) {
+            argsCount += join.mConstraintsArgs.size();
+          }
+        }
 
-        builder.append("SELECT ");
+        return argsCount;
+      }
+
+      void render(StatementWriter writer) {
+        Preconditions.checkState(!(!mHaving.isEmpty() && mGroupByExpressions.isEmpty()), "a GROUP BY clause is required when using HAVING clause");
+
+        writer.append("SELECT ");
         if (mIsDistinct) {
-          builder.append("DISTINCT ");
+          writer.append("DISTINCT ");
         }
         if (!mProjection.isEmpty()) {
-          builder.append(Joiner.on(", ").join(mProjection));
+          writer.appendJoined(", ", mProjection);
         } else {
-          builder.append("*");
+          writer.append('*');
         }
 
-        args.addAll(Collections2.transform(mArgs.get(QueryPart.PROJECTION), Functions.toStringFunction()));
+        writer.addArgs(mProjectionArgs);
 
         if (!mTables.isEmpty()) {
-          builder.append(" FROM ");
-
-          List<String> tables = Lists.newArrayList();
-          for (Entry<TableOrSubquery, String> tableEntry : mTables.entrySet()) {
-            TableOrSubquery tableOrSubquery = tableEntry.getKey();
-            String alias = tableEntry.getValue();
-
-            String tableString;
-            if (tableOrSubquery.mTable != null) {
-              tableString = tableOrSubquery.mTable;
-            } else {
-              RawQuery rawSubquery = tableOrSubquery.mSubquery.toRawQuery();
+          writer.append(" FROM ");
 
-              tableString = SURROUND_WITH_PARENS.apply(rawSubquery.mRawQuery);
-              args.addAll(rawSubquery.mRawQueryArgs);
+          boolean first = true;
+          for (TableSpec table : mTables) {
+            if (!first) {
+              writer.append(", ");
             }
+            first = false;
 
-            if (alias != null) {
-              tableString += " AS " + alias;
-            }
+            table.mSource.render(writer);
 
-            tables.add(tableString);
+            if (table.mAlias != null) {
+              writer.append(" AS ").append(table.mAlias);
+            }
           }
-
-          builder.append(Joiner.on(", ").join(tables));
         }
 
         for (JoinSpec join : mJoins) {
-          builder.append(" ");
-          builder.append(join.mJoinType);
-          builder.append("JOIN ");
-
-          if (join.mJoinSource.mTable != null) {
-            builder.append(join.mJoinSource.mTable);
-          } else {
-            final RawQuery rawQuery = join.mJoinSource.mSubquery.toRawQuery();
+          writer
+              .append(' ')
+              .append(join.mJoinType)
+              .append("JOIN ");
 
-            builder.append(SURROUND_WITH_PARENS.apply(rawQuery.mRawQuery));
-            args.addAll(rawQuery.mRawQueryArgs);
-          }
+          join.mJoinSource.render(writer);
 
           if (join.mAlias != null) {
-            builder.append(" AS ");
-            builder.append(join.mAlias);
+            writer.append(" AS ").append(join.mAlias);
           }
 
           if (join.mUsingColumns != null) {
-            builder.append(" USING ");
-            builder.append("(");
-            builder.append(Joiner.on(", ").join(join.mUsingColumns));
-            builder.append(")");
+            writer
+                .append(" USING (")
+                .appendJoined(", ", join.mUsingColumns)
+                .append(')');
           } else if (!join.mConstraints.isEmpty()) {
-            builder.append(" ON ");
-            builder.append(Joiner.on(" AND ").join(Collections2.transform(join.mConstraints, SURROUND_WITH_PARENS)));
-            args.addAll(Collections2.transform(join.mConstraintsArgs, Functions.toStringFunction()));
+            writer
+                .append(" ON ")
+                .appendJoinedInParens(" AND ", join.mConstraints)
+                .addArgs(join.mConstraintsArgs);
           }
         }
 
         if (!mSelection.isEmpty()) {
-          builder.append(" WHERE ");
-          builder.append(Joiner.on(" AND ").join(Collections2.transform(mSelection, SURROUND_WITH_PARENS)));
-          args.addAll(Collections2.transform(mArgs.get(QueryPart.SELECTION), Functions.toStringFunction()));
+          writer
+              .append(" WHERE ")
+              .appendJoinedInParens(" AND ", mSelection)
+              .addArgs(mSelectionArgs);
         }
 
         if (!mGroupByExpressions.isEmpty()) {
-          builder.append(" GROUP BY ");
-          builder.append(Joiner.on(", ").join(mGroupByExpressions));
-
-          args.addAll(Collections2.transform(mArgs.get(QueryPart.GROUP_BY), Functions.toStringFunction()));
+          writer
+              .append(" GROUP BY ")
+              .appendJoined(", ", mGroupByExpressions)
+              .addArgs(mGroupByArgs);
 
           if (!mHaving.isEmpty()) {
-            builder.append(" HAVING ");
-            builder.append(Joiner.on(" AND ").join(Collections2.transform(mHaving, SURROUND_WITH_PARENS)));
-            args.addAll(Collections2.transform(mArgs.get(QueryPart.HAVING), Functions.toStringFunction()));
+            writer
+                .append(" HAVING ")
+                .appendJoinedInParens(" AND ", mHaving)
+                .addArgs(mHavingArgs);
           }
         }
-
-        return new RawQuery(builder.toString(), args);
       }
 
       public void getTables(ImmutableSet.Builder<String> builder) {
         addTableOrSubquery(builder, mPendingTable);
-        for (TableOrSubquery tableOrSubquery : mTables.keySet()) {
-          addTableOrSubquery(builder, tableOrSubquery);
+        for (TableSpec table : mTables) {
+          addTableOrSubquery(builder, table.mSource);
         }
 
         if (mPendingJoin != null) {
@@ -534,6 +932,42 @@ public final class Query {
 
         builder.addAll(mTablesUsedInExpressions);
       }
+
+      void getKeySets(List<KeySet> keySets) {
+        addKeySets(keySets, mPendingTable);
+        for (TableSpec table : mTables) {
+          addKeySets(keySets, table.mSource);
+        }
+
+        if (mPendingJoin != null) {
+          addKeySets(keySets, mPendingJoin.mJoinSource);
+        }
+
+        for (JoinSpec join : mJoins) {
+          addKeySets(keySets, join.mJoinSource);
+        }
+
+        keySets.addAll(mKeySets);
+      }
+
+      void getTableAliases(SetMultimap<String, String> aliases) {
+        addTableAliases(aliases, mPendingTable, null);
+        for (TableSpec table : mTables) {
+          addTableAliases(aliases, table.mSource, table.mAlias);
+        }
+
+        if (mPendingJoin != null) {
+          addTableAliases(aliases, mPendingJoin.mJoinSource, mPendingJoin.mAlias);
+        }
+
+        for (JoinSpec join : mJoins) {
+          addTableAliases(aliases, join.mJoinSource, join.mAlias);
+        }
+
+        for (Expression expression : mExpressions) {
+          aliases.putAll(expression.getTableAliases());
+        }
+      }
     }
 
     private CompoundQueryPart mCurrentQueryPart = new CompoundQueryPart();
@@ -544,11 +978,18 @@ public final class Query {
     private String mOrderByExpression;
     private String mOrderByCollation;
     private String mOrderByOrder;
-    private List<String> mOrderClauses = Lists.newArrayList();
-    private List<Object> mOrderByArgs = Lists.newArrayList();
-    private Set<String> mTablesUsedInExpressions = Sets.newHashSet();
+    private PersistentList<String> mOrderClauses = PersistentList.empty();
+    private PersistentList<OrderingTerm> mOrderingTerms = PersistentList.empty();
+    private PersistentList<Object> mOrderByArgs = PersistentList.empty();
+    private Object[] mSeekValues;
+    private PersistentList<String> mTablesUsedInExpressions = PersistentList.empty();
+    private PersistentList<KeySet> mKeySets = PersistentList.empty();
+    private PersistentList<Expression> mExpressions = PersistentList.empty();
+
+    private PersistentList<QueryOrOperator> mCompoundQueryParts = PersistentList.empty();
 
-    private LinkedList<QueryOrOperator> mCompoundQueryParts = Lists.newLinkedList();
+    private PersistentList<CommonTableExpression> mCommonTableExpressions = PersistentList.empty();
+    private boolean mRecursive;
 
     public boolean isCompound() {
       int queryPartsCount = (mCurrentQueryPart.isEmpty() ? 0 : 1) + mCompoundQueryParts.size();
@@ -565,13 +1006,20 @@ public final class Query {
       mOrderByExpression = other.mOrderByExpression;
       mOrderByCollation = other.mOrderByCollation;
       mOrderByOrder = other.mOrderByOrder;
-      mOrderClauses = Lists.newCopyOnWriteArrayList(other.mOrderClauses);
-      mOrderByArgs = Lists.newCopyOnWriteArrayList(other.mOrderByArgs);
-      mTablesUsedInExpressions = Sets.newHashSet(other.mTablesUsedInExpressions);
+      mOrderClauses = other.mOrderClauses;
+      mOrderingTerms = other.mOrderingTerms;
+      mOrderByArgs = other.mOrderByArgs;
+      mSeekValues = other.mSeekValues;
+      mTablesUsedInExpressions = other.mTablesUsedInExpressions;
+      mKeySets = other.mKeySets;
+      mExpressions = other.mExpressions;
 
       mCurrentQueryPart = new CompoundQueryPart(other.mCurrentQueryPart);
 
-      mCompoundQueryParts = Lists.newLinkedList(other.mCompoundQueryParts);
+      mCompoundQueryParts = other.mCompoundQueryParts;
+
+      mCommonTableExpressions = other.mCommonTableExpressions;
+      mRecursive = other.mRecursive;
     }
 
     private QueryBuilderImpl(CompoundQueryPart compoundQueryPart) {
@@ -594,7 +1042,154 @@ public final class Query {
       }
       builder.addAll(mTablesUsedInExpressions);
 
-      return builder.build();
+      if (mCommonTableExpressions.isEmpty()) {
+        return builder.build();
+      }
+
+      Set<String> commonTableNames = new HashSet<>();
+      for (CommonTableExpression commonTableExpression : mCommonTableExpressions) {
+        commonTableNames.add(commonTableExpression.mName);
+        builder.addAll(commonTableExpression.mQuery.getTables());
+      }
+      return ImmutableSet.copyOf(Sets.difference(builder.build(), commonTableNames));
+    }
+
+    List<KeySet> getKeySets() {
+      List<KeySet> keySets = new ArrayList<>();
+
+      mCurrentQueryPart.getKeySets(keySets);
+      for (QueryOrOperator part : mCompoundQueryParts) {
+        if (part.isQuery()) {
+          keySets.addAll(part.mQuery.getKeySets());
+        }
+      }
+      keySets.addAll(mKeySets);
+
+      for (CommonTableExpression commonTableExpression : mCommonTableExpressions) {
+        keySets.addAll(commonTableExpression.mQuery.getKeySets());
+      }
+      return keySets;
+    }
+
+    SetMultimap<String, String> getTableAliases() {
+      SetMultimap<String, String> aliases = LinkedHashMultimap.create();
+
+      mCurrentQueryPart.getTableAliases(aliases);
+      for (QueryOrOperator part : mCompoundQueryParts) {
+        if (part.isQuery()) {
+          aliases.putAll(part.mQuery.getTableAliases());
+        }
+      }
+      for (Expression expression : mExpressions) {
+        aliases.putAll(expression.getTableAliases());
+      }
+
+      if (mCommonTableExpressions.isEmpty()) {
+        return aliases;
+      }
+
+      Set<String> commonTableNames = new HashSet<>();
+      for (CommonTableExpression commonTableExpression : mCommonTableExpressions) {
+        commonTableNames.add(commonTableExpression.mName);
+        aliases.putAll(commonTableExpression.mQuery.getTableAliases());
+      }
+      aliases.values().removeAll(commonTableNames);
+      return aliases;
+    }
+
+    CreateIndexAction buildIndex() {
+      if (isCompound() || !mCommonTableExpressions.isEmpty()) {
+        return null;
+      }
+
+      CompoundQueryPart part = mCurrentQueryPart;
+      if (part.mTables.size() != 1 || !part.mJoins.isEmpty() || part.mTables.get(0).mSource.mTable == null) {
+        return null;
+      }
+      String table = part.mTables.get(0).mSource.mTable;
+      String alias = part.mTables.get(0).mAlias;
+
+      ColumnUsage usage = new ColumnUsage();
+      for (Expression where : part.mWhereExpressions) {
+        ColumnUsage whereUsage = where.getColumnUsage();
+        if (!whereUsage.mDisjunction) {
+          usage.addAll(whereUsage);
+        }
+      }
+
+      Map<String, Boolean> columns = new LinkedHashMap<>();
+      for (String column : usage.mEqualityColumns) {
+        columns.put(column, false);
+      }
+
+      Map<String, Boolean> orderColumns = getIndexableOrderColumns(table, alias);
+      if (orderColumns != null && !orderColumns.isEmpty()) {
+        for (Entry<String, Boolean> orderColumn : orderColumns.entrySet()) {
+          if (!columns.containsKey(orderColumn.getKey())) {
+            columns.put(orderColumn.getKey(), orderColumn.getValue());
+          }
+        }
+      } else {
+        for (String column : usage.mRangeColumns) {
+          if (!columns.containsKey(column)) {
+            columns.put(column, false);
+            break;
+          }
+        }
+      }
+
+      if (columns.isEmpty()) {
+        return null;
+      }
+
+      CreateIndexAction index = IndexActions
+          .create()
+          .index(table + "_" + Joiner.on('_').join(columns.keySet()) + "_idx")
+          .on(table)
+          .ifNotExists();
+      for (Entry<String, Boolean> column : columns.entrySet()) {
+        if (column.getValue()) {
+          index.columnDesc(column.getKey());
+        } else {
+          index.column(column.getKey());
+        }
+      }
+      return index;
+    }
+
+    private Map<String, Boolean> getIndexableOrderColumns(String table, String alias) {
+      Map<String, Boolean> columns = new LinkedHashMap<>();
+      for (OrderingTerm term : mOrderingTerms) {
+        Matcher matcher = ORDER_COLUMN_PATTERN.matcher(term.mExpression);
+        if (term.mCollation != null || !matcher.matches()) {
+          return null;
+        }
+
+        String qualifier = matcher.group(1);
+        if (qualifier != null && !qualifier.equals(table) && !qualifier.equals(alias)) {
+          return null;
+        }
+        if (!columns.containsKey(matcher.group(2))) {
+          columns.put(matcher.group(2), term.mDescending);
+        }
+      }
+      return columns;
+    }
+
+    private static void addTableAliases(SetMultimap<String, String> aliases, TableOrSubquery tableOrSubquery, String alias) {
+      if (tableOrSubquery != null) {
+        if (tableOrSubquery.mSubquery != null) {
+          aliases.putAll(tableOrSubquery.mSubquery.getTableAliases());
+        } else if (alias != null) {
+          aliases.put(alias, tableOrSubquery.mTable);
+        }
+      }
+    }
+
+    private static void addKeySets(List<KeySet> keySets, TableOrSubquery tableOrSubquery) {
+      if (tableOrSubquery != null && tableOrSubquery.mSubquery != null) {
+        keySets.addAll(tableOrSubquery.mSubquery.getKeySets());
+      }
     }
 
     private static void addTableOrSubquery(ImmutableSet.Builder<String> builder, TableOrSubquery tableOrSubquery) {
@@ -609,66 +1204,100 @@ public final class Query {
 
     @Override
     public RawQuery toRawQuery() {
-      boolean currentPartIsNotEmpty = !mCurrentQueryPart.isEmpty();
-      Preconditions.checkState(currentPartIsNotEmpty || mCompoundQueryParts.size() > 1);
+      freeze();
+      Preconditions.checkState(getKeySets().isEmpty(), "Query using key sets can be executed only with its perform methods");
+      return render().toRawQuery();
+    }
 
+    void freeze() {
       buildPendingOrderByClause();
+      mCurrentQueryPart.processPendingParts();
+      buildPendingSeekSelection();
+    }
 
-      List<String> args = Lists.newArrayList();
-      StringBuilder builder = new StringBuilder();
+    RenderedQuery render() {
+      boolean currentPartIsNotEmpty = !mCurrentQueryPart.isEmpty();
+      Preconditions.checkState(currentPartIsNotEmpty || mCompoundQueryParts.size() > 1);
 
+      int estimatedLength = 32 + StatementWriter.length(mOrderClauses, 2);
+      int argsCount = mOrderByArgs.size();
+      for (CommonTableExpression commonTableExpression : mCommonTableExpressions) {
+        estimatedLength += commonTableExpression.mName.length() + commonTableExpression.mQuery.getSql().length() + 8;
+        argsCount += commonTableExpression.mQuery.getArgs().length;
+      }
       for (QueryOrOperator part : mCompoundQueryParts) {
         if (part.isOperator()) {
-          builder.append(" ");
-          builder.append(part.mOperator);
-          builder.append(" ");
+          estimatedLength += part.mOperator.length() + 2;
         } else {
-          Query query = part.mQuery;
-          RawQuery partRawQuery = query.toRawQuery();
+          estimatedLength += part.mQuery.getSql().length() + 16;
+          argsCount += part.mQuery.getArgs().length;
+        }
+      }
+      if (currentPartIsNotEmpty) {
+        estimatedLength += mCurrentQueryPart.estimateLength();
+        argsCount += mCurrentQueryPart.getArgsCount();
+      }
 
-          if (query.mQueryBuilder.isCompound()) {
-            builder.append("SELECT * FROM (");
+      StatementWriter writer = new StatementWriter(estimatedLength, argsCount);
+
+      if (!mCommonTableExpressions.isEmpty()) {
+        writer.append(mRecursive ? "WITH RECURSIVE " : "WITH ");
+        for (int i = 0; i < mCommonTableExpressions.size(); i++) {
+          CommonTableExpression commonTableExpression = mCommonTableExpressions.get(i);
+          if (i > 0) {
+            writer.append(", ");
           }
+          writer
+              .append(commonTableExpression.mName)
+              .append(" AS ")
+              .appendSubquery(commonTableExpression.mQuery);
+        }
+        writer.append(' ');
+      }
 
-          builder.append(partRawQuery.mRawQuery);
+      for (QueryOrOperator part : mCompoundQueryParts) {
+        if (part.isOperator()) {
+          writer
+              .append(' ')
+              .append(part.mOperator)
+              .append(' ');
+        } else {
+          Query query = part.mQuery;
 
           if (query.mQueryBuilder.isCompound()) {
-            builder.append(")");
+            writer.append("SELECT * FROM ").appendSubquery(query);
+          } else {
+            writer.append(query.getSql()).addArgs(query.getArgs());
           }
-
-          args.addAll(partRawQuery.mRawQueryArgs);
         }
       }
 
       if (currentPartIsNotEmpty) {
-        RawQuery lastQueryPart = mCurrentQueryPart.toRawQuery();
-        args.addAll(lastQueryPart.mRawQueryArgs);
-        builder.append(lastQueryPart.mRawQuery);
+        mCurrentQueryPart.render(writer);
       }
 
       if (!mOrderClauses.isEmpty()) {
-        builder.append(" ORDER BY ");
-        builder.append(Joiner.on(", ").join(mOrderClauses));
+        writer
+            .append(" ORDER BY ")
+            .appendJoined(", ", mOrderClauses);
       }
 
-      args.addAll(Collections2.transform(mOrderByArgs, Functions.toStringFunction()));
+      writer.addArgs(mOrderByArgs);
 
       if (mLimit != null) {
-        builder.append(" LIMIT ");
-        builder.append(mLimit);
+        writer.append(" LIMIT ").append(mLimit);
         if (mOffset != null) {
-          builder.append(" OFFSET ");
-          builder.append(mOffset);
+          writer.append(" OFFSET ").append(mOffset);
         }
       }
 
-      return new RawQuery(builder.toString(), args);
+      return new RenderedQuery(writer.getSql(), writer.getArgs());
     }
 
     @Override
     public FluentCursor perform(SQLiteDatabase db) {
-      RawQuery rawQuery = toRawQuery();
-      return new FluentCursor(db.rawQuery(rawQuery.mRawQuery, rawQuery.mRawQueryArgs.toArray(new String[rawQuery.mRawQueryArgs.size()])));
+      freeze();
+      return render().perform(db);
     }
 
     @Override
@@ -701,10 +1330,10 @@ public final class Query {
       mCurrentQueryPart.addPendingColumns();
       mCurrentQueryPart.addPendingColumn();
       mCurrentQueryPart.mColumnWithPotentialAlias = expression.getSql();
-      mCurrentQueryPart.mTablesUsedInExpressions.addAll(expression.getTables());
+      mCurrentQueryPart.addExpressionSources(expression);
 
       if (expression.getArgsCount() > 0) {
-        mCurrentQueryPart.mArgs.putAll(QueryPart.PROJECTION, Arrays.asList(expression.getMergedArgs()));
+        mCurrentQueryPart.mProjectionArgs = mCurrentQueryPart.mProjectionArgs.plusAll(expression.getMergedArgs());
       }
 
       return this;
@@ -713,7 +1342,7 @@ public final class Query {
     @Override
     public QueryBuilder as(String alias) {
       Preconditions.checkState(mCurrentQueryPart.mColumnWithPotentialAlias != null);
-      mCurrentQueryPart.mProjection.add(mCurrentQueryPart.mColumnWithPotentialAlias + " AS " + alias);
+      mCurrentQueryPart.mProjection = mCurrentQueryPart.mProjection.plus(mCurrentQueryPart.mColumnWithPotentialAlias + " AS " + alias);
       mCurrentQueryPart.mColumnWithPotentialAlias = null;
       return this;
     }
@@ -723,7 +1352,7 @@ public final class Query {
       mCurrentQueryPart.addPendingColumn();
       mCurrentQueryPart.addPendingColumns();
       if (columns != null) {
-        Collections.addAll(mCurrentQueryPart.mColumnsWithPotentialTable, columns);
+        mCurrentQueryPart.mColumnsWithPotentialTable = mCurrentQueryPart.mColumnsWithPotentialTable.plusAll(columns);
       }
       return this;
     }
@@ -732,7 +1361,7 @@ public final class Query {
     public ColumnsTableSelector allColumns() {
       mCurrentQueryPart.addPendingColumn();
       mCurrentQueryPart.addPendingColumns();
-      mCurrentQueryPart.mColumnsWithPotentialTable.add("*");
+      mCurrentQueryPart.mColumnsWithPotentialTable = mCurrentQueryPart.mColumnsWithPotentialTable.plus("*");
       return mColumnsTableSelectorHelper;
     }
 
@@ -745,11 +1374,11 @@ public final class Query {
     @Override
     public QueryBuilder asColumnNames() {
       for (String column : mCurrentQueryPart.mColumnsWithPotentialTable) {
-        mCurrentQueryPart.mProjection.add(mCurrentQueryPart.mColumnsListsTableWithPotentialAlias + "." + column + " AS " + column);
+        mCurrentQueryPart.mProjection = mCurrentQueryPart.mProjection.plus(mCurrentQueryPart.mColumnsListsTableWithPotentialAlias + "." + column + " AS " + column);
       }
 
       mCurrentQueryPart.mColumnsListsTableWithPotentialAlias = null;
-      mCurrentQueryPart.mColumnsWithPotentialTable.clear();
+      mCurrentQueryPart.mColumnsWithPotentialTable = PersistentList.empty();
 
       return this;
     }
@@ -776,9 +1405,9 @@ public final class Query {
       @Override
       public QueryBuilder of(String table) {
         for (String column : mCurrentQueryPart.mColumnsWithPotentialTable) {
-          mCurrentQueryPart.mProjection.add(table + "." + column);
+          mCurrentQueryPart.mProjection = mCurrentQueryPart.mProjection.plus(table + "." + column);
         }
-        mCurrentQueryPart.mColumnsWithPotentialTable.clear();
+        mCurrentQueryPart.mColumnsWithPotentialTable = PersistentList.empty();
 
         return QueryBuilderImpl.this;
       }
@@ -816,8 +1445,9 @@ public final class Query {
     private CompoundQueryHelper mCompoundQueryHelper = new CompoundQueryHelper() {
       @Override
       public QueryBuilder select() {
-        mCompoundQueryParts.add(new QueryOrOperator(new QueryBuilderImpl(mCurrentQueryPart).build()));
-        mCompoundQueryParts.add(new QueryOrOperator(mOperation));
+        mCompoundQueryParts = mCompoundQueryParts
+            .plus(new QueryOrOperator(new QueryBuilderImpl(mCurrentQueryPart).build()))
+            .plus(new QueryOrOperator(mOperation));
 
         mCurrentQueryPart = new CompoundQueryPart();
 
@@ -827,15 +1457,15 @@ public final class Query {
 
     @Override
     public QueryBuilder groupBy(String expression) {
-      mCurrentQueryPart.mGroupByExpressions.add(expression);
+      mCurrentQueryPart.mGroupByExpressions = mCurrentQueryPart.mGroupByExpressions.plus(expression);
       return this;
     }
 
     @Override
     public QueryBuilder groupBy(Expression expression) {
-      mCurrentQueryPart.mTablesUsedInExpressions.addAll(expression.getTables());
+      mCurrentQueryPart.addExpressionSources(expression);
       if (expression.getArgsCount() > 0) {
-        mCurrentQueryPart.mArgs.putAll(QueryPart.GROUP_BY, Arrays.asList(expression.getMergedArgs()));
+        mCurrentQueryPart.mGroupByArgs = mCurrentQueryPart.mGroupByArgs.plusAll(expression.getMergedArgs());
       }
 
       return groupBy(expression.getSql());
@@ -843,9 +1473,9 @@ public final class Query {
 
     @Override
     public QueryBuilder having(String having, Object... havingArgs) {
-      mCurrentQueryPart.mHaving.add(having);
+      mCurrentQueryPart.mHaving = mCurrentQueryPart.mHaving.plus(having);
       if (havingArgs != null) {
-        mCurrentQueryPart.mArgs.putAll(QueryPart.HAVING, Arrays.asList(havingArgs));
+        mCurrentQueryPart.mHavingArgs = mCurrentQueryPart.mHavingArgs.plusAll(havingArgs);
       }
 
       return this;
@@ -853,7 +1483,7 @@ public final class Query {
 
     @Override
     public QueryBuilder having(Expression having, Object... havingArgs) {
-      mCurrentQueryPart.mTablesUsedInExpressions.addAll(having.getTables());
+      mCurrentQueryPart.addExpressionSources(having);
       return having(having.getSql(), having.getMergedArgs(havingArgs));
     }
 
@@ -909,7 +1539,7 @@ public final class Query {
     private JoinHelper mJoinHelper = new JoinHelper(this) {
       @Override
       public JoinConstraintBuilder as(String alias) {
-        mCurrentQueryPart.mPendingJoin.mAlias = alias;
+        mCurrentQueryPart.mPendingJoin = mCurrentQueryPart.mPendingJoin.withAlias(alias);
         return this;
       }
 
@@ -917,25 +1547,21 @@ public final class Query {
       public QueryBuilder using(String... columns) {
         Preconditions.checkArgument(columns != null, "Column list in USING clause cannot be null");
         Preconditions.checkArgument(columns.length > 0, "Column list in USING clause cannot be empty");
-        mCurrentQueryPart.mPendingJoin.mUsingColumns = columns;
+        mCurrentQueryPart.mPendingJoin = mCurrentQueryPart.mPendingJoin.withUsingColumns(columns.clone());
         mCurrentQueryPart.addPendingJoin();
         return QueryBuilderImpl.this;
       }
 
       @Override
       public JoinOnConstraintBuilder on(String constraint, Object... constraintArgs) {
-        mCurrentQueryPart.mPendingJoin.mConstraints.add(constraint);
-        if (constraintArgs != null) {
-          Collections.addAll(mCurrentQueryPart.mPendingJoin.mConstraintsArgs, constraintArgs);
-        }
+        mCurrentQueryPart.mPendingJoin = mCurrentQueryPart.mPendingJoin.withConstraint(constraint, constraintArgs);
         return this;
       }
 
       @Override
       public JoinOnConstraintBuilder on(Expression constraint, Object... constraintArgs) {
-        mCurrentQueryPart.mTablesUsedInExpressions.addAll(constraint.getTables());
-        mCurrentQueryPart.mPendingJoin.mConstraints.add(constraint.getSql());
-        Collections.addAll(mCurrentQueryPart.mPendingJoin.mConstraintsArgs, constraint.getMergedArgs(constraintArgs));
+        mCurrentQueryPart.addExpressionSources(constraint);
+        mCurrentQueryPart.mPendingJoin = mCurrentQueryPart.mPendingJoin.withConstraint(constraint.getSql(), constraint.getMergedArgs(constraintArgs));
 
         return this;
       }
@@ -944,26 +1570,52 @@ public final class Query {
     private static class JoinSpec {
       final String mJoinType;
       final TableOrSubquery mJoinSource;
-
-      String mAlias;
-
-      String[] mUsingColumns;
-
-      List<String> mConstraints = Lists.newArrayList();
-      List<Object> mConstraintsArgs = Lists.newArrayList();
+      final String mAlias;
+      final String[] mUsingColumns;
+      final PersistentList<String> mConstraints;
+      final PersistentList<Object> mConstraintsArgs;
 
       private JoinSpec(String joinType, TableOrSubquery joinSource) {
+        this(joinType, joinSource, null, null, PersistentList.<String>empty(), PersistentList.empty());
+      }
+
+      private JoinSpec(String joinType, TableOrSubquery joinSource, String alias, String[] usingColumns, PersistentList<String> constraints, PersistentList<Object> constraintsArgs) {
         mJoinType = joinType;
         mJoinSource = joinSource;
+        mAlias = alias;
+        mUsingColumns = usingColumns;
+        mConstraints = constraints;
+        mConstraintsArgs = constraintsArgs;
+      }
+
+      JoinSpec withAlias(String alias) {
+        return new JoinSpec(mJoinType, mJoinSource, alias, mUsingColumns, mConstraints, mConstraintsArgs);
+      }
+
+      JoinSpec withUsingColumns(String[] usingColumns) {
+        return new JoinSpec(mJoinType, mJoinSource, mAlias, usingColumns, mConstraints, mConstraintsArgs);
       }
 
-      private JoinSpec(JoinSpec other) {
-        mJoinType = other.mJoinType;
-        mJoinSource = new TableOrSubquery(other.mJoinSource);
-        mAlias = other.mAlias;
-        mUsingColumns = other.mUsingColumns != null ? Arrays.copyOf(other.mUsingColumns, other.mUsingColumns.length) : null;
-        mConstraints.addAll(other.mConstraints);
-        mConstraintsArgs.addAll(other.mConstraintsArgs);
+      JoinSpec withConstraint(String constraint, Object[] constraintArgs) {
+        return new JoinSpec(mJoinType, mJoinSource, mAlias, mUsingColumns,
+            mConstraints.plus(constraint),
+            constraintArgs != null ? mConstraintsArgs.plusAll(constraintArgs) : mConstraintsArgs
+        );
+      }
+
+      int estimateLength() {
+        int length = 16 + mJoinType.length() + mJoinSource.estimateLength();
+        if (mAlias != null) {
+          length += mAlias.length();
+        }
+        if (mUsingColumns != null) {
+          for (String column : mUsingColumns) {
+            length += column.length() + 2;
+          }
+        } else {
+          length += StatementWriter.length(mConstraints, 7);
+        }
+        return length;
       }
     }
 
@@ -1001,8 +1653,10 @@ public final class Query {
 
     @Override
     public OrderingTermBuilder orderBy(Expression expression) {
-      mTablesUsedInExpressions.addAll(expression.getTables());
-      Collections.addAll(mOrderByArgs, expression.getMergedArgs());
+      mTablesUsedInExpressions = mTablesUsedInExpressions.plusAll(expression.getTables());
+      mKeySets = mKeySets.plusAll(expression.getKeySets());
+      mExpressions = mExpressions.plus(expression);
+      mOrderByArgs = mOrderByArgs.plusAll(expression.getMergedArgs());
       return orderBy(expression.getSql());
     }
 
@@ -1040,21 +1694,166 @@ public final class Query {
           orderByClause += mOrderByOrder;
         }
 
+        mOrderingTerms = mOrderingTerms.plus(new OrderingTerm(mOrderByExpression, mOrderByCollation, " DESC".equals(mOrderByOrder)));
+
         mOrderByExpression = null;
         mOrderByCollation = null;
         mOrderByOrder = null;
 
-        mOrderClauses.add(orderByClause);
+        mOrderClauses = mOrderClauses.plus(orderByClause);
       }
     }
 
+    private static class OrderingTerm {
+      final String mExpression;
+      final String mCollation;
+      final boolean mDescending;
+
+      private OrderingTerm(String expression, String collation, boolean descending) {
+        mExpression = expression;
+        mCollation = collation;
+        mDescending = descending;
+      }
+
+      private void appendComparison(StringBuilder builder, boolean orEqual) {
+        builder.append(mExpression);
+        if (mCollation != null) {
+          builder.append(" COLLATE ").append(mCollation);
+        }
+        builder.append(mDescending ? " <" : " >");
+        if (orEqual) {
+          builder.append('=');
+        }
+        builder.append(" ?");
+      }
+
+      private void appendEquality(StringBuilder builder) {
+        builder.append(mExpression);
+        if (mCollation != null) {
+          builder.append(" COLLATE ").append(mCollation);
+        }
+        builder.append(" = ?");
+      }
+    }
+
+    /**
+     * Names of the result columns holding the values of ordering terms, or
+     * null if any of the terms is not selected, in which case the values of
+     * the last row can't be used for keyset pagination.
+     */
+    List<String> getSeekColumns() {
+      if (isCompound() || mOrderingTerms.isEmpty() || !mOrderByArgs.isEmpty() || !mCurrentQueryPart.mGroupByExpressions.isEmpty()) {
+        return null;
+      }
+
+      List<String> columns = new ArrayList<>(mOrderingTerms.size());
+      for (OrderingTerm term : mOrderingTerms) {
+        String column = getResultColumn(term.mExpression);
+        if (column == null) {
+          return null;
+        }
+        columns.add(column);
+      }
+      return columns;
+    }
+
+    private String getResultColumn(String expression) {
+      Matcher columnMatcher = ORDER_COLUMN_PATTERN.matcher(expression);
+      boolean isColumn = columnMatcher.matches();
+      String table = isColumn ? columnMatcher.group(1) : null;
+
+      if (isColumn && mCurrentQueryPart.mProjection.isEmpty()) {
+        return columnMatcher.group(2);
+      }
+
+      for (String resultColumn : mCurrentQueryPart.mProjection) {
+        Matcher aliasMatcher = ALIASED_COLUMN_PATTERN.matcher(resultColumn);
+        if (aliasMatcher.matches() && aliasMatcher.group(1).equals(expression)) {
+          return aliasMatcher.group(2);
+        }
+        // SQLite names the result column of "table.column" just "column"
+        if (resultColumn.equals(expression)) {
+          return isColumn ? columnMatcher.group(2) : expression;
+        }
+        // the result column doesn't have to be from the same table as the
+        // ordering term, unless all columns of that table are selected
+        if (isColumn && ("*".equals(resultColumn) || resultColumn.equals(table + ".*"))) {
+          return columnMatcher.group(2);
+        }
+      }
+
+      // unqualified name refers either to a result column alias or to
+      // a column of the only table which has such column
+      return isColumn && table == null ? expression : null;
+    }
+
+    @Override
+    public QueryBuilder seekAfter(Object... lastRowValues) {
+      Preconditions.checkArgument(lastRowValues != null && lastRowValues.length > 0, "Values of the last row cannot be empty");
+      for (Object value : lastRowValues) {
+        Preconditions.checkArgument(value != null, "Keyset pagination doesn't support NULL values of ordering terms");
+      }
+      mSeekValues = lastRowValues.clone();
+      return this;
+    }
+
+    private void buildPendingSeekSelection() {
+      if (mSeekValues == null) {
+        return;
+      }
+
+      Preconditions.checkState(!isCompound(), "Keyset pagination is not supported for compound queries");
+      Preconditions.checkState(mCurrentQueryPart.mGroupByExpressions.isEmpty(), "Keyset pagination is not supported for queries with GROUP BY clause");
+      Preconditions.checkState(!mOrderingTerms.isEmpty(), "Keyset pagination requires ORDER BY clause");
+      Preconditions.checkState(mOrderByArgs.isEmpty(), "Keyset pagination doesn't support ORDER BY terms with args");
+      Preconditions.checkState(mSeekValues.length == mOrderingTerms.size(),
+          "Expected %s values of the last row for keyset pagination, got %s", mOrderingTerms.size(), mSeekValues.length);
+
+      Object[] values = mSeekValues;
+      mSeekValues = null;
+
+      int termsCount = mOrderingTerms.size();
+      StringBuilder selection = new StringBuilder();
+      List<Object> args = new ArrayList<>();
+
+      // the redundant range condition on the first term lets SQLite use
+      // an index on it, which it can't do for the OR-ed terms alone
+      if (termsCount > 1) {
+        mOrderingTerms.get(0).appendComparison(selection, true);
+        args.add(values[0]);
+        selection.append(" AND (");
+      }
+
+      for (int i = 0; i < termsCount; i++) {
+        if (i > 0) {
+          selection.append(" OR (");
+          for (int j = 0; j < i; j++) {
+            mOrderingTerms.get(j).appendEquality(selection);
+            selection.append(" AND ");
+            args.add(values[j]);
+          }
+        }
+        mOrderingTerms.get(i).appendComparison(selection, false);
+        args.add(values[i]);
+        if (i > 0) {
+          selection.append(')');
+        }
+      }
+
+      if (termsCount > 1) {
+        selection.append(')');
+      }
+
+      where(selection.toString(), args.toArray());
+    }
+
     @SafeVarargs
     @Override
     public final <T> QueryBuilder where(String selection, T... selectionArgs) {
       if (!Strings.isNullOrEmpty(selection)) {
-        mCurrentQueryPart.mSelection.add(selection);
+        mCurrentQueryPart.mSelection = mCurrentQueryPart.mSelection.plus(selection);
         if (selectionArgs != null) {
-          mCurrentQueryPart.mArgs.putAll(QueryPart.SELECTION, Arrays.asList(selectionArgs));
+          mCurrentQueryPart.mSelectionArgs = mCurrentQueryPart.mSelectionArgs.plusAll(selectionArgs);
         }
       }
 
@@ -1065,7 +1864,8 @@ public final class Query {
     @Override
     public final <T> QueryBuilder where(Expression selection, T... selectionArgs) {
       if (selection != null) {
-        mCurrentQueryPart.mTablesUsedInExpressions.addAll(selection.getTables());
+        mCurrentQueryPart.addExpressionSources(selection);
+        mCurrentQueryPart.mWhereExpressions = mCurrentQueryPart.mWhereExpressions.plus(selection);
         where(selection.getSql(), selection.getMergedArgs(selectionArgs));
       }
       return this;
@@ -1077,6 +1877,47 @@ public final class Query {
       }
     }
 
+    private static class CommonTableExpression {
+      final String mName;
+      final Query mQuery;
+
+      private CommonTableExpression(String name, Query query) {
+        mName = name;
+        mQuery = query;
+      }
+    }
+
+    @Override
+    public QueryBuilder with(String name, Query query) {
+      Preconditions.checkNotNull(name);
+      Preconditions.checkNotNull(query);
+      for (CommonTableExpression commonTableExpression : mCommonTableExpressions) {
+        Preconditions.checkArgument(!name.equals(commonTableExpression.mName), "Common table expression %s is already defined", name);
+      }
+
+      mCommonTableExpressions = mCommonTableExpressions.plus(new CommonTableExpression(name, query));
+      return this;
+    }
+
+    @Override
+    public QueryBuilder with(String name, QueryBuilder queryBuilder) {
+      return with(name, queryBuilder.build());
+    }
+
+    @Override
+    public QueryBuilder withRecursive(String name, Query anchor, Query recursiveStep) {
+      Preconditions.checkNotNull(anchor);
+      Preconditions.checkNotNull(recursiveStep);
+      with(name, unionAll(anchor, recursiveStep));
+      mRecursive = true;
+      return this;
+    }
+
+    @Override
+    public QueryBuilder withRecursive(String name, QueryBuilder anchor, QueryBuilder recursiveStep) {
+      return withRecursive(name, anchor.build(), recursiveStep.build());
+    }
+
     private TableAliasBuilderImpl mTableAliasBuilder = new TableAliasBuilderImpl(this) {
       @Override
       public QueryBuilder as(String alias) {
@@ -1118,15 +1959,32 @@ public final class Query {
         mSubquery = subquery;
       }
 
-      private TableOrSubquery(TableOrSubquery other) {
-        mTable = other.mTable;
-        if (other.mSubquery != null) {
-          mSubquery = other.mSubquery.buildUpon().build();
+      int estimateLength() {
+        return mTable != null ? mTable.length() : mSubquery.getSql().length() + 2;
+      }
+
+      int getArgsCount() {
+        return mTable != null ? 0 : mSubquery.getArgs().length;
+      }
+
+      void render(StatementWriter writer) {
+        if (mTable != null) {
+          writer.append(mTable);
         } else {
-          mSubquery = null;
+          writer.appendSubquery(mSubquery);
         }
       }
     }
+
+    private static class TableSpec {
+      final TableOrSubquery mSource;
+      final String mAlias;
+
+      private TableSpec(TableOrSubquery source, String alias) {
+        mSource = source;
+        mAlias = alias;
+      }
+    }
   }
 
   private static class QueryOrOperator {
@@ -1152,7 +2010,7 @@ public final class Query {
     }
   }
 
-  public interface QueryBuilder extends DistinctSelector, TableSelector, ColumnSelector, SelectionBuilder, NaturalJoinTypeBuilder, GroupByBuilder, HavingBuilder, OrderByBuilder, LimitBuilder, CompoundOperator {
+  public interface QueryBuilder extends CommonTableExpressionBuilder, DistinctSelector, TableSelector, ColumnSelector, SelectionBuilder, NaturalJoinTypeBuilder, GroupByBuilder, HavingBuilder, OrderByBuilder, SeekBuilder, LimitBuilder, CompoundOperator {
     Query build();
     RawQuery toRawQuery();
     Set<String> getTables();
@@ -1292,6 +2150,11 @@ public final class Query {
       return mDelegate.orderBy(expression);
     }
 
+    @Override
+    public QueryBuilder seekAfter(Object... lastRowValues) {
+      return mDelegate.seekAfter(lastRowValues);
+    }
+
     @SafeVarargs
     @Override
     public final <T> QueryBuilder where(String selection, T... selectionArgs) {
@@ -1314,6 +2177,26 @@ public final class Query {
       return mDelegate.from(subquery);
     }
 
+    @Override
+    public QueryBuilder with(String name, Query query) {
+      return mDelegate.with(name, query);
+    }
+
+    @Override
+    public QueryBuilder with(String name, QueryBuilder queryBuilder) {
+      return mDelegate.with(name, queryBuilder);
+    }
+
+    @Override
+    public QueryBuilder withRecursive(String name, Query anchor, Query recursiveStep) {
+      return mDelegate.withRecursive(name, anchor, recursiveStep);
+    }
+
+    @Override
+    public QueryBuilder withRecursive(String name, QueryBuilder anchor, QueryBuilder recursiveStep) {
+      return mDelegate.withRecursive(name, anchor, recursiveStep);
+    }
+
     @Override
     public TableAliasBuilder from(QueryBuilder subqueryBuilder) {
       return mDelegate.from(subqueryBuilder);
@@ -1350,6 +2233,20 @@ public final class Query {
     }
   }
 
+  /**
+   * Defines common table expressions, which can be used as tables by all
+   * parts of the query. The WITH clause is rendered in front of the whole
+   * statement regardless of when these methods are called. The recursive
+   * variant combines the anchor and the recursive step with UNION ALL; the
+   * recursive step should select from the common table expression itself.
+   */
+  public interface CommonTableExpressionBuilder {
+    QueryBuilder with(String name, Query query);
+    QueryBuilder with(String name, QueryBuilder queryBuilder);
+    QueryBuilder withRecursive(String name, Query anchor, Query recursiveStep);
+    QueryBuilder withRecursive(String name, QueryBuilder anchor, QueryBuilder recursiveStep);
+  }
+
   public interface TableSelector {
     TableAliasBuilder from(String table);
     TableAliasBuilder from(Query subquery);
@@ -1451,6 +2348,24 @@ public final class Query {
     QueryBuilder desc();
   }
 
+  /**
+   * Keyset pagination: instead of skipping the rows of previous pages with
+   * OFFSET, selects only the rows which come after the last row of previous
+   * page in the order defined by the ORDER BY terms of this query, so every
+   * page costs the same as the first one. The values of the last row can be
+   * read with {@link FluentCursor#getContinuationToken(String...)}.
+   *
+   * The number of values must match the number of ORDER BY terms and the
+   * terms should identify the row uniquely, e.g. by ending with the primary key.
+   * The values cannot be NULL and the terms shouldn't evaluate to NULL, since
+   * the rows with NULL values are never selected after the seek. Queries with
+   * GROUP BY clause are not supported, because the seek condition is added to
+   * the WHERE clause.
+   */
+  public interface SeekBuilder {
+    QueryBuilder seekAfter(Object... lastRowValues);
+  }
+
   public interface LimitBuilder {
     LimitOffsetBuilder limit(String expression);
     LimitOffsetBuilder limit(int limit);
@@ -1,8 +0,0 @@
-package com.getbase.android.db.fluentsqlite;
-
-enum QueryPart {
-  PROJECTION,
-  SELECTION,
-  GROUP_BY,
-  HAVING
-}
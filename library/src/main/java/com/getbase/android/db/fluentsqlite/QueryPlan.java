@@ -0,0 +1,195 @@
+package com.getbase.android.db.fluentsqlite;
+
+import com.google.common.collect.ImmutableList;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parsed output of EXPLAIN QUERY PLAN. Handles both the tree format of
+ * SQLite 3.24+ (id and parent columns) and the older flat format, in which
+ * the steps of subqueries are nested under the step referencing them.
+ */
+public final class QueryPlan {
+  public enum StepType {
+    SCAN,
+    SEARCH,
+    TEMP_B_TREE,
+    CORRELATED_SUBQUERY,
+    OTHER
+  }
+
+  public static final class Step {
+    private static final Pattern TABLE_PATTERN = Pattern.compile("^(?:SCAN|SEARCH) (?:TABLE )?(\\S+)");
+
+    private final String mDetail;
+    private final StepType mType;
+    private final String mTable;
+    private final List<Step> mChildren = new ArrayList<>();
+
+    Step(String detail) {
+      mDetail = detail;
+      mType = parseType(detail);
+
+      String table = null;
+      if (mType == StepType.SCAN || mType == StepType.SEARCH) {
+        Matcher matcher = TABLE_PATTERN.matcher(detail);
+        if (matcher.find() && !"SUBQUERY".equals(matcher.group(1)) && !"CONSTANT".equals(matcher.group(1))) {
+          table = matcher.group(1);
+        }
+      }
+      mTable = table;
+    }
+
+    private static StepType parseType(String detail) {
+      if (detail.contains("CORRELATED")) {
+        return StepType.CORRELATED_SUBQUERY;
+      } else if (detail.startsWith("SCAN ")) {
+        return StepType.SCAN;
+      } else if (detail.startsWith("SEARCH ")) {
+        return StepType.SEARCH;
+      } else if (detail.startsWith("USE TEMP B-TREE")) {
+        return StepType.TEMP_B_TREE;
+      }
+      return StepType.OTHER;
+    }
+
+    public String getDetail() {
+      return mDetail;
+    }
+
+    public StepType getType() {
+      return mType;
+    }
+
+    /**
+     * @return Name of the scanned or searched table, or null if this step
+     * doesn't access a table directly. Since SQLite 3.36 it's the alias of
+     * the table, if the query defines one.
+     */
+    public String getTable() {
+      return mTable;
+    }
+
+    public List<Step> getChildren() {
+      return Collections.unmodifiableList(mChildren);
+    }
+
+    @Override
+    public String toString() {
+      return mDetail;
+    }
+  }
+
+  private static final Pattern SUBQUERY_PATTERN = Pattern.compile("SUBQUER(?:Y|IES) (\\d+)(?: AND (\\d+))?");
+
+  private final List<Step> mSteps;
+
+  private QueryPlan(List<Step> steps) {
+    mSteps = ImmutableList.copyOf(steps);
+  }
+
+  static QueryPlan fromCursor(Cursor cursor) {
+    int detailIndex = cursor.getColumnIndexOrThrow("detail");
+    int parentIndex = cursor.getColumnIndex("parent");
+
+    List<Step> roots = new ArrayList<>();
+    if (parentIndex >= 0) {
+      int idIndex = cursor.getColumnIndexOrThrow("id");
+      Map<Integer, Step> steps = new LinkedHashMap<>();
+      for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+        Step step = new Step(cursor.getString(detailIndex));
+        steps.put(cursor.getInt(idIndex), step);
+
+        Step parent = steps.get(cursor.getInt(parentIndex));
+        if (parent != null) {
+          parent.mChildren.add(step);
+        } else {
+          roots.add(step);
+        }
+      }
+    } else {
+      int selectIdIndex = cursor.getColumnIndexOrThrow("selectid");
+      List<Integer> selectIds = new ArrayList<>();
+      List<Step> steps = new ArrayList<>();
+      Map<Integer, Step> subqueryParents = new LinkedHashMap<>();
+      for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+        Step step = new Step(cursor.getString(detailIndex));
+        selectIds.add(cursor.getInt(selectIdIndex));
+        steps.add(step);
+
+        Matcher matcher = SUBQUERY_PATTERN.matcher(step.mDetail);
+        while (matcher.find()) {
+          subqueryParents.put(Integer.valueOf(matcher.group(1)), step);
+          if (matcher.group(2) != null) {
+            subqueryParents.put(Integer.valueOf(matcher.group(2)), step);
+          }
+        }
+      }
+
+      for (int i = 0; i < steps.size(); i++) {
+        Step parent = subqueryParents.get(selectIds.get(i));
+        if (parent != null && parent != steps.get(i)) {
+          parent.mChildren.add(steps.get(i));
+        } else {
+          roots.add(steps.get(i));
+        }
+      }
+    }
+
+    return new QueryPlan(roots);
+  }
+
+  /**
+   * @return Top level steps of this plan
+   */
+  public List<Step> getSteps() {
+    return mSteps;
+  }
+
+  /**
+   * @return All steps of this plan, including the nested ones, in depth-first order
+   */
+  public List<Step> getAllSteps() {
+    List<Step> result = new ArrayList<>();
+    addAll(result, mSteps);
+    return result;
+  }
+
+  private static void addAll(List<Step> result, List<Step> steps) {
+    for (Step step : steps) {
+      result.add(step);
+      addAll(result, step.mChildren);
+    }
+  }
+
+  public boolean hasStep(StepType type) {
+    for (Step step : getAllSteps()) {
+      if (step.mType == type) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    append(builder, mSteps, "");
+    return builder.toString();
+  }
+
+  private static void append(StringBuilder builder, List<Step> steps, String indent) {
+    for (Step step : steps) {
+      builder.append(indent).append(step.mDetail).append('\n');
+      append(builder, step.mChildren, indent + "  ");
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package com.getbase.android.db.fluentsqlite;
+
+import static com.getbase.android.db.fluentsqlite.Expressions.count;
+
+import com.getbase.android.db.fluentsqlite.QueryPlan.Step;
+import com.getbase.android.db.fluentsqlite.QueryPlan.StepType;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.SetMultimap;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Helper for unit tests running against a database filled with realistic
+ * data. Fails when any of the registered queries scans a table or builds a
+ * temporary B-tree while using a table with more rows than the threshold:
+ *
+ * <pre>
+ * new QueryPlanChecker(1000)
+ *     .register("contacts list", CONTACTS_LIST_QUERY)
+ *     .register("deals by owner", DEALS_BY_OWNER_QUERY)
+ *     .check(db);
+ * </pre>
+ */
+public class QueryPlanChecker {
+  private final long mMaxRows;
+  private final Map<String, Query> mQueries = new LinkedHashMap<>();
+
+  public QueryPlanChecker(long maxRows) {
+    Preconditions.checkArgument(maxRows >= 0, "Rows threshold cannot be negative");
+    mMaxRows = maxRows;
+  }
+
+  public QueryPlanChecker register(String name, Query query) {
+    Preconditions.checkNotNull(name);
+    Preconditions.checkNotNull(query);
+    Preconditions.checkArgument(!mQueries.containsKey(name), "Query %s is already registered", name);
+    mQueries.put(name, query);
+    return this;
+  }
+
+  /**
+   * @throws AssertionError listing every offending step of every registered query
+   */
+  public void check(SQLiteDatabase db) {
+    Map<String, Long> rowCounts = new HashMap<>();
+    List<String> violations = new ArrayList<>();
+
+    for (Entry<String, Query> entry : mQueries.entrySet()) {
+      Query query = entry.getValue();
+      SetMultimap<String, String> aliases = query.getTableAliases();
+
+      long maxRowCount = 0;
+      for (String table : query.getTables()) {
+        maxRowCount = Math.max(maxRowCount, getRowCount(db, rowCounts, table));
+      }
+
+      QueryPlan plan = query.explain(db);
+      for (Step step : plan.getAllSteps()) {
+        if (step.getType() == StepType.SCAN && step.getTable() != null) {
+          long rowCount = 0;
+          for (String table : getScannedTables(query, aliases, step.getTable())) {
+            rowCount = Math.max(rowCount, getRowCount(db, rowCounts, table));
+          }
+          if (rowCount > mMaxRows) {
+            violations.add(entry.getKey() + ": " + step.getDetail() + " (" + rowCount + " rows)");
+          }
+        } else if (step.getType() == StepType.TEMP_B_TREE && maxRowCount > mMaxRows) {
+          violations.add(entry.getKey() + ": " + step.getDetail() + " (" + maxRowCount + " rows)");
+        }
+      }
+    }
+
+    if (!violations.isEmpty()) {
+      StringBuilder message = new StringBuilder("Queries not using indexes on tables with more than ")
+          .append(mMaxRows)
+          .append(" rows:");
+      for (String violation : violations) {
+        message.append("\n  ").append(violation);
+      }
+      throw new AssertionError(message.toString());
+    }
+  }
+
+  // since SQLite 3.36 the plan refers to the tables by their aliases, which
+  // can be reused in different subqueries for different tables
+  private static Set<String> getScannedTables(Query query, SetMultimap<String, String> aliases, String name) {
+    Set<String> tables = new LinkedHashSet<>(aliases.get(name));
+    if (query.getTables().contains(name)) {
+      tables.add(name);
+    }
+    return tables;
+  }
+
+  private static long getRowCount(SQLiteDatabase db, Map<String, Long> rowCounts, String table) {
+    Long rowCount = rowCounts.get(table);
+    if (rowCount == null) {
+      rowCount = Query.select().expr(count()).from(table).build().performForLong(db);
+      rowCounts.put(table, rowCount);
+    }
+    return rowCount;
+  }
+}
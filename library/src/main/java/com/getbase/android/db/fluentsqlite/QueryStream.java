@@ -0,0 +1,122 @@
+package com.getbase.android.db.fluentsqlite;
+
+import com.getbase.android.db.cursors.FluentCursor;
+import com.google.common.collect.AbstractIterator;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Iterator over the results of a {@link Query} split into cursors of bounded
+ * size. Each chunk is closed when the next one is fetched, i.e. when
+ * {@link #hasNext()} is called after the chunk was returned, so at most one
+ * chunk is open at any time:
+ *
+ * <pre>
+ * QueryStream stream = query.stream(db, 1000);
+ * try {
+ *   for (FluentCursor chunk : stream) {
+ *     // process rows of the chunk
+ *   }
+ * } finally {
+ *   stream.close();
+ * }
+ * </pre>
+ */
+public class QueryStream extends AbstractIterator<FluentCursor> implements Iterable<FluentCursor>, Closeable {
+  private final Query mQuery;
+  private final SQLiteDatabase mDb;
+  private final int mChunkSize;
+
+  private FluentCursor mChunk;
+  private String[] mSeekColumns;
+  private int mRowsRead;
+  private boolean mLastChunk;
+
+  QueryStream(Query query, SQLiteDatabase db, int chunkSize) {
+    mQuery = query;
+    mDb = db;
+    mChunkSize = chunkSize;
+  }
+
+  @Override
+  protected FluentCursor computeNext() {
+    Object[] lastRowValues = null;
+    if (mChunk != null) {
+      // keyset pagination can't continue after NULL, but OFFSET still can
+      if (mSeekColumns != null && hasNullValueInLastRow(mChunk, mSeekColumns)) {
+        mSeekColumns = null;
+      }
+      if (mSeekColumns != null) {
+        lastRowValues = mChunk.getContinuationToken(mSeekColumns);
+      }
+      mChunk.close();
+      mChunk = null;
+    }
+
+    if (mLastChunk) {
+      return endOfData();
+    }
+
+    FluentCursor chunk = mQuery.chunk(lastRowValues, mRowsRead, mChunkSize).perform(mDb);
+    int count = chunk.getCount();
+    if (count == 0) {
+      chunk.close();
+      mLastChunk = true;
+      return endOfData();
+    }
+
+    if (mRowsRead == 0) {
+      mSeekColumns = resolveSeekColumns(chunk, mQuery.getSeekColumns());
+    }
+
+    mRowsRead += count;
+    mLastChunk = count < mChunkSize;
+    mChunk = chunk;
+
+    return chunk;
+  }
+
+  private static boolean hasNullValueInLastRow(Cursor cursor, String[] columns) {
+    cursor.moveToLast();
+    for (String column : columns) {
+      if (cursor.isNull(cursor.getColumnIndexOrThrow(column))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String[] resolveSeekColumns(Cursor cursor, List<String> seekColumns) {
+    if (seekColumns == null) {
+      return null;
+    }
+
+    List<String> columnNames = Arrays.asList(cursor.getColumnNames());
+    for (String column : seekColumns) {
+      int index = columnNames.indexOf(column);
+      if (index < 0 || index != columnNames.lastIndexOf(column)) {
+        return null;
+      }
+    }
+    return seekColumns.toArray(new String[seekColumns.size()]);
+  }
+
+  @Override
+  public QueryStream iterator() {
+    return this;
+  }
+
+  @Override
+  public void close() {
+    mLastChunk = true;
+    if (mChunk != null) {
+      mChunk.close();
+      mChunk = null;
+    }
+  }
+}
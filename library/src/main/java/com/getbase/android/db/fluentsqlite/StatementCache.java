@@ -0,0 +1,124 @@
+package com.getbase.android.db.fluentsqlite;
+
+import com.google.common.base.Preconditions;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+/**
+ * Cache of compiled statements used by the fluentsqlite write builders.
+ * The cache is opened for a database on the current thread, and while it's
+ * open every {@link Insert}, {@link Update} and {@link Delete} performed on
+ * that database on that thread reuses the statements compiled for the same
+ * SQL, instead of compiling and closing them on every call:
+ *
+ * <pre>
+ * StatementCache cache = StatementCache.open(db, 16);
+ * try {
+ *   for (Deal deal : deals) {
+ *     update().table("deals").value("value", deal.value).where("_id=?", deal.id).perform(db);
+ *   }
+ * } finally {
+ *   cache.close();
+ * }
+ * </pre>
+ *
+ * The cache must be used and closed on the thread which opened it.
+ */
+public final class StatementCache implements Closeable {
+  private static final ThreadLocal<StatementCache> sCurrent = new ThreadLocal<>();
+
+  private final SQLiteDatabase mDb;
+  private final int mMaxSize;
+  private final Thread mThread;
+  private final LinkedHashMap<String, SQLiteStatement> mStatements = new LinkedHashMap<>(16, 0.75f, true);
+
+  private int mHitCount;
+  private int mMissCount;
+
+  private StatementCache(SQLiteDatabase db, int maxSize) {
+    mDb = db;
+    mMaxSize = maxSize;
+    mThread = Thread.currentThread();
+  }
+
+  public static StatementCache open(SQLiteDatabase db, int maxSize) {
+    Preconditions.checkNotNull(db);
+    Preconditions.checkArgument(maxSize > 0, "Cache size must be positive");
+    Preconditions.checkState(sCurrent.get() == null, "Statement cache is already open on this thread");
+
+    StatementCache cache = new StatementCache(db, maxSize);
+    sCurrent.set(cache);
+    return cache;
+  }
+
+  static boolean isOpen(SQLiteDatabase db) {
+    StatementCache cache = sCurrent.get();
+    return cache != null && cache.mDb == db;
+  }
+
+  static SQLiteStatement acquire(SQLiteDatabase db, String sql) {
+    StatementCache cache = sCurrent.get();
+    if (cache == null || cache.mDb != db) {
+      return db.compileStatement(sql);
+    }
+
+    // statements are checked out of the cache, so the same statement is
+    // never used twice at the same time and never closed while in use
+    SQLiteStatement statement = cache.mStatements.remove(sql);
+    if (statement != null) {
+      cache.mHitCount++;
+      return statement;
+    }
+    cache.mMissCount++;
+    return db.compileStatement(sql);
+  }
+
+  static void release(SQLiteDatabase db, String sql, SQLiteStatement statement) {
+    StatementCache cache = sCurrent.get();
+    if (cache == null || cache.mDb != db || cache.mStatements.containsKey(sql)) {
+      statement.close();
+      return;
+    }
+
+    statement.clearBindings();
+    cache.mStatements.put(sql, statement);
+
+    Iterator<Entry<String, SQLiteStatement>> iterator = cache.mStatements.entrySet().iterator();
+    while (cache.mStatements.size() > cache.mMaxSize) {
+      iterator.next().getValue().close();
+      iterator.remove();
+    }
+  }
+
+  public int getHitCount() {
+    return mHitCount;
+  }
+
+  public int getMissCount() {
+    return mMissCount;
+  }
+
+  public int size() {
+    return mStatements.size();
+  }
+
+  @Override
+  public void close() {
+    Preconditions.checkState(Thread.currentThread() == mThread, "Statement cache must be closed on the thread which opened it");
+
+    for (SQLiteStatement statement : mStatements.values()) {
+      statement.close();
+    }
+    mStatements.clear();
+
+    if (sCurrent.get() == this) {
+      sCurrent.remove();
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package com.getbase.android.db.fluentsqlite;
+
+import com.google.common.base.Preconditions;
+
+import java.util.List;
+
+final class StatementWriter {
+  private final StringBuilder mSql;
+  private final Object[] mArgs;
+  private int mArgsCount;
+
+  StatementWriter(int estimatedLength, int argsCount) {
+    mSql = new StringBuilder(estimatedLength);
+    mArgs = new Object[argsCount];
+  }
+
+  StatementWriter append(String sql) {
+    mSql.append(sql);
+    return this;
+  }
+
+  StatementWriter append(char c) {
+    mSql.append(c);
+    return this;
+  }
+
+  StatementWriter appendJoined(String separator, List<String> parts) {
+    for (int i = 0; i < parts.size(); i++) {
+      if (i > 0) {
+        mSql.append(separator);
+      }
+      mSql.append(parts.get(i));
+    }
+    return this;
+  }
+
+  StatementWriter appendJoined(String separator, String[] parts) {
+    for (int i = 0; i < parts.length; i++) {
+      if (i > 0) {
+        mSql.append(separator);
+      }
+      mSql.append(parts[i]);
+    }
+    return this;
+  }
+
+  StatementWriter appendJoinedInParens(String separator, List<String> parts) {
+    for (int i = 0; i < parts.size(); i++) {
+      if (i > 0) {
+        mSql.append(separator);
+      }
+      mSql.append('(').append(parts.get(i)).append(')');
+    }
+    return this;
+  }
+
+  StatementWriter appendSubquery(Query subquery) {
+    mSql.append('(').append(subquery.getSql()).append(')');
+    return addArgs(subquery.getArgs());
+  }
+
+  StatementWriter addArgs(Iterable<?> args) {
+    for (Object arg : args) {
+      mArgs[mArgsCount++] = arg;
+    }
+    return this;
+  }
+
+  StatementWriter addArgs(Object[] args) {
+    System.arraycopy(args, 0, mArgs, mArgsCount, args.length);
+    mArgsCount += args.length;
+    return this;
+  }
+
+  String getSql() {
+    return mSql.toString();
+  }
+
+  Object[] getArgs() {
+    Preconditions.checkState(mArgsCount == mArgs.length, "Expected %s args, but %s were written", mArgs.length, mArgsCount);
+    return mArgs;
+  }
+
+  static int length(List<String> parts, int separatorLength) {
+    int length = 0;
+    for (int i = 0; i < parts.size(); i++) {
+      length += parts.get(i).length() + separatorLength;
+    }
+    return length;
+  }
+}
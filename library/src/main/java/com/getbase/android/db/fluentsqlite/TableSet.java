@@ -0,0 +1,113 @@
+package com.getbase.android.db.fluentsqlite;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable set of table names represented as a bitset. Every table name is
+ * assigned a bit the first time it's put into any TableSet, so checking
+ * whether a query depends on one of the tables changed by a write is just
+ * a few bitwise operations:
+ *
+ * <pre>
+ * static final TableSet CONTACTS = TableSet.of("contacts");
+ *
+ * if (cachedQuery.getTableSet().intersects(CONTACTS)) {
+ *   // invalidate
+ * }
+ * </pre>
+ *
+ * Table names are case-insensitive, like in SQLite. The bits are assigned
+ * for the lifetime of the process and never released, so the registry grows
+ * with the number of distinct table names used. That is fine for the tables
+ * of a fixed schema. Avoid putting generated table names, e.g. with random
+ * suffixes, into TableSets.
+ */
+public final class TableSet {
+  private static final Map<String, Integer> sTableIndexes = new ConcurrentHashMap<>();
+
+  private static final TableSet EMPTY = new TableSet(new long[0]);
+
+  private final long[] mWords;
+
+  private TableSet(long[] words) {
+    mWords = words;
+  }
+
+  public static TableSet of(String... tables) {
+    return of(Arrays.asList(tables));
+  }
+
+  public static TableSet of(Iterable<String> tables) {
+    long[] words = EMPTY.mWords;
+    for (String table : tables) {
+      int index = register(normalize(Preconditions.checkNotNull(table)));
+      int word = index >>> 6;
+      if (word >= words.length) {
+        words = Arrays.copyOf(words, word + 1);
+      }
+      words[word] |= 1L << index;
+    }
+    return words.length == 0 ? EMPTY : new TableSet(words);
+  }
+
+  private static int register(String table) {
+    Integer index = sTableIndexes.get(table);
+    if (index == null) {
+      synchronized (sTableIndexes) {
+        index = sTableIndexes.get(table);
+        if (index == null) {
+          index = sTableIndexes.size();
+          sTableIndexes.put(table, index);
+        }
+      }
+    }
+    return index;
+  }
+
+  private static String normalize(String table) {
+    return table.toLowerCase(Locale.US);
+  }
+
+  public boolean contains(String table) {
+    Integer index = sTableIndexes.get(normalize(table));
+    if (index == null) {
+      return false;
+    }
+    int word = index >>> 6;
+    return word < mWords.length && (mWords[word] & (1L << index)) != 0;
+  }
+
+  public boolean intersects(TableSet other) {
+    int words = Math.min(mWords.length, other.mWords.length);
+    for (int i = 0; i < words; i++) {
+      if ((mWords[i] & other.mWords[i]) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public boolean isEmpty() {
+    return mWords.length == 0;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    // words are only ever allocated to set a bit in them, so there are no
+    // trailing zero words and equal sets have equal arrays
+    return Arrays.equals(mWords, ((TableSet) o).mWords);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(mWords);
+  }
+}
@@ -3,6 +3,9 @@ package com.getbase.android.db.fluentsqlite;
 import static android.os.Build.VERSION_CODES.HONEYCOMB;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.getbase.android.db.fluentsqlite.ExecutionListeners.Execution;
+import com.getbase.android.db.fluentsqlite.Expressions.CaseCondition;
+import com.getbase.android.db.fluentsqlite.Expressions.CaseExpressionBuilder;
 import com.getbase.android.db.fluentsqlite.Expressions.Expression;
 import com.getbase.android.db.provider.Utils;
 import com.google.common.base.Function;
@@ -15,6 +18,8 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
 
 import android.annotation.TargetApi;
 import android.content.ContentValues;
@@ -25,6 +30,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
@@ -35,6 +41,7 @@ public class Update implements UpdateTableSelector {
   private ContentValues mValues = new ContentValues();
   private LinkedListMultimap<String, Object> mCustomExpressionsArgs = LinkedListMultimap.create();
   private LinkedHashMap<String, String> mCustomExpressions = Maps.newLinkedHashMap();
+  private List<KeySet> mKeySets = Lists.newArrayList();
 
   private Update() {
   }
@@ -43,19 +50,56 @@ public class Update implements UpdateTableSelector {
     return new Update();
   }
 
+  /**
+   * Applies different values to many rows identified by the key column,
+   * using {@code UPDATE table SET col = CASE key WHEN ? THEN ? ... ELSE col END
+   * WHERE key IN (...)} statements instead of one statement per row.
+   */
+  public static UpdateMany updateMany(String table, String keyColumn, Map<?, ContentValues> rows) {
+    return new UpdateMany(table, keyColumn, rows);
+  }
+
   public int perform(SQLiteDatabase db) {
-    String mSelection = Joiner.on(" AND ").join(mSelections);
-    if (mCustomExpressions.isEmpty()) {
-      return db.update(mTable, mValues, mSelection, FluentIterable.from(mSelectionArgs).transform(Functions.toStringFunction()).toArray(String.class));
+    Execution execution = ExecutionListeners.start(db);
+    int rows = performUpdate(db);
+    if (execution != null) {
+      execution.finish(getStatementSql(), getStatementArgs().size(), rows);
+    }
+    return rows;
+  }
+
+  private int performUpdate(SQLiteDatabase db) {
+    KeySet.Scope scope = KeySet.load(db, mKeySets);
+    try {
+      int rows = performUpdateStatement(db);
+      scope.setSuccessful();
+      return rows;
+    } finally {
+      scope.close();
+    }
+  }
+
+  private int performUpdateStatement(SQLiteDatabase db) {
+    // SQLiteDatabase.update() binds all selection args as strings, so the
+    // statement is compiled and bound here whenever some of the args are not
+    // strings, or to reuse the statement from the open StatementCache. Empty
+    // values are left to SQLiteDatabase.update() to reject.
+    if (mCustomExpressions.isEmpty() && (mValues.size() == 0 || !BindArgs.containsTyped(mSelectionArgs) && !StatementCache.isOpen(db))) {
+      return db.update(mTable, mValues, getSelection(), getSelectionArgs());
     } else {
-      return performUpdateWithCustomExpressions(db, mSelection);
+      return performCompiledStatement(db);
     }
   }
 
-  @SuppressWarnings("NewApi")
-  private int performUpdateWithCustomExpressions(SQLiteDatabase db, String selection) {
-    List<Object> args = Lists.newArrayList();
+  String getSelection() {
+    return KeySet.bind(Joiner.on(" AND ").join(mSelections), mKeySets);
+  }
 
+  String[] getSelectionArgs() {
+    return FluentIterable.from(mSelectionArgs).transform(Functions.toStringFunction()).toArray(String.class);
+  }
+
+  String getStatementSql() {
     StringBuilder builder = new StringBuilder();
     builder
         .append("UPDATE ")
@@ -64,51 +108,65 @@ public class Update implements UpdateTableSelector {
         .append(Joiner.on(", ").join(Collections2.transform(mCustomExpressions.entrySet(), new Function<Entry<String, String>, String>() {
           @Override
           public String apply(Entry<String, String> entry) {
-            return entry.getKey() + "=" + entry.getValue();
+            return entry.getKey() + "=" + KeySet.bind(entry.getValue(), mKeySets);
           }
         })));
 
-    if (mValues.size() != 0) {
+    if (!mCustomExpressions.isEmpty() && mValues.size() != 0) {
       builder.append(", ");
     }
 
-    Set<Entry<String, Object>> values = mValues.valueSet();
-    builder.append(Joiner.on(", ").join(Collections2.transform(values, new Function<Entry<String, Object>, Object>() {
+    builder.append(Joiner.on(", ").join(Collections2.transform(getValuesColumns(), new Function<String, Object>() {
       @Override
-      public Object apply(Entry<String, Object> value) {
-        return value.getKey() + "=?";
+      public Object apply(String column) {
+        return column + "=?";
       }
     })));
 
-    args.addAll(Collections2.transform(values, new Function<Entry<String, Object>, Object>() {
-      @Override
-      public Object apply(Entry<String, Object> value) {
-        return value.getValue();
-      }
-    }));
-    args.addAll(mSelectionArgs);
-
+    String selection = getSelection();
     if (!Strings.isNullOrEmpty(selection)) {
       builder
           .append(" WHERE ")
           .append(selection);
     }
 
-    SQLiteStatement statement = db.compileStatement(builder.toString());
+    return builder.toString();
+  }
+
+  // ContentValues iterate the columns in hash order, which isn't guaranteed
+  // to be the same for the same set of columns, so the columns are sorted to
+  // render the same SQL, which lets SQLite reuse its cached statements
+  private List<String> getValuesColumns() {
+    return Ordering.natural().sortedCopy(mValues.keySet());
+  }
+
+  List<Object> getStatementArgs() {
+    List<Object> args = Lists.newArrayList();
+
+    for (String customColumn : mCustomExpressions.keySet()) {
+      args.addAll(mCustomExpressionsArgs.get(customColumn));
+    }
+    for (String column : getValuesColumns()) {
+      args.add(mValues.get(column));
+    }
+    args.addAll(mSelectionArgs);
+
+    return args;
+  }
+
+  @SuppressWarnings("NewApi")
+  private int performCompiledStatement(SQLiteDatabase db) {
+    String sql = getStatementSql();
+    SQLiteStatement statement = StatementCache.acquire(db, sql);
     try {
       int argIndex = 1;
-      for (String customColumn : mCustomExpressions.keySet()) {
-        for (Object arg : mCustomExpressionsArgs.get(customColumn)) {
-          Utils.bindContentValueArg(statement, argIndex++, arg);
-        }
-      }
-      for (Object arg : args) {
-        Utils.bindContentValueArg(statement, argIndex++, arg);
+      for (Object arg : getStatementArgs()) {
+        BindArgs.bind(statement, argIndex++, arg);
       }
 
       return statement.executeUpdateDelete();
     } finally {
-      statement.close();
+      StatementCache.release(db, sql, statement);
     }
   }
 
@@ -144,12 +202,24 @@ public class Update implements UpdateTableSelector {
   @TargetApi(HONEYCOMB)
   public Update setColumn(String column, Expression expression) {
     setColumn(column, expression.getSql());
+    mKeySets.addAll(expression.getKeySets());
 
     mCustomExpressionsArgs.putAll(column, Arrays.asList(expression.getMergedArgs()));
 
     return this;
   }
 
+  @TargetApi(HONEYCOMB)
+  @SafeVarargs
+  public final <T> Update setColumn(String column, Expression expression, T... args) {
+    setColumn(column, expression.getSql());
+    mKeySets.addAll(expression.getKeySets());
+
+    mCustomExpressionsArgs.putAll(column, Arrays.asList(expression.getMergedArgs(args)));
+
+    return this;
+  }
+
   @SafeVarargs
   public final <T> Update where(String selection, T... selectionArgs) {
     if (selection != null) {
@@ -166,6 +236,106 @@ public class Update implements UpdateTableSelector {
 
   @SafeVarargs
   public final <T> Update where(Expression expression, T... selectionArgs) {
+    mKeySets.addAll(expression.getKeySets());
     return where(expression.getSql(), expression.getMergedArgs(selectionArgs));
   }
+
+  public static class UpdateMany {
+    // SQLITE_MAX_VARIABLE_NUMBER default
+    private static final int MAX_BOUND_VARIABLES = 999;
+
+    private final String mTable;
+    private final String mKeyColumn;
+    private final Map<?, ContentValues> mRows;
+
+    private UpdateMany(String table, String keyColumn, Map<?, ContentValues> rows) {
+      mTable = checkNotNull(table);
+      mKeyColumn = checkNotNull(keyColumn);
+      mRows = checkNotNull(rows);
+    }
+
+    /**
+     * @return Number of updated rows
+     */
+    public int perform(SQLiteDatabase db) {
+      List<List<Entry<?, ContentValues>>> chunks = getChunks();
+      if (chunks.isEmpty()) {
+        return 0;
+      }
+
+      int rowsCount = 0;
+      db.beginTransaction();
+      try {
+        for (List<Entry<?, ContentValues>> chunk : chunks) {
+          rowsCount += buildChunkUpdate(chunk).perform(db);
+        }
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
+      return rowsCount;
+    }
+
+    List<List<Entry<?, ContentValues>>> getChunks() {
+      List<List<Entry<?, ContentValues>>> chunks = Lists.newArrayList();
+      List<Entry<?, ContentValues>> chunk = Lists.newArrayList();
+      int chunkArgsCount = 0;
+
+      for (Entry<?, ContentValues> row : mRows.entrySet()) {
+        Preconditions.checkArgument(row.getKey() != null, "Key cannot be null");
+        if (row.getValue().size() == 0) {
+          continue;
+        }
+
+        // key in the IN list, plus the WHEN key THEN value pair for every column
+        int rowArgsCount = 1 + 2 * row.getValue().size();
+        Preconditions.checkArgument(rowArgsCount <= MAX_BOUND_VARIABLES, "Too many columns updated for key %s", row.getKey());
+
+        if (chunkArgsCount + rowArgsCount > MAX_BOUND_VARIABLES) {
+          chunks.add(chunk);
+          chunk = Lists.newArrayList();
+          chunkArgsCount = 0;
+        }
+        chunk.add(row);
+        chunkArgsCount += rowArgsCount;
+      }
+
+      if (!chunk.isEmpty()) {
+        chunks.add(chunk);
+      }
+      return chunks;
+    }
+
+    Update buildChunkUpdate(List<Entry<?, ContentValues>> chunk) {
+      Set<String> columns = Sets.newTreeSet();
+      for (Entry<?, ContentValues> row : chunk) {
+        columns.addAll(row.getValue().keySet());
+      }
+
+      Update update = new Update().table(mTable);
+      for (String column : columns) {
+        CaseCondition caseCondition = Expressions.cases(Expressions.column(mKeyColumn));
+        CaseExpressionBuilder caseExpression = null;
+        List<Object> args = Lists.newArrayList();
+        for (Entry<?, ContentValues> row : chunk) {
+          if (row.getValue().containsKey(column)) {
+            caseExpression = (caseExpression != null ? caseExpression : caseCondition)
+                .when(Expressions.arg())
+                .then(Expressions.arg());
+            args.add(row.getKey());
+            args.add(row.getValue().get(column));
+          }
+        }
+        update.setColumn(column, caseExpression.otherwise(Expressions.column(column)), args.toArray());
+      }
+
+      Expression[] keyArgs = new Expression[chunk.size()];
+      Object[] keys = new Object[chunk.size()];
+      for (int i = 0; i < chunk.size(); i++) {
+        keyArgs[i] = Expressions.arg();
+        keys[i] = chunk.get(i).getKey();
+      }
+      return update.where(Expressions.column(mKeyColumn).in(keyArgs), keys);
+    }
+  }
 }
@@ -27,7 +27,7 @@ public final class ViewActions {
 
     @Override
     public void perform(SQLiteDatabase db) {
-      db.execSQL("DROP VIEW IF EXISTS " + mView);
+      ExecutionListeners.execSQL(db, "DROP VIEW IF EXISTS " + mView);
     }
 
     @Override
@@ -46,7 +46,7 @@ public final class ViewActions {
 
     @Override
     public void perform(SQLiteDatabase db) {
-      db.execSQL("CREATE VIEW " + mView + " AS " + mQuery.mRawQuery);
+      ExecutionListeners.execSQL(db, "CREATE VIEW " + mView + " AS " + mQuery.mRawQuery);
     }
 
     @Override
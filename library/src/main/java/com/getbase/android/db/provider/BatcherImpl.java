@@ -45,11 +45,28 @@ class BatcherImpl extends Batcher {
     BackRefResolver backRefResolver = getBackRefResolver();
 
     for (ConvertibleToOperation convertible : operations) {
+      if (convertible instanceof SplittableOperation) {
+        List<Builder> builders = ((SplittableOperation) convertible).toContentProviderOperationBuilders(mUriDecorator);
+        for (Builder builder : builders) {
+          backRefResolver.resolveBackRefs(convertible, builder);
+
+          providerOperations.add(builder.build());
+        }
+
+        // the split operation is registered once, at its last part, so it
+        // doesn't look like an operation added to the Batcher several times
+        if (!builders.isEmpty()) {
+          backRefResolver.addOperation(convertible, providerOperations.size() - 1);
+        }
+        continue;
+      }
+
       final Builder builder = convertible.toContentProviderOperationBuilder(mUriDecorator);
 
       backRefResolver.resolveBackRefs(convertible, builder);
 
       providerOperations.add(builder.build());
+      backRefResolver.addOperation(convertible, providerOperations.size() - 1);
     }
     return providerOperations;
   }
@@ -80,6 +97,7 @@ class BatcherImpl extends Batcher {
 
   interface BackRefResolver {
     void resolveBackRefs(ConvertibleToOperation convertible, Builder builder);
+    void addOperation(ConvertibleToOperation convertible, int position);
   }
 
   private static class BackRefResolverImpl implements BackRefResolver {
@@ -113,8 +131,11 @@ class BatcherImpl extends Batcher {
           );
         }
       }
+    }
 
-      mParentsPosition.put(convertible, mParentsPosition.size());
+    @Override
+    public void addOperation(ConvertibleToOperation convertible, int position) {
+      mParentsPosition.put(convertible, position);
     }
 
     private int getParentPosition(ConvertibleToOperation parent) {
@@ -134,5 +155,9 @@ class BatcherImpl extends Batcher {
     @Override
     public void resolveBackRefs(ConvertibleToOperation convertible, Builder builder) {
     }
+
+    @Override
+    public void addOperation(ConvertibleToOperation convertible, int position) {
+    }
   };
 }
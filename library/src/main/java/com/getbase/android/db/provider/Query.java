@@ -4,13 +4,16 @@ import com.getbase.android.db.common.QueryData;
 import com.getbase.android.db.cursors.FluentCursor;
 import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Collections2;
 
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.net.Uri;
 import android.os.RemoteException;
 
 import java.util.Collection;
+import java.util.List;
 
 public class Query extends ProviderAction<FluentCursor> {
 
@@ -38,12 +41,24 @@ public class Query extends ProviderAction<FluentCursor> {
     return this;
   }
 
+  /**
+   * Like {@link #whereIn(String, Collection)}, but passes the values as
+   * selection args instead of inlining them into the selection. When the
+   * values don't fit into 999 selection args, the action is split into
+   * several operations.
+   */
+  public <T> Query whereInArgs(String column, Collection<T> collection) {
+    this.selection.appendIn(column, collection);
+    return this;
+  }
+
   public Query orderBy(String orderBy) {
     this.orderBy = orderBy;
     return this;
   }
 
   public QueryData getQueryData() {
+    Preconditions.checkState(selection.split().size() == 1, "whereInArgs values don't fit into single query");
     return new QueryData(getUri(),
         projection.getProjection(),
         selection.getSelection(),
@@ -54,13 +69,37 @@ public class Query extends ProviderAction<FluentCursor> {
 
   @Override
   public FluentCursor perform(CrudHandler crudHandler) throws RemoteException {
-    final Cursor queryResult = crudHandler.query(getUri(),
-        projection.getProjection(),
-        selection.getSelection(),
-        selection.getSelectionArgs(),
-        orderBy
-    );
-    return new FluentCursor(queryResult);
+    List<Selection> parts = selection.split();
+    if (parts.size() == 1) {
+      final Cursor queryResult = crudHandler.query(getUri(),
+          projection.getProjection(),
+          selection.getSelection(),
+          selection.getSelectionArgs(),
+          orderBy
+      );
+      return new FluentCursor(queryResult);
+    }
+
+    Preconditions.checkState(orderBy == null, "Cannot order query split into several queries");
+    Cursor[] cursors = new Cursor[parts.size()];
+    try {
+      for (int i = 0; i < parts.size(); i++) {
+        cursors[i] = crudHandler.query(getUri(),
+            projection.getProjection(),
+            parts.get(i).getSelection(),
+            parts.get(i).getSelectionArgs(),
+            null
+        );
+      }
+    } catch (RemoteException | RuntimeException e) {
+      for (Cursor cursor : cursors) {
+        if (cursor != null) {
+          cursor.close();
+        }
+      }
+      throw e;
+    }
+    return new FluentCursor(new MergeCursor(cursors));
   }
 
   @Override
@@ -8,10 +8,13 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.Lists;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
 class Selection {
+  // SQLITE_MAX_VARIABLE_NUMBER default
+  static final int MAX_SELECTION_ARGS = 999;
 
   private static final Function<String, String> SURROUND_WITH_PARENS = new Function<String, String>() {
     @Override
@@ -22,6 +25,8 @@ class Selection {
 
   private final List<String> selection = Lists.newLinkedList();
   private final List<Object> selectionArgs = Lists.newLinkedList();
+  private String inColumn;
+  private List<Object> inArgs;
 
   @SafeVarargs
   final <T> void append(String selection, T... selectionArgs) {
@@ -36,18 +41,66 @@ class Selection {
     }
   }
 
+  <T> void appendIn(String column, Collection<T> values) {
+    Preconditions.checkNotNull(column);
+    Preconditions.checkState(inColumn == null, "only one whereIn with bound args is supported per action");
+    for (T value : values) {
+      Preconditions.checkArgument(value != null, "whereIn values cannot contain null");
+    }
+
+    inColumn = column;
+    inArgs = Lists.<Object>newArrayList(values);
+  }
+
+  /**
+   * Splits this selection into selections binding at most
+   * {@link #MAX_SELECTION_ARGS} args each, by distributing the values of the
+   * whereIn with bound args. The IN clause is always rendered last, so the
+   * indexes of other selection args are the same in every part.
+   */
+  List<Selection> split() {
+    int maxInArgs = MAX_SELECTION_ARGS - selectionArgs.size();
+    if (inColumn == null || inArgs.size() <= maxInArgs) {
+      return Collections.singletonList(this);
+    }
+    Preconditions.checkState(maxInArgs > 0, "too many selection args to split the whereIn values");
+
+    List<Selection> parts = Lists.newArrayList();
+    for (List<Object> inArgsPart : Lists.partition(inArgs, maxInArgs)) {
+      Selection part = new Selection();
+      part.selection.addAll(selection);
+      part.selectionArgs.addAll(selectionArgs);
+      part.inColumn = inColumn;
+      part.inArgs = inArgsPart;
+      parts.add(part);
+    }
+    return parts;
+  }
+
   String getSelection() {
-    if (selection.isEmpty()) {
+    List<String> parts = selection;
+    if (inColumn != null) {
+      parts = Lists.newArrayList(selection);
+      parts.add(inColumn + " IN (" + Joiner.on(",").join(Collections.nCopies(inArgs.size(), "?")) + ")");
+    }
+
+    if (parts.isEmpty()) {
       return null;
     }
-    return Joiner.on(" AND ").join(Collections2.transform(selection, SURROUND_WITH_PARENS));
+    return Joiner.on(" AND ").join(Collections2.transform(parts, SURROUND_WITH_PARENS));
   }
 
   String[] getSelectionArgs() {
-    if (selectionArgs.isEmpty()) {
+    List<Object> args = selectionArgs;
+    if (inColumn != null) {
+      args = Lists.newArrayList(selectionArgs);
+      args.addAll(inArgs);
+    }
+
+    if (args.isEmpty()) {
       return null;
     }
-    return Collections2.transform(selectionArgs, Functions.toStringFunction()).toArray(new String[selectionArgs.size()]);
+    return Collections2.transform(args, Functions.toStringFunction()).toArray(new String[args.size()]);
   }
 
   @Override
@@ -58,11 +111,13 @@ class Selection {
     Selection other = (Selection) o;
 
     return Objects.equal(selection, other.selection) &&
-        Objects.equal(selectionArgs, other.selectionArgs);
+        Objects.equal(selectionArgs, other.selectionArgs) &&
+        Objects.equal(inColumn, other.inColumn) &&
+        Objects.equal(inArgs, other.inArgs);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hashCode(selection, selectionArgs);
+    return Objects.hashCode(selection, selectionArgs, inColumn, inArgs);
   }
 }
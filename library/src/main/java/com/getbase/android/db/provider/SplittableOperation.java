@@ -0,0 +1,9 @@
+package com.getbase.android.db.provider;
+
+import android.content.ContentProviderOperation;
+
+import java.util.List;
+
+interface SplittableOperation extends ConvertibleToOperation {
+  List<ContentProviderOperation.Builder> toContentProviderOperationBuilders(UriDecorator uriDecorator);
+}
@@ -1,7 +1,9 @@
 package com.getbase.android.db.provider;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Collections2;
+import com.google.common.collect.Lists;
 
 import android.content.ContentProviderOperation;
 import android.content.ContentProviderOperation.Builder;
@@ -10,8 +12,9 @@ import android.net.Uri;
 import android.os.RemoteException;
 
 import java.util.Collection;
+import java.util.List;
 
-public class Update extends ProviderAction<Integer> implements ConvertibleToOperation {
+public class Update extends ProviderAction<Integer> implements SplittableOperation {
 
   private final Selection selection = new Selection();
   private ContentValues values = new ContentValues();
@@ -41,9 +44,24 @@ public class Update extends ProviderAction<Integer> implements ConvertibleToOper
     return this;
   }
 
+  /**
+   * Like {@link #whereIn(String, Collection)}, but passes the values as
+   * selection args instead of inlining them into the selection. When the
+   * values don't fit into 999 selection args, the action is split into
+   * several operations.
+   */
+  public <T> Update whereInArgs(String column, Collection<T> collection) {
+    this.selection.appendIn(column, collection);
+    return this;
+  }
+
   @Override
   public Integer perform(CrudHandler crudHandler) throws RemoteException {
-    return crudHandler.update(getUri(), values, selection.getSelection(), selection.getSelectionArgs());
+    int updated = 0;
+    for (Selection part : selection.split()) {
+      updated += crudHandler.update(getUri(), values, part.getSelection(), part.getSelectionArgs());
+    }
+    return updated;
   }
 
   @Override
@@ -53,6 +71,20 @@ public class Update extends ProviderAction<Integer> implements ConvertibleToOper
 
   @Override
   public Builder toContentProviderOperationBuilder(UriDecorator uriDecorator) {
+    Preconditions.checkState(selection.split().size() == 1, "whereInArgs values don't fit into single operation, use Batcher instead");
+    return toContentProviderOperationBuilder(uriDecorator, selection);
+  }
+
+  @Override
+  public List<Builder> toContentProviderOperationBuilders(UriDecorator uriDecorator) {
+    List<Builder> builders = Lists.newArrayList();
+    for (Selection part : selection.split()) {
+      builders.add(toContentProviderOperationBuilder(uriDecorator, part));
+    }
+    return builders;
+  }
+
+  private Builder toContentProviderOperationBuilder(UriDecorator uriDecorator, Selection selection) {
     return ContentProviderOperation.newUpdate(uriDecorator.decorate(getUri()))
         .withSelection(selection.getSelection(), selection.getSelectionArgs())
         .withValues(values);
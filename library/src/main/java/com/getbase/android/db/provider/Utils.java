@@ -4,6 +4,7 @@ import com.google.common.base.Function;
 
 import android.content.ContentValues;
 import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteProgram;
 import android.database.sqlite.SQLiteStatement;
 
 import android.net.Uri;
@@ -48,6 +49,10 @@ public final class Utils {
   }
 
   public static void bindContentValueArg(SQLiteStatement statement, int index, Object value) {
+    bindContentValueArg((SQLiteProgram) statement, index, value);
+  }
+
+  public static void bindContentValueArg(SQLiteProgram statement, int index, Object value) {
     if (value == null) {
       statement.bindNull(index);
     } else if (value instanceof String) {
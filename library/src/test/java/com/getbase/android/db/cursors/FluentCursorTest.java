@@ -321,6 +321,34 @@ public class FluentCursorTest {
     verify(mock, never()).moveToPosition(anyInt());
   }
 
+  @Test
+  public void shouldReadTypedContinuationTokenFromLastRow() throws Exception {
+    MatrixCursor cursor = new MatrixCursor(new String[] { TEST_COLUMN, OTHER_COLUMN, "_id" });
+    cursor.addRow(new Object[] { "a", 1.5, 1L });
+    cursor.addRow(new Object[] { "b", 2.5, 2L });
+    FluentCursor fluentCursor = new FluentCursor(cursor);
+    fluentCursor.moveToFirst();
+
+    Object[] token = fluentCursor.getContinuationToken(TEST_COLUMN, OTHER_COLUMN, "_id");
+
+    assertThat(token).asList().containsExactly("b", 2.5, 2L).inOrder();
+    assertThat(fluentCursor.getPosition()).isEqualTo(0);
+    assertThat(fluentCursor.isClosed()).isFalse();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotReadContinuationTokenWithNullValue() throws Exception {
+    MatrixCursor cursor = new MatrixCursor(new String[] { TEST_COLUMN, "_id" });
+    cursor.addRow(new Object[] { null, 1L });
+
+    new FluentCursor(cursor).getContinuationToken(TEST_COLUMN, "_id");
+  }
+
+  @Test
+  public void shouldReturnNullContinuationTokenForEmptyCursor() throws Exception {
+    assertThat(new FluentCursor(buildMatrixCursor(0)).getContinuationToken(TEST_COLUMN)).isNull();
+  }
+
   private MatrixCursor buildMatrixCursor(int count) {
     final MatrixCursor cursor = new MatrixCursor(new String[] { OTHER_COLUMN, TEST_COLUMN });
     for (int i = 0; i < count; i++) {
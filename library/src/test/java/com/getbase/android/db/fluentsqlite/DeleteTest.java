@@ -17,6 +17,7 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest = Config.NONE)
@@ -25,9 +26,14 @@ public class DeleteTest {
   @Mock
   private SQLiteDatabase mDb;
 
+  @Mock
+  private SQLiteStatement mStatement;
+
   @Before
   public void setUp() throws Exception {
     MockitoAnnotations.initMocks(this);
+
+    when(mDb.compileStatement(anyString())).thenReturn(mStatement);
   }
 
   @Test
@@ -60,7 +66,7 @@ public class DeleteTest {
 
   @Test
   public void shouldBuildTheDeleteWithBoundParams() throws Exception {
-    delete().from("A").where("a=?", 0).perform(mDb);
+    delete().from("A").where("a=?", "0").perform(mDb);
 
     verify(mDb).delete(
         anyString(),
@@ -69,6 +75,27 @@ public class DeleteTest {
     );
   }
 
+  @Test
+  public void shouldBindTypedParamsWithNativeTypes() throws Exception {
+    delete().from("A").where("a=? AND b=? AND c=?", 0, 1.5, "x").perform(mDb);
+
+    verify(mDb, never()).delete(anyString(), anyString(), any(String[].class));
+    verify(mDb).compileStatement(eq("DELETE FROM A WHERE (a=? AND b=? AND c=?)"));
+    verify(mStatement).bindLong(eq(1), eq(0L));
+    verify(mStatement).bindDouble(eq(2), eq(1.5));
+    verify(mStatement).bindString(eq(3), eq("x"));
+    verify(mStatement).executeUpdateDelete();
+    verify(mStatement).close();
+  }
+
+  @Test
+  public void shouldBindNullParam() throws Exception {
+    delete().from("A").where("a=?", (Object) null).perform(mDb);
+
+    verify(mDb).compileStatement(eq("DELETE FROM A WHERE (a=?)"));
+    verify(mStatement).bindNull(eq(1));
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void shouldRejectSelectionWithExpressionWithTooManyArgsPlaceholders() throws Exception {
     delete().from("A").where(column("col2").eq().arg());
@@ -0,0 +1,150 @@
+package com.getbase.android.db.fluentsqlite;
+
+import static com.getbase.android.db.fluentsqlite.Delete.delete;
+import static com.getbase.android.db.fluentsqlite.Insert.insert;
+import static com.getbase.android.db.fluentsqlite.Query.select;
+import static com.getbase.android.db.fluentsqlite.Update.update;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Iterator;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ExecutionListenersTest {
+
+  @Mock
+  private SQLiteDatabase mDb;
+
+  @Mock
+  private SQLiteStatement mStatement;
+
+  @Mock
+  private ExecutionListener mListener;
+
+  @Before
+  public void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+    when(mDb.compileStatement(anyString())).thenReturn(mStatement);
+    ExecutionListeners.setListener(mListener);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    ExecutionListeners.setListener(null);
+  }
+
+  @Test
+  public void shouldReportQueryWithoutCountingReturnedRows() throws Exception {
+    MatrixCursor cursor = spy(new MatrixCursor(new String[] { "_id" }));
+    when(mDb.rawQuery(anyString(), any(String[].class))).thenReturn(cursor);
+
+    select().from("table_a").where("col_a=?", "a").build().perform(mDb);
+
+    verify(mListener).onStatementExecuted(same(mDb), eq("SELECT * FROM table_a WHERE (col_a=?)"), eq(1), anyLong(), eq(-1L));
+    verify(cursor, never()).getCount();
+  }
+
+  @Test
+  public void shouldReportPreparedQuery() throws Exception {
+    select().from("table_a").where("col_a=?", PreparedQuery.slot()).build().prepare().bind("a").perform(mDb);
+
+    verify(mListener).onStatementExecuted(same(mDb), eq("SELECT * FROM table_a WHERE (col_a=?)"), eq(1), anyLong(), eq(-1L));
+  }
+
+  @Test
+  public void shouldReportPreparedQueryWithTypedArgs() throws Exception {
+    select().from("table_a").where("col_a=?", PreparedQuery.slot()).build().prepare().bind(42L).perform(mDb);
+
+    verify(mDb).rawQueryWithFactory(any(SQLiteDatabase.CursorFactory.class), eq("SELECT * FROM table_a WHERE (col_a=?)"), (String[]) isNull(), (String) isNull());
+    verify(mListener).onStatementExecuted(same(mDb), eq("SELECT * FROM table_a WHERE (col_a=?)"), eq(1), anyLong(), eq(-1L));
+  }
+
+  @Test
+  public void shouldReportSimpleQuery() throws Exception {
+    select().expr(Expressions.count()).from("table_a").build().performForLong(mDb);
+
+    verify(mListener).onStatementExecuted(same(mDb), eq("SELECT COUNT(*) FROM table_a"), eq(0), anyLong(), eq(1L));
+  }
+
+  @Test
+  public void shouldReportInsertWithEquivalentSql() throws Exception {
+    when(mDb.insert(anyString(), anyString(), any(ContentValues.class))).thenReturn(7L);
+
+    insert().into("table_a").value("col_a", 1).perform(mDb);
+
+    verify(mListener).onStatementExecuted(same(mDb), eq("INSERT INTO table_a (col_a) VALUES (?)"), eq(1), anyLong(), eq(1L));
+  }
+
+  @Test
+  public void shouldReportInsertColumnsInOrderUsedByDatabase() throws Exception {
+    ContentValues values = new ContentValues();
+    values.put("col_c", 3);
+    values.put("col_a", 1);
+    values.put("col_b", 2);
+
+    insert().into("table_a").values(values).perform(mDb);
+
+    ArgumentCaptor<ContentValues> insertedValues = ArgumentCaptor.forClass(ContentValues.class);
+    verify(mDb).insert(eq("table_a"), anyString(), insertedValues.capture());
+    Iterator<String> columns = insertedValues.getValue().keySet().iterator();
+    verify(mListener).onStatementExecuted(same(mDb), eq("INSERT INTO table_a (" + columns.next() + ", " + columns.next() + ", " + columns.next() + ") VALUES (?, ?, ?)"), eq(3), anyLong(), anyLong());
+  }
+
+  @Test
+  public void shouldReportUpdateWithNumberOfAffectedRows() throws Exception {
+    when(mDb.update(anyString(), any(ContentValues.class), anyString(), any(String[].class))).thenReturn(3);
+
+    update().table("table_a").value("col_a", "a").where("col_b=?", "b").perform(mDb);
+
+    verify(mListener).onStatementExecuted(same(mDb), eq("UPDATE table_a SET col_a=? WHERE (col_b=?)"), eq(2), anyLong(), eq(3L));
+  }
+
+  @Test
+  public void shouldReportDeleteWithNumberOfAffectedRows() throws Exception {
+    when(mStatement.executeUpdateDelete()).thenReturn(4);
+
+    delete().from("table_a").where("col_a=?", 1L).perform(mDb);
+
+    verify(mListener).onStatementExecuted(same(mDb), eq("DELETE FROM table_a WHERE (col_a=?)"), eq(1), anyLong(), eq(4L));
+  }
+
+  @Test
+  public void shouldReportViewCreation() throws Exception {
+    ViewActions.create().view("view_a").as(select().from("table_a")).perform(mDb);
+
+    verify(mListener).onStatementExecuted(same(mDb), eq("CREATE VIEW view_a AS SELECT * FROM table_a"), eq(0), anyLong(), eq(-1L));
+  }
+
+  @Test
+  public void shouldReportIndexCreation() throws Exception {
+    IndexActions.create().index("index_a").on("table_a").column("col_a").perform(mDb);
+
+    verify(mListener).onStatementExecuted(same(mDb), eq("CREATE INDEX index_a ON table_a (col_a)"), eq(0), anyLong(), eq(-1L));
+  }
+
+  @Test
+  public void shouldNotReportAnythingAfterListenerIsRemoved() throws Exception {
+    ExecutionListeners.setListener(null);
+
+    select().from("table_a").build().perform(mDb);
+    delete().from("table_a").perform(mDb);
+
+    verifyZeroInteractions(mListener);
+  }
+}
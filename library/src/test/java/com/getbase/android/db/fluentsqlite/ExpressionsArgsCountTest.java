@@ -39,6 +39,7 @@ public class ExpressionsArgsCountTest {
       .put(arg().eq(arg()), 2)
       .put(column("id").in(select().column("id").from("table_a").where(column("priority").eq().arg(), "1").build()), 1)
       .put(column("id").in(select().column("id").from("table_a").where("priority=?", "1").build()), 1)
+      .put(Expressions.sum(arg()).over(Expressions.window().partitionBy(arg()).orderBy(column("col_a").eq().arg())), 3)
       .build();
 
   @Parameters
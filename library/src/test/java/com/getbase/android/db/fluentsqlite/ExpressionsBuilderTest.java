@@ -1,14 +1,21 @@
 package com.getbase.android.db.fluentsqlite;
 
 import static com.getbase.android.db.fluentsqlite.Expressions.arg;
+import static com.getbase.android.db.fluentsqlite.Expressions.bm25;
 import static com.getbase.android.db.fluentsqlite.Expressions.cases;
 import static com.getbase.android.db.fluentsqlite.Expressions.coalesce;
 import static com.getbase.android.db.fluentsqlite.Expressions.column;
 import static com.getbase.android.db.fluentsqlite.Expressions.concat;
 import static com.getbase.android.db.fluentsqlite.Expressions.count;
+import static com.getbase.android.db.fluentsqlite.Expressions.denseRank;
+import static com.getbase.android.db.fluentsqlite.Expressions.excluded;
 import static com.getbase.android.db.fluentsqlite.Expressions.expr;
+import static com.getbase.android.db.fluentsqlite.Expressions.fts4Snippet;
+import static com.getbase.android.db.fluentsqlite.Expressions.highlight;
 import static com.getbase.android.db.fluentsqlite.Expressions.ifNull;
 import static com.getbase.android.db.fluentsqlite.Expressions.join;
+import static com.getbase.android.db.fluentsqlite.Expressions.lag;
+import static com.getbase.android.db.fluentsqlite.Expressions.lead;
 import static com.getbase.android.db.fluentsqlite.Expressions.length;
 import static com.getbase.android.db.fluentsqlite.Expressions.literal;
 import static com.getbase.android.db.fluentsqlite.Expressions.max;
@@ -16,12 +23,17 @@ import static com.getbase.android.db.fluentsqlite.Expressions.min;
 import static com.getbase.android.db.fluentsqlite.Expressions.not;
 import static com.getbase.android.db.fluentsqlite.Expressions.nul;
 import static com.getbase.android.db.fluentsqlite.Expressions.nullIf;
+import static com.getbase.android.db.fluentsqlite.Expressions.rank;
+import static com.getbase.android.db.fluentsqlite.Expressions.rowNumber;
+import static com.getbase.android.db.fluentsqlite.Expressions.snippet;
 import static com.getbase.android.db.fluentsqlite.Expressions.sum;
+import static com.getbase.android.db.fluentsqlite.Expressions.window;
 import static com.getbase.android.db.fluentsqlite.Query.select;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.getbase.android.db.fluentsqlite.Expressions.CollatingSequence;
 import com.getbase.android.db.fluentsqlite.Expressions.Expression;
+import com.getbase.android.db.fluentsqlite.Expressions.FrameBound;
 import com.google.common.base.Function;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableMap;
@@ -54,6 +66,7 @@ public class ExpressionsBuilderTest {
       .put(column("col_a").eq().not().column("col_b"), "col_a == NOT col_b")
       .put(column("col_a").eq(column("col_b")), "col_a == (col_b)")
       .put(column("table_a", "col_a"), "table_a.col_a")
+      .put(excluded("col_a"), "excluded.col_a")
       .put(arg().eq().column("table_a", "col_a"), "? == table_a.col_a")
       .put(nul(), "NULL")
       .put(column("col_a").is().nul(), "col_a IS NULL")
@@ -66,12 +79,26 @@ public class ExpressionsBuilderTest {
       .put(max(column("col_a")), "MAX(col_a)")
       .put(count(column("col_a")), "COUNT(col_a)")
       .put(count(), "COUNT(*)")
+      .put(rowNumber().over(window().orderBy(column("col_a"))), "row_number() OVER (ORDER BY col_a)")
+      .put(rank().over(window().partitionBy(column("col_a")).orderByDesc(column("col_b"))), "rank() OVER (PARTITION BY col_a ORDER BY col_b DESC)")
+      .put(denseRank().over(window().partitionBy(column("col_a"), column("col_b"))), "dense_rank() OVER (PARTITION BY col_a, col_b)")
+      .put(lag(column("col_a")).over(window().orderBy(column("col_b"))), "lag(col_a) OVER (ORDER BY col_b)")
+      .put(lead(column("col_a"), 2, literal(0)).over(window().orderBy(column("col_b"))), "lead(col_a, 2, 0) OVER (ORDER BY col_b)")
+      .put(sum(column("col_a")).over(window().orderBy(column("col_b")).rowsBetween(FrameBound.UNBOUNDED_PRECEDING, FrameBound.CURRENT_ROW)), "SUM(col_a) OVER (ORDER BY col_b ROWS BETWEEN UNBOUNDED PRECEDING AND CURRENT ROW)")
+      .put(sum(column("col_a")).over(window().rangeBetween(FrameBound.preceding(1), FrameBound.following(2))), "SUM(col_a) OVER (RANGE BETWEEN 1 PRECEDING AND 2 FOLLOWING)")
       .put(ifNull(column("col_a"), literal("unknown")), "ifnull(col_a, 'unknown')")
       .put(nullIf(column("col_a"), literal("")), "nullif(col_a, '')")
       .put(coalesce(column("col_a"), column("col_b"), literal("unknown")), "coalesce(col_a, col_b, 'unknown')")
       .put(length(column("col_a")), "length(col_a)")
       .put(concat(column("col_a"), literal(" at "), column("col_b")), "col_a || ' at ' || col_b")
       .put(join(" ", column("col_a"), column("col_b")), "col_a || ' ' || col_b")
+      .put(column("table_fts").match().arg(), "table_fts MATCH ?")
+      .put(column("col_a").match(literal("acme*")), "col_a MATCH ('acme*')")
+      .put(bm25("table_fts"), "bm25(table_fts)")
+      .put(bm25("table_fts", 10.0, 1.0), "bm25(table_fts, 10.0, 1.0)")
+      .put(highlight("table_fts", 0, "<b>", "</b>"), "highlight(table_fts, 0, '<b>', '</b>')")
+      .put(snippet("table_fts", 1, "<b>", "</b>", "...", 8), "snippet(table_fts, 1, '<b>', '</b>', '...', 8)")
+      .put(fts4Snippet("table_fts", "<b>", "</b>", "...", -1, 8), "snippet(table_fts, '<b>', '</b>', '...', -1, 8)")
       .put(column("col_a").ne().column("col_b"), "col_a != col_b")
       .put(column("col_a").ne(column("col_b")), "col_a != (col_b)")
       .put(column("col_a").gt().column("col_b"), "col_a > col_b")
@@ -4,12 +4,19 @@ import static com.getbase.android.db.fluentsqlite.Expressions.addExpressionArgs;
 import static com.getbase.android.db.fluentsqlite.Expressions.arg;
 import static com.getbase.android.db.fluentsqlite.Expressions.coalesce;
 import static com.getbase.android.db.fluentsqlite.Expressions.column;
+import static com.getbase.android.db.fluentsqlite.Expressions.concat;
 import static com.getbase.android.db.fluentsqlite.Expressions.literal;
 import static com.getbase.android.db.fluentsqlite.Expressions.literals;
+import static com.getbase.android.db.fluentsqlite.Expressions.rowNumber;
+import static com.getbase.android.db.fluentsqlite.Expressions.sum;
+import static com.getbase.android.db.fluentsqlite.Expressions.window;
 import static com.getbase.android.db.fluentsqlite.Query.select;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.getbase.android.db.fluentsqlite.Expressions.Expression;
+import com.getbase.android.db.fluentsqlite.Expressions.ExpressionCombiner;
+import com.getbase.android.db.fluentsqlite.Expressions.FrameBound;
+import com.getbase.android.db.fluentsqlite.Expressions.Window;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 
@@ -51,6 +58,28 @@ public class ExpressionsTest {
     assertThat(expression.getBoundArgs()).isEqualTo(ImmutableMap.of(1, "Smith"));
   }
 
+  @Test
+  public void shouldKeepBoundArgsOfWindowInOrderOfPlaceholders() throws Exception {
+    Expression subquery = column("col_b").in(select().column("id").from("table_b").where("name=?", "Smith").build());
+
+    Expression expression = sum(arg()).over(window().orderBy(subquery).partitionBy(column("col_a").eq().arg()));
+
+    assertThat(expression.getSql()).isEqualTo("SUM(?) OVER (PARTITION BY col_a == ? ORDER BY col_b IN (SELECT id FROM table_b WHERE (name=?)))");
+    assertThat(expression.getBoundArgs()).isEqualTo(ImmutableMap.of(2, "Smith"));
+  }
+
+  @Test
+  public void shouldReturnTablesOfSubqueriesUsedInWindow() throws Exception {
+    Expression subquery = column("col_b").in(select().column("id").from("table_b").build());
+
+    assertThat(rowNumber().over(window().orderBy(subquery)).getTables()).containsExactly("table_b");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectWindowOrderingTermsAfterFrame() throws Exception {
+    window().rowsBetween(FrameBound.UNBOUNDED_PRECEDING, FrameBound.CURRENT_ROW).orderBy(column("col_a"));
+  }
+
   @Test(expected = IllegalStateException.class)
   public void shouldNotAllowGettingRawSqlFromExpressionWithBoundArgs() throws Exception {
     column("id")
@@ -103,4 +132,51 @@ public class ExpressionsTest {
     String rawSql = column("id").in(literals(new Object[0])).toRawSql();
     assertThat(rawSql).isEqualTo("id IN ()");
   }
+
+  @Test
+  public void shouldNotModifyExpressionWhenComposingIt() throws Exception {
+    ExpressionCombiner base = column("col_a").eq().arg();
+
+    Expression left = base.and().column("col_b").eq().arg();
+    Expression right = base.or().column("col_c").is().nul();
+
+    assertThat(base.getSql()).isEqualTo("col_a == ?");
+    assertThat(left.getSql()).isEqualTo("col_a == ? AND col_b == ?");
+    assertThat(right.getSql()).isEqualTo("col_a == ? OR col_c IS NULL");
+  }
+
+  @Test
+  public void shouldNotChangeExpressionWhenWindowIsModifiedAfterUse() throws Exception {
+    Window window = window().orderBy(column("col_a"));
+    Expression expression = rowNumber().over(window);
+
+    window.partitionBy(column("col_b"));
+
+    assertThat(expression.getSql()).isEqualTo("row_number() OVER (ORDER BY col_a)");
+  }
+
+  @Test
+  public void shouldComposeLongChainsOfPredicates() throws Exception {
+    ExpressionCombiner expression = column("col").eq().arg();
+    Object[] args = new Object[10000];
+    args[0] = 0;
+    for (int i = 1; i < args.length; i++) {
+      expression = expression.or().column("col").eq().arg();
+      args[i] = i;
+    }
+
+    assertThat(expression.getArgsCount()).isEqualTo(args.length);
+    assertThat(expression.getMergedArgs(args)).isEqualTo(args);
+    assertThat(expression.getSql()).endsWith("col == ? OR col == ?");
+  }
+
+  @Test
+  public void shouldMergeArgsOfNestedExpressionsInOrderOfPlaceholders() throws Exception {
+    Expression subquery = column("col_b").in(select().column("id").from("table_b").where("name=?", "Smith").build());
+
+    Expression expression = concat(arg(), literal(" "), column("col_a")).eq(arg()).and(subquery);
+
+    assertThat(expression.getSql()).isEqualTo("? || ' ' || col_a == (?) AND (col_b IN (SELECT id FROM table_b WHERE (name=?)))");
+    assertThat(expression.getMergedArgs("a", "b")).isEqualTo(new Object[] { "a", "b", "Smith" });
+  }
 }
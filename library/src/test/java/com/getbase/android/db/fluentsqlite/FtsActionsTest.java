@@ -0,0 +1,136 @@
+package com.getbase.android.db.fluentsqlite;
+
+import static com.getbase.android.db.fluentsqlite.Expressions.column;
+import static com.getbase.android.db.fluentsqlite.Expressions.snippet;
+import static com.getbase.android.db.fluentsqlite.Query.select;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+import com.getbase.android.db.fluentsqlite.FtsActions.Module;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class FtsActionsTest {
+
+  @Mock
+  private SQLiteDatabase db;
+
+  @Before
+  public void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+  }
+
+  @Test
+  public void shouldCreateFts4Table() throws Exception {
+    FtsActions
+        .create(Module.FTS4)
+        .table("deals_fts")
+        .columns("name", "description")
+        .tokenize("unicode61")
+        .perform(db);
+
+    verify(db).execSQL("CREATE VIRTUAL TABLE deals_fts USING fts4(name, description, tokenize=unicode61)");
+    verifyNoMoreInteractions(db);
+  }
+
+  @Test
+  public void shouldCreateFts5TableWithExternalContentAndSyncTriggers() throws Exception {
+    FtsActions
+        .create(Module.FTS5)
+        .table("deals_fts")
+        .columns("name")
+        .externalContent("deals", "_id")
+        .tokenize("porter unicode61")
+        .perform(db);
+
+    InOrder inOrder = inOrder(db);
+    inOrder.verify(db).execSQL("CREATE VIRTUAL TABLE deals_fts USING fts5(name, content='deals', content_rowid='_id', tokenize='porter unicode61')");
+    inOrder.verify(db).execSQL("CREATE TRIGGER deals_fts_ai AFTER INSERT ON deals BEGIN "
+        + "INSERT INTO deals_fts (rowid, name) VALUES (new._id, new.name); END");
+    inOrder.verify(db).execSQL("CREATE TRIGGER deals_fts_ad AFTER DELETE ON deals BEGIN "
+        + "INSERT INTO deals_fts (deals_fts, rowid, name) VALUES ('delete', old._id, old.name); END");
+    inOrder.verify(db).execSQL("CREATE TRIGGER deals_fts_au AFTER UPDATE ON deals BEGIN "
+        + "INSERT INTO deals_fts (deals_fts, rowid, name) VALUES ('delete', old._id, old.name); "
+        + "INSERT INTO deals_fts (rowid, name) VALUES (new._id, new.name); END");
+  }
+
+  @Test
+  public void shouldCreateFts4TableWithExternalContentAndSyncTriggers() throws Exception {
+    FtsActions
+        .create(Module.FTS4)
+        .table("deals_fts")
+        .columns("name", "description")
+        .externalContent("deals", "_id")
+        .perform(db);
+
+    InOrder inOrder = inOrder(db);
+    inOrder.verify(db).execSQL("CREATE VIRTUAL TABLE deals_fts USING fts4(name, description, content='deals')");
+    inOrder.verify(db).execSQL("CREATE TRIGGER deals_fts_bu BEFORE UPDATE ON deals BEGIN DELETE FROM deals_fts WHERE docid=old._id; END");
+    inOrder.verify(db).execSQL("CREATE TRIGGER deals_fts_bd BEFORE DELETE ON deals BEGIN DELETE FROM deals_fts WHERE docid=old._id; END");
+    inOrder.verify(db).execSQL("CREATE TRIGGER deals_fts_au AFTER UPDATE ON deals BEGIN "
+        + "INSERT INTO deals_fts (docid, name, description) VALUES (new._id, new.name, new.description); END");
+    inOrder.verify(db).execSQL("CREATE TRIGGER deals_fts_ai AFTER INSERT ON deals BEGIN "
+        + "INSERT INTO deals_fts (docid, name, description) VALUES (new._id, new.name, new.description); END");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRequireAtLeastOneColumn() throws Exception {
+    FtsActions.create(Module.FTS5).table("deals_fts").columns();
+  }
+
+  @Test
+  public void shouldDropTableAndSyncTriggers() throws Exception {
+    FtsActions
+        .dropIfExists()
+        .table("deals_fts")
+        .perform(db);
+
+    InOrder inOrder = inOrder(db);
+    inOrder.verify(db).execSQL("DROP TRIGGER IF EXISTS deals_fts_ai");
+    inOrder.verify(db).execSQL("DROP TRIGGER IF EXISTS deals_fts_ad");
+    inOrder.verify(db).execSQL("DROP TRIGGER IF EXISTS deals_fts_au");
+    inOrder.verify(db).execSQL("DROP TRIGGER IF EXISTS deals_fts_bu");
+    inOrder.verify(db).execSQL("DROP TRIGGER IF EXISTS deals_fts_bd");
+    inOrder.verify(db).execSQL("DROP TABLE IF EXISTS deals_fts");
+  }
+
+  @Test
+  public void shouldRebuildIndex() throws Exception {
+    FtsActions
+        .rebuild()
+        .table("deals_fts")
+        .perform(db);
+
+    verify(db).execSQL("INSERT INTO deals_fts (deals_fts) VALUES ('rebuild')");
+  }
+
+  @Test
+  public void shouldQueryFtsTableWithMatch() throws Exception {
+    when(db.rawQuery(anyString(), any(String[].class))).thenReturn(new MatrixCursor(new String[] { "_id" }));
+
+    select()
+        .column("rowid")
+        .expr(snippet("deals_fts", 0, "<b>", "</b>", "...", 8))
+        .from("deals_fts")
+        .where(column("deals_fts").match().arg(), "acme*")
+        .orderBy(column("rank"))
+        .build()
+        .perform(db);
+
+    verify(db).rawQuery(
+        eq("SELECT rowid, snippet(deals_fts, 0, '<b>', '</b>', '...', 8) FROM deals_fts WHERE (deals_fts MATCH ?) ORDER BY rank"),
+        eq(new String[] { "acme*" }));
+  }
+}
@@ -0,0 +1,196 @@
+package com.getbase.android.db.fluentsqlite;
+
+import static com.getbase.android.db.fluentsqlite.Expressions.column;
+import static com.getbase.android.db.fluentsqlite.Expressions.length;
+import static com.getbase.android.db.fluentsqlite.Expressions.literal;
+import static com.getbase.android.db.fluentsqlite.Expressions.not;
+import static com.getbase.android.db.fluentsqlite.Query.select;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.getbase.android.db.fluentsqlite.IndexActions.CreateIndexAction;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class IndexActionsTest {
+
+  @Mock
+  private SQLiteDatabase db;
+
+  @Before
+  public void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+  }
+
+  @Test
+  public void shouldCreateIndexOnSpecifiedColumns() throws Exception {
+    IndexActions
+        .create()
+        .index("index_a")
+        .on("table_a")
+        .columns("col_a", "col_b")
+        .perform(db);
+
+    Mockito.verify(db).execSQL("CREATE INDEX index_a ON table_a (col_a, col_b)");
+  }
+
+  @Test
+  public void shouldCreateUniqueIndexIfNotExists() throws Exception {
+    IndexActions
+        .create()
+        .index("index_a")
+        .on("table_a")
+        .unique()
+        .ifNotExists()
+        .column("col_a")
+        .columnDesc("col_b")
+        .perform(db);
+
+    Mockito.verify(db).execSQL("CREATE UNIQUE INDEX IF NOT EXISTS index_a ON table_a (col_a, col_b DESC)");
+  }
+
+  @Test
+  public void shouldCreatePartialExpressionIndex() throws Exception {
+    IndexActions
+        .create()
+        .index("index_a")
+        .on("table_a")
+        .expr(length(column("col_a")))
+        .where(column("col_b").eq().literal(1))
+        .perform(db);
+
+    Mockito.verify(db).execSQL("CREATE INDEX index_a ON table_a (length(col_a)) WHERE col_b == 1");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldNotAllowUsingExpressionWithArgs() throws Exception {
+    IndexActions
+        .create()
+        .index("index_a")
+        .on("table_a")
+        .where(column("col_b").eq().arg());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRequireAtLeastOneColumn() throws Exception {
+    IndexActions
+        .create()
+        .index("index_a")
+        .on("table_a")
+        .perform(db);
+  }
+
+  @Test
+  public void shouldDropSpecifiedIndex() throws Exception {
+    IndexActions
+        .dropIfExists()
+        .index("index_a")
+        .perform(db);
+
+    Mockito.verify(db).execSQL("DROP INDEX IF EXISTS index_a");
+  }
+
+  @Test
+  public void shouldBuildIndexForEqualityAndOrderByColumns() throws Exception {
+    Query query = select()
+        .from("table_a")
+        .where(column("col_a").eq().arg(), 1)
+        .where(column("table_a", "col_b").in(literal(1), literal(2)))
+        .orderBy("col_c").desc()
+        .orderBy(column("col_d"))
+        .build();
+
+    assertThat(toRawSql(IndexActions.forQuery(query)))
+        .containsExactly("CREATE INDEX IF NOT EXISTS table_a_col_a_col_b_col_c_col_d_idx ON table_a (col_a, col_b, col_c DESC, col_d)");
+  }
+
+  @Test
+  public void shouldBuildIndexForEqualityAndRangeColumns() throws Exception {
+    Query query = select()
+        .from("table_a")
+        .where(column("col_b").gt().arg().and().column("col_a").eq().arg(), 1, 2)
+        .build();
+
+    assertThat(toRawSql(IndexActions.forQuery(query)))
+        .containsExactly("CREATE INDEX IF NOT EXISTS table_a_col_a_col_b_idx ON table_a (col_a, col_b)");
+  }
+
+  @Test
+  public void shouldSkipOrderByTermsWhichAreNotColumns() throws Exception {
+    Query query = select()
+        .from("table_a")
+        .where(column("col_a").eq().arg().and(column("col_b").lt().arg()), 1, 2)
+        .orderBy(length(column("col_c")))
+        .build();
+
+    assertThat(toRawSql(IndexActions.forQuery(query)))
+        .containsExactly("CREATE INDEX IF NOT EXISTS table_a_col_a_col_b_idx ON table_a (col_a, col_b)");
+  }
+
+  @Test
+  public void shouldIgnoreWhereClausesWithOr() throws Exception {
+    Query query = select()
+        .from("table_a")
+        .where(column("col_a").eq().arg().or().column("col_b").eq().arg(), 1, 2)
+        .where(column("col_c").eq().arg(), 3)
+        .build();
+
+    assertThat(toRawSql(IndexActions.forQuery(query)))
+        .containsExactly("CREATE INDEX IF NOT EXISTS table_a_col_c_idx ON table_a (col_c)");
+  }
+
+  @Test
+  public void shouldIgnoreNegatedWhereClauses() throws Exception {
+    Query query = select()
+        .from("table_a")
+        .where(not().column("col_a").eq().arg().and().column("col_b").eq().arg(), 1, 2)
+        .where(not().expr(column("col_c").gt().arg()), 3)
+        .build();
+
+    assertThat(toRawSql(IndexActions.forQuery(query)))
+        .containsExactly("CREATE INDEX IF NOT EXISTS table_a_col_b_idx ON table_a (col_b)");
+  }
+
+  @Test
+  public void shouldNotBuildIndexForJoins() throws Exception {
+    Query query = select()
+        .from("table_a")
+        .join("table_b")
+        .on("table_a.col_b=table_b.col_b")
+        .where(column("col_a").eq().arg(), 1)
+        .build();
+
+    assertThat(IndexActions.forQuery(query)).isEmpty();
+  }
+
+  @Test
+  public void shouldNotBuildIndexWithoutConstrainedColumns() throws Exception {
+    Query query = select()
+        .from("table_a")
+        .where("col_a=?", 1)
+        .build();
+
+    assertThat(IndexActions.forQuery(query)).isEmpty();
+  }
+
+  private static List<String> toRawSql(List<CreateIndexAction> indexes) {
+    List<String> result = Lists.newArrayList();
+    for (CreateIndexAction index : indexes) {
+      result.add(index.toRawSql());
+    }
+    return result;
+  }
+}
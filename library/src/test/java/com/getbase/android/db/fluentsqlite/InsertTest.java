@@ -5,24 +5,34 @@ import static com.getbase.android.db.fluentsqlite.Query.select;
 import static com.google.common.truth.Truth.assertThat;
 import static org.fest.assertions.api.ANDROID.assertThat;
 import static org.fest.assertions.api.android.content.ContentValuesEntry.entry;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 
 import com.getbase.android.db.fluentsqlite.Insert.DefaultValuesInsert;
+import com.getbase.android.db.provider.Utils;
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import android.content.ContentValues;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteStatement;
 
+import java.util.Arrays;
+import java.util.List;
+
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest = Config.NONE)
 public class InsertTest {
@@ -83,10 +93,35 @@ public class InsertTest {
         .perform(mDb);
 
     verify(mDb).compileStatement(eq("INSERT INTO A SELECT * FROM B WHERE (col=?)"));
-    verify(mStatement).bindString(eq(1), eq("0"));
+    verify(mStatement).bindLong(eq(1), eq(0L));
+    verify(mStatement).executeInsert();
+  }
+
+  @Test
+  public void shouldBindTypedArgsOfQueryInInsertInSelectForm() throws Exception {
+    byte[] blob = new byte[] { 1, 2 };
+    insert()
+        .into("A")
+        .resultOf(select()
+                .allColumns()
+                .from("B")
+                .where("col_a=? AND col_b=? AND col_c=? AND col_d=?", 1L, 1.5, blob, "x")
+                .build()
+        )
+        .perform(mDb);
+
+    verify(mStatement).bindLong(1, 1L);
+    verify(mStatement).bindDouble(2, 1.5);
+    verify(mStatement).bindBlob(3, blob);
+    verify(mStatement).bindString(4, "x");
     verify(mStatement).executeInsert();
   }
 
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectQueryWithUnboundSlotsInInsertInSelectForm() throws Exception {
+    insert().into("A").resultOf(select().from("B").where("col=?", PreparedQuery.slot()).build());
+  }
+
   @Test
   public void shouldBuildTheInsertInSelectFormWithSpecifiedColumns() throws Exception {
     Query query = select().allColumns().from("B").build();
@@ -264,4 +299,350 @@ public class InsertTest {
         .performOrThrow(mDb);
     verify(mDb).insertOrThrow(eq("A"), eq("nullable_col"), isNull(ContentValues.class));
   }
+
+  @Test
+  public void shouldReuseCompiledStatementForRowsWithTheSameColumns() throws Exception {
+    int inserted = insert()
+        .into("A")
+        .rows(Arrays.asList(row("col_a", 1), row("col_a", 2), row("col_a", 3)))
+        .perform(mDb);
+
+    assertThat(inserted).isEqualTo(3);
+    verify(mDb, times(1)).compileStatement(eq("INSERT INTO A (col_a) VALUES (?)"));
+    verify(mStatement).bindLong(1, 1L);
+    verify(mStatement).bindLong(1, 2L);
+    verify(mStatement).bindLong(1, 3L);
+    verify(mStatement, times(3)).executeInsert();
+    verify(mStatement).close();
+  }
+
+  @Test
+  public void shouldPerformBulkInsertInTransaction() throws Exception {
+    insert().into("A").rows(Arrays.asList(row("col_a", 1), row("col_a", 2))).perform(mDb);
+
+    InOrder inOrder = inOrder(mDb, mStatement);
+    inOrder.verify(mDb).beginTransaction();
+    inOrder.verify(mStatement, times(2)).executeInsert();
+    inOrder.verify(mDb).setTransactionSuccessful();
+    inOrder.verify(mDb).endTransaction();
+  }
+
+  @Test
+  public void shouldCompileStatementForEachSetOfColumns() throws Exception {
+    insert().into("A").rows(Arrays.asList(row("col_a", 1), row("col_b", "b"), row("col_a", 2))).perform(mDb);
+
+    verify(mDb).compileStatement(eq("INSERT INTO A (col_a) VALUES (?)"));
+    verify(mDb).compileStatement(eq("INSERT INTO A (col_b) VALUES (?)"));
+    verify(mStatement, times(3)).executeInsert();
+    verify(mStatement, times(2)).close();
+  }
+
+  @Test
+  public void shouldReturnRowIdsOfBulkInsertedRows() throws Exception {
+    when(mStatement.executeInsert()).thenReturn(7L, 8L, 9L);
+
+    long[] rowIds = insert()
+        .into("A")
+        .rows(Arrays.asList(row("col_a", 1), row("col_a", 2), row("col_a", 3)))
+        .performForRowIds(mDb);
+
+    assertThat(rowIds).isEqualTo(new long[] { 7L, 8L, 9L });
+  }
+
+  @Test
+  public void shouldNotCommitBulkInsertWhenAnyRowFails() throws Exception {
+    when(mStatement.executeInsert()).thenReturn(1L).thenThrow(new IllegalStateException());
+
+    try {
+      insert().into("A").rows(Arrays.asList(row("col_a", 1), row("col_a", 2))).perform(mDb);
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+
+    verify(mDb, never()).setTransactionSuccessful();
+    verify(mDb).endTransaction();
+    verify(mStatement).close();
+  }
+
+  @Test
+  public void shouldNotCountIgnoredRowsOfBulkInsert() throws Exception {
+    when(mStatement.executeInsert()).thenReturn(7L, -1L, 9L);
+
+    int inserted = insert()
+        .into("A")
+        .rows(Arrays.asList(row("col_a", 1), row("col_a", 2), row("col_a", 3)))
+        .orIgnore()
+        .perform(mDb);
+
+    assertThat(inserted).isEqualTo(2);
+  }
+
+  @Test
+  public void shouldCountChangedRowsOfMultiRowValuesInsert() throws Exception {
+    when(mStatement.executeUpdateDelete()).thenReturn(1);
+
+    int inserted = insert()
+        .into("A")
+        .rows(Arrays.asList(row("col_a", 1), row("col_a", 2), row("col_a", 3)))
+        .multiRowValues()
+        .orIgnore()
+        .perform(mDb);
+
+    assertThat(inserted).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldPackRowsIntoMultiRowValuesStatement() throws Exception {
+    when(mStatement.executeUpdateDelete()).thenReturn(3);
+
+    int inserted = insert()
+        .into("A")
+        .rows(Arrays.asList(row("col_a", 1), row("col_a", 2), row("col_a", 3)))
+        .multiRowValues()
+        .perform(mDb);
+
+    assertThat(inserted).isEqualTo(3);
+    verify(mDb).compileStatement(eq("INSERT INTO A (col_a) VALUES (?), (?), (?)"));
+    verify(mStatement).bindLong(1, 1L);
+    verify(mStatement).bindLong(2, 2L);
+    verify(mStatement).bindLong(3, 3L);
+    verify(mStatement, times(1)).executeUpdateDelete();
+  }
+
+  @Test
+  public void shouldChunkMultiRowValuesToStayUnderBoundVariablesLimit() throws Exception {
+    List<ContentValues> rows = Lists.newArrayList();
+    for (int i = 0; i < 1000; i++) {
+      ContentValues values = row("col_a", i);
+      values.put("col_b", i);
+      rows.add(values);
+    }
+
+    insert().into("A").rows(rows).multiRowValues().perform(mDb);
+
+    ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+    verify(mDb, times(2)).compileStatement(sql.capture());
+    assertThat(CharMatcher.is('?').countIn(sql.getAllValues().get(0))).isEqualTo(998);
+    assertThat(CharMatcher.is('?').countIn(sql.getAllValues().get(1))).isEqualTo(4);
+    verify(mStatement, times(3)).executeUpdateDelete();
+  }
+
+  @Test
+  public void shouldLimitNumberOfRowsInMultiRowValuesStatement() throws Exception {
+    List<ContentValues> rows = Lists.newArrayList();
+    for (int i = 0; i < 600; i++) {
+      rows.add(row("col_a", i));
+    }
+
+    insert().into("A").rows(rows).multiRowValues().perform(mDb);
+
+    ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+    verify(mDb, times(2)).compileStatement(sql.capture());
+    assertThat(CharMatcher.is('?').countIn(sql.getAllValues().get(0))).isEqualTo(500);
+    assertThat(CharMatcher.is('?').countIn(sql.getAllValues().get(1))).isEqualTo(100);
+  }
+
+  @Test
+  public void shouldStartNewMultiRowValuesChunkWhenColumnsChange() throws Exception {
+    insert()
+        .into("A")
+        .rows(Arrays.asList(row("col_a", 1), row("col_a", 2), row("col_b", "b"), row("col_a", 3), row("col_a", 4)))
+        .multiRowValues()
+        .perform(mDb);
+
+    verify(mDb, times(1)).compileStatement(eq("INSERT INTO A (col_a) VALUES (?), (?)"));
+    verify(mDb, times(1)).compileStatement(eq("INSERT INTO A (col_b) VALUES (?)"));
+    verify(mStatement, times(3)).executeUpdateDelete();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotReturnRowIdsForMultiRowValuesInsert() throws Exception {
+    insert().into("A").rows(Arrays.asList(row("col_a", 1))).multiRowValues().performForRowIds(mDb);
+  }
+
+  @Test
+  public void shouldBuildInsertWithConflictAlgorithm() throws Exception {
+    when(mStatement.executeInsert()).thenReturn(5L);
+
+    long rowId = insert().into("A").value("col_a", 1).orReplace().perform(mDb);
+
+    assertThat(rowId).isEqualTo(5L);
+    verify(mDb).compileStatement(eq("INSERT OR REPLACE INTO A (col_a) VALUES (?)"));
+    verify(mStatement).bindLong(1, 1L);
+    verify(mStatement).close();
+  }
+
+  @Test
+  public void shouldRenderTheSameStatementSqlAsPerformed() throws Exception {
+    Insert insert = insert().into("A").value("col_b", 2).value("col_a", 1).onConflict("col_a").doUpdateExcluded("col_b");
+
+    insert.perform(mDb);
+
+    verify(mDb).compileStatement(eq(insert.getStatementSql()));
+    assertThat(insert.getStatementSql()).isEqualTo("INSERT INTO A (col_a, col_b) VALUES (?, ?) ON CONFLICT (col_a) DO UPDATE SET col_b = excluded.col_b");
+  }
+
+  @Test
+  public void shouldReturnMinusOneWhenInsertWithConflictClauseFails() throws Exception {
+    when(mStatement.executeInsert()).thenThrow(new SQLiteConstraintException());
+
+    long rowId = insert().into("A").value("col_a", 1).orIgnore().perform(mDb);
+
+    assertThat(rowId).isEqualTo(-1L);
+    verify(mStatement).close();
+  }
+
+  @Test(expected = SQLiteConstraintException.class)
+  public void shouldThrowWhenInsertWithConflictClauseFailsInPerformOrThrow() throws Exception {
+    when(mStatement.executeInsert()).thenThrow(new SQLiteConstraintException());
+
+    insert().into("A").value("col_a", 1).onConflict("col_a").doNothing().performOrThrow(mDb);
+  }
+
+  @Test
+  public void shouldBuildUpsertDoingNothing() throws Exception {
+    insert().into("A").value("col_a", 1).onConflict("col_a").doNothing().performOrThrow(mDb);
+
+    verify(mDb).compileStatement(eq("INSERT INTO A (col_a) VALUES (?) ON CONFLICT (col_a) DO NOTHING"));
+  }
+
+  @Test
+  public void shouldBuildUpsertWithoutConflictTarget() throws Exception {
+    insert().into("A").value("col_a", 1).onConflict().doNothing().perform(mDb);
+
+    verify(mDb).compileStatement(eq("INSERT INTO A (col_a) VALUES (?) ON CONFLICT DO NOTHING"));
+  }
+
+  @Test
+  public void shouldBuildUpsertUpdatingExcludedColumns() throws Exception {
+    insert()
+        .into("A")
+        .value("_id", 1)
+        .onConflict("_id")
+        .doUpdateExcluded("col_a", "col_b")
+        .perform(mDb);
+
+    ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+    verify(mDb).compileStatement(sql.capture());
+    assertThat(sql.getValue()).endsWith(" ON CONFLICT (_id) DO UPDATE SET col_a = excluded.col_a, col_b = excluded.col_b");
+  }
+
+  @Test
+  public void shouldBindUpsertArgsAfterInsertedValues() throws Exception {
+    insert()
+        .into("A")
+        .value("_id", 1)
+        .onConflict("_id")
+        .doUpdate(ImmutableMap.of("col_a", Expressions.ifNull(Expressions.arg(), Expressions.excluded("col_a"))), "x")
+        .perform(mDb);
+
+    verify(mDb).compileStatement(eq("INSERT INTO A (_id) VALUES (?) ON CONFLICT (_id) DO UPDATE SET col_a = ifnull(?, excluded.col_a)"));
+    InOrder inOrder = inOrder(mStatement);
+    inOrder.verify(mStatement).bindLong(1, 1L);
+    inOrder.verify(mStatement).bindString(2, "x");
+  }
+
+  @Test
+  public void shouldUseUpsertInBulkInsert() throws Exception {
+    insert()
+        .into("A")
+        .rows(Arrays.asList(row("_id", 1), row("_id", 2)))
+        .onConflict("_id")
+        .doUpdate(ImmutableMap.of("col_a", Expressions.literal(0)))
+        .perform(mDb);
+
+    verify(mDb, times(1)).compileStatement(eq("INSERT INTO A (_id) VALUES (?) ON CONFLICT (_id) DO UPDATE SET col_a = 0"));
+    verify(mStatement, times(2)).executeInsert();
+  }
+
+  @Test
+  public void shouldUseConflictClausesInMultiRowValuesInsert() throws Exception {
+    insert()
+        .into("A")
+        .rows(Arrays.asList(row("_id", 1), row("_id", 2)))
+        .multiRowValues()
+        .orIgnore()
+        .perform(mDb);
+
+    verify(mDb).compileStatement(eq("INSERT OR IGNORE INTO A (_id) VALUES (?), (?)"));
+  }
+
+  @Test
+  public void shouldReserveBoundVariablesForUpsertArgsInMultiRowValuesInsert() throws Exception {
+    List<ContentValues> rows = Lists.newArrayList();
+    for (int i = 0; i < 999; i++) {
+      rows.add(row("col_a", i));
+    }
+
+    insert()
+        .into("A")
+        .rows(rows)
+        .multiRowValues()
+        .onConflict("col_a")
+        .doUpdate(ImmutableMap.of("col_b", Expressions.arg()), "b")
+        .perform(mDb);
+
+    ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+    verify(mDb, atLeastOnce()).compileStatement(sql.capture());
+    for (String statement : sql.getAllValues()) {
+      assertThat(CharMatcher.is('?').countIn(statement)).isAtMost(999);
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotReturnRowIdsForDoUpdateInsert() throws Exception {
+    insert()
+        .into("A")
+        .rows(Arrays.asList(row("_id", 1)))
+        .onConflict("_id")
+        .doUpdateExcluded("col_a")
+        .performForRowIds(mDb);
+  }
+
+  @Test
+  public void shouldReturnRowIdsForDoNothingInsert() throws Exception {
+    when(mStatement.executeInsert()).thenReturn(7L, -1L);
+
+    long[] rowIds = insert()
+        .into("A")
+        .rows(Arrays.asList(row("_id", 1), row("_id", 2)))
+        .onConflict("_id")
+        .doNothing()
+        .performForRowIds(mDb);
+
+    assertThat(rowIds).isEqualTo(new long[] { 7L, -1L });
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRequireConflictTargetForDoUpdate() throws Exception {
+    insert().into("A").value("col_a", 1).onConflict().doUpdateExcluded("col_a");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRequireAssignmentsForDoUpdate() throws Exception {
+    insert().into("A").value("col_a", 1).onConflict("col_a").doUpdateExcluded();
+  }
+
+  @Test
+  public void shouldRenderSameSqlRegardlessOfValuesOrder() throws Exception {
+    ContentValues first = row("col_b", 2);
+    first.put("col_a", 1);
+    ContentValues second = row("col_a", 3);
+    second.put("col_b", 4);
+
+    insert().into("A").rows(Arrays.asList(first, second)).perform(mDb);
+
+    verify(mDb, times(1)).compileStatement(eq("INSERT INTO A (col_a, col_b) VALUES (?, ?)"));
+    InOrder inOrder = inOrder(mStatement);
+    inOrder.verify(mStatement).bindLong(1, 1L);
+    inOrder.verify(mStatement).bindLong(2, 2L);
+    inOrder.verify(mStatement).bindLong(1, 3L);
+    inOrder.verify(mStatement).bindLong(2, 4L);
+  }
+
+  private static ContentValues row(String column, Object value) {
+    ContentValues values = new ContentValues();
+    Utils.addToContentValues(column, value, values);
+    return values;
+  }
 }
@@ -0,0 +1,259 @@
+package com.getbase.android.db.fluentsqlite;
+
+import static com.getbase.android.db.fluentsqlite.Delete.delete;
+import static com.getbase.android.db.fluentsqlite.Expressions.column;
+import static com.getbase.android.db.fluentsqlite.Expressions.inKeySet;
+import static com.getbase.android.db.fluentsqlite.Insert.insert;
+import static com.getbase.android.db.fluentsqlite.Query.select;
+import static com.getbase.android.db.fluentsqlite.Update.update;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+import com.getbase.android.db.fluentsqlite.Expressions.Expression;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Arrays;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class KeySetTest {
+
+  @Mock
+  private SQLiteDatabase mDb;
+
+  @Mock
+  private SQLiteStatement mStatement;
+
+  @Before
+  public void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+
+    when(mDb.compileStatement(anyString())).thenReturn(mStatement);
+    when(mDb.rawQuery(anyString(), any(String[].class))).thenReturn(new MatrixCursor(new String[] { "_id" }));
+  }
+
+  @Test
+  public void shouldRenderSubqueryAgainstTempTable() throws Exception {
+    Expression expression = inKeySet("col_a", Arrays.asList(1L, 2L));
+    String placeholder = expression.getKeySets().get(0).mPlaceholder;
+
+    assertThat(expression.getSql()).isEqualTo("col_a IN (SELECT _id FROM temp." + placeholder + ")");
+    assertThat(expression.getTables()).isEmpty();
+  }
+
+  @Test
+  public void shouldLoadKeysIntoTempTableForQuery() throws Exception {
+    Expression expression = inKeySet("col_a", Arrays.asList(1L, "two"));
+    String table = KeySet.getTable(0);
+
+    select().from("table_a").where(expression).build().perform(mDb);
+
+    InOrder inOrder = inOrder(mDb, mStatement);
+    inOrder.verify(mDb).beginTransactionNonExclusive();
+    inOrder.verify(mDb).execSQL(eq("CREATE TEMP TABLE " + table + " (_id PRIMARY KEY) WITHOUT ROWID"));
+    inOrder.verify(mDb).compileStatement(eq("INSERT OR IGNORE INTO temp." + table + " (_id) VALUES (?)"));
+    inOrder.verify(mStatement).bindLong(1, 1L);
+    inOrder.verify(mStatement).executeInsert();
+    inOrder.verify(mStatement).bindString(1, "two");
+    inOrder.verify(mStatement).executeInsert();
+    inOrder.verify(mStatement).close();
+    inOrder.verify(mDb).rawQuery(eq("SELECT * FROM table_a WHERE (col_a IN (SELECT _id FROM temp." + table + "))"), any(String[].class));
+    inOrder.verify(mDb).execSQL(eq("DROP TABLE IF EXISTS temp." + table));
+    inOrder.verify(mDb).setTransactionSuccessful();
+    inOrder.verify(mDb).endTransaction();
+  }
+
+  @Test
+  public void shouldLoadKeySetsUsedInSubqueries() throws Exception {
+    Query subquery = select().column("_id").from("table_b").where(inKeySet("col_b", Arrays.asList(1L))).build();
+
+    select().from("table_a").where(column("b_id").in(subquery)).build().perform(mDb);
+
+    verify(mDb).execSQL(startsWith("CREATE TEMP TABLE"));
+    verify(mDb).execSQL(startsWith("DROP TABLE IF EXISTS temp."));
+  }
+
+  @Test
+  public void shouldLoadKeysIntoTempTableForDelete() throws Exception {
+    delete().from("table_a").where(inKeySet("col_a", Arrays.asList(1L, 2L))).perform(mDb);
+
+    InOrder inOrder = inOrder(mDb);
+    inOrder.verify(mDb).beginTransactionNonExclusive();
+    inOrder.verify(mDb).execSQL(startsWith("CREATE TEMP TABLE"));
+    inOrder.verify(mDb).delete(eq("table_a"), startsWith("(col_a IN (SELECT _id FROM temp."), any(String[].class));
+    inOrder.verify(mDb).execSQL(startsWith("DROP TABLE IF EXISTS temp."));
+    inOrder.verify(mDb).setTransactionSuccessful();
+    inOrder.verify(mDb).endTransaction();
+  }
+
+  @Test
+  public void shouldLoadKeysIntoTempTableForUpdate() throws Exception {
+    update().table("table_a").value("col_b", "b").where(inKeySet("col_a", Arrays.asList(1L, 2L))).perform(mDb);
+
+    ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+    verify(mDb).execSQL(startsWith("CREATE TEMP TABLE"));
+    verify(mDb).update(eq("table_a"), any(ContentValues.class), sql.capture(), any(String[].class));
+    assertThat(sql.getValue()).startsWith("(col_a IN (SELECT _id FROM temp.");
+    verify(mDb).setTransactionSuccessful();
+  }
+
+  @Test
+  public void shouldRollBackTempTableWhenStatementFails() throws Exception {
+    when(mDb.delete(anyString(), anyString(), any(String[].class))).thenThrow(new RuntimeException());
+
+    try {
+      delete().from("table_a").where(inKeySet("col_a", Arrays.asList(1L))).perform(mDb);
+    } catch (RuntimeException expected) {
+    }
+
+    verify(mDb, never()).setTransactionSuccessful();
+    verify(mDb).endTransaction();
+  }
+
+  @Test
+  public void shouldDropTempTableWhenStatementFails() throws Exception {
+    when(mDb.delete(anyString(), anyString(), any(String[].class))).thenThrow(new RuntimeException());
+
+    try {
+      delete().from("table_a").where(inKeySet("col_a", Arrays.asList(1L))).perform(mDb);
+    } catch (RuntimeException expected) {
+    }
+
+    InOrder inOrder = inOrder(mDb);
+    inOrder.verify(mDb).execSQL(eq("DROP TABLE IF EXISTS temp." + KeySet.getTable(0)));
+    inOrder.verify(mDb).endTransaction();
+  }
+
+  @Test
+  public void shouldDropTempTablesOnlyOnce() throws Exception {
+    delete().from("table_a").where(inKeySet("col_a", Arrays.asList(1L))).perform(mDb);
+
+    verify(mDb, times(1)).execSQL(startsWith("DROP TABLE IF EXISTS temp."));
+  }
+
+  @Test
+  public void shouldRethrowStatementFailureWhenTempTableCannotBeDropped() throws Exception {
+    IllegalStateException failure = new IllegalStateException();
+    when(mDb.delete(anyString(), anyString(), any(String[].class))).thenThrow(failure);
+    doThrow(new RuntimeException()).when(mDb).execSQL(startsWith("DROP TABLE"));
+
+    try {
+      delete().from("table_a").where(inKeySet("col_a", Arrays.asList(1L))).perform(mDb);
+      fail();
+    } catch (RuntimeException e) {
+      assertThat(e).isSameAs(failure);
+    }
+
+    verify(mDb).endTransaction();
+  }
+
+  @Test
+  public void shouldNotStartTransactionWithoutKeySets() throws Exception {
+    select().from("table_a").where(column("col_a").in(Expressions.literal(1))).build().perform(mDb);
+
+    verify(mDb, never()).beginTransaction();
+    verify(mDb, never()).beginTransactionNonExclusive();
+  }
+
+  @Test
+  public void shouldCreateSingleTableForKeySetUsedMoreThanOnce() throws Exception {
+    Expression expression = inKeySet("col_a", Arrays.asList(1L, 2L));
+
+    select().from("table_a").where(expression).union()
+        .select().from("table_b").where(expression)
+        .build()
+        .perform(mDb);
+
+    verify(mDb).execSQL(eq("CREATE TEMP TABLE fluentsqlite_keys_0 (_id PRIMARY KEY) WITHOUT ROWID"));
+    verify(mDb, never()).execSQL(eq("CREATE TEMP TABLE fluentsqlite_keys_1 (_id PRIMARY KEY) WITHOUT ROWID"));
+    verify(mDb).rawQuery(eq("SELECT * FROM table_a WHERE (col_a IN (SELECT _id FROM temp.fluentsqlite_keys_0)) UNION SELECT * FROM table_b WHERE (col_a IN (SELECT _id FROM temp.fluentsqlite_keys_0))"), any(String[].class));
+  }
+
+  @Test
+  public void shouldUseSameSqlForDifferentKeySets() throws Exception {
+    select().from("table_a").where(inKeySet("col_a", Arrays.asList(1L))).build().perform(mDb);
+    select().from("table_a").where(inKeySet("col_a", Arrays.asList(2L))).build().perform(mDb);
+
+    verify(mDb, times(2)).rawQuery(eq("SELECT * FROM table_a WHERE (col_a IN (SELECT _id FROM temp.fluentsqlite_keys_0))"), any(String[].class));
+  }
+
+  @Test
+  public void shouldNameTablesByPositionInStatement() throws Exception {
+    update()
+        .table("table_a")
+        .value("col_c", "c")
+        .where(inKeySet("col_a", Arrays.asList(1L)))
+        .where(inKeySet("col_b", Arrays.asList(2L)))
+        .perform(mDb);
+
+    verify(mDb).update(eq("table_a"), any(ContentValues.class), eq("(col_a IN (SELECT _id FROM temp.fluentsqlite_keys_0)) AND (col_b IN (SELECT _id FROM temp.fluentsqlite_keys_1))"), any(String[].class));
+  }
+
+  @Test
+  public void shouldKeepQueryResultsReadableAfterTablesAreDropped() throws Exception {
+    MatrixCursor cursor = new MatrixCursor(new String[] { "_id", "name", "score", "data" });
+    cursor.addRow(new Object[] { 1L, "a", 1.5, new byte[] { 1 } });
+    cursor.addRow(new Object[] { 2L, null, null, null });
+    when(mDb.rawQuery(anyString(), any(String[].class))).thenReturn(cursor);
+
+    Cursor result = select().from("table_a").where(inKeySet("_id", Arrays.asList(1L, 2L))).build().perform(mDb);
+
+    assertThat(cursor.isClosed()).isTrue();
+    assertThat(result.getCount()).isEqualTo(2);
+    assertThat(result.moveToFirst()).isTrue();
+    assertThat(result.getLong(0)).isEqualTo(1L);
+    assertThat(result.getString(1)).isEqualTo("a");
+    assertThat(result.getDouble(2)).isEqualTo(1.5);
+    assertThat(result.getBlob(3)).isEqualTo(new byte[] { 1 });
+    assertThat(result.moveToNext()).isTrue();
+    assertThat(result.isNull(1)).isTrue();
+    assertThat(result.isNull(2)).isTrue();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotConvertQueryUsingKeySetsToRawQuery() throws Exception {
+    select().from("table_a").where(inKeySet("col_a", Arrays.asList(1L))).build().toRawQuery();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotConvertQueryBuilderUsingKeySetsToRawQuery() throws Exception {
+    select().from("table_a").where(inKeySet("col_a", Arrays.asList(1L))).toRawQuery();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotPrepareQueryUsingKeySets() throws Exception {
+    select().from("table_a").where(inKeySet("col_a", Arrays.asList(1L))).build().prepare();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotInsertResultOfQueryUsingKeySets() throws Exception {
+    insert().into("table_b").resultOf(select().from("table_a").where(inKeySet("col_a", Arrays.asList(1L))));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotCreateViewOfQueryUsingKeySets() throws Exception {
+    ViewActions.create().view("view_a").as(select().from("table_a").where(inKeySet("col_a", Arrays.asList(1L))).build());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectNullKeys() throws Exception {
+    inKeySet("col_a", Arrays.asList(1L, null));
+  }
+}
@@ -0,0 +1,69 @@
+package com.getbase.android.db.fluentsqlite;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+public class PersistentListTest {
+
+  @Test
+  public void shouldAppendElementsInOrder() throws Exception {
+    PersistentList<String> list = PersistentList.<String>empty().plus("a").plusAll("b", "c", "d", "e");
+
+    assertThat(list).containsExactly("a", "b", "c", "d", "e").inOrder();
+  }
+
+  @Test
+  public void shouldNotChangeOriginalListWhenAppending() throws Exception {
+    PersistentList<String> original = PersistentList.<String>empty().plus("a");
+
+    original.plus("b");
+
+    assertThat(original).containsExactly("a");
+  }
+
+  @Test
+  public void shouldKeepDivergedVersionsIndependent() throws Exception {
+    PersistentList<String> base = PersistentList.<String>empty().plus("a").plus("b");
+
+    PersistentList<String> first = base.plus("c").plus("d");
+    PersistentList<String> second = base.plus("x");
+    PersistentList<String> third = first.plus("e");
+    PersistentList<String> fourth = first.plus("y");
+
+    assertThat(base).containsExactly("a", "b").inOrder();
+    assertThat(first).containsExactly("a", "b", "c", "d").inOrder();
+    assertThat(second).containsExactly("a", "b", "x").inOrder();
+    assertThat(third).containsExactly("a", "b", "c", "d", "e").inOrder();
+    assertThat(fourth).containsExactly("a", "b", "c", "d", "y").inOrder();
+  }
+
+  @Test
+  public void shouldKeepVersionsIndependentWhenAppendingMultipleElements() throws Exception {
+    PersistentList<String> base = PersistentList.<String>empty().plus("a");
+
+    PersistentList<String> first = base.plusAll(ImmutableList.of("b", "c", "d", "e"));
+    PersistentList<String> second = base.plusAll(ImmutableList.of("x", "y"));
+    PersistentList<String> third = first.plusAll(ImmutableList.<String>of());
+
+    assertThat(base).containsExactly("a");
+    assertThat(first).containsExactly("a", "b", "c", "d", "e").inOrder();
+    assertThat(second).containsExactly("a", "x", "y").inOrder();
+    assertThat(third).isSameAs(first);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void shouldNotAllowMutatingTheList() throws Exception {
+    PersistentList.<String>empty().plus("a").add("b");
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void shouldNotExposeElementsAppendedToOtherVersions() throws Exception {
+    PersistentList<String> base = PersistentList.<String>empty().plus("a");
+    base.plus("b");
+
+    base.get(1);
+  }
+}
@@ -0,0 +1,140 @@
+package com.getbase.android.db.fluentsqlite;
+
+import static com.getbase.android.db.fluentsqlite.Expressions.column;
+import static com.getbase.android.db.fluentsqlite.PreparedQuery.slot;
+import static com.getbase.android.db.fluentsqlite.Query.select;
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.getbase.android.db.fluentsqlite.BindArgs.BindingCursorFactory;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabase.CursorFactory;
+
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PreparedQueryTest {
+
+  @Mock
+  private SQLiteDatabase mDb;
+
+  @Before
+  public void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+  }
+
+  @Test
+  public void shouldBindPositionalSlots() throws Exception {
+    PreparedQuery query = select()
+        .from("table_a")
+        .where("col_a=?", slot())
+        .where("col_b=?", slot())
+        .build()
+        .prepare();
+
+    query.bind(1, "x").perform(mDb);
+    query.bind(2, "y").perform(mDb);
+
+    List<Object[]> boundArgs = captureBoundArgs(2, "SELECT * FROM table_a WHERE (col_a=?) AND (col_b=?)");
+    assertThat(boundArgs.get(0)).asList().containsExactly(1, "x").inOrder();
+    assertThat(boundArgs.get(1)).asList().containsExactly(2, "y").inOrder();
+  }
+
+  @Test
+  public void shouldKeepArgsBoundWhenBuildingTheQuery() throws Exception {
+    select()
+        .from("table_a")
+        .where("col_a=?", 1)
+        .where("col_b=?", slot())
+        .build()
+        .prepare()
+        .bind(2)
+        .perform(mDb);
+
+    assertThat(captureBoundArgs(1, "SELECT * FROM table_a WHERE (col_a=?) AND (col_b=?)").get(0)).asList().containsExactly(1, 2).inOrder();
+  }
+
+  @Test
+  public void shouldBindTheSameValueToAllOccurrencesOfNamedSlot() throws Exception {
+    PreparedQuery query = select()
+        .from("table_a")
+        .where("col_a=? OR col_b=?", slot("id"), slot("id"))
+        .where("col_c=?", slot("status"))
+        .build()
+        .prepare();
+
+    assertThat(query.getSlotsCount()).isEqualTo(2);
+
+    query.bind(ImmutableMap.of("status", "new", "id", 5)).perform(mDb);
+
+    assertThat(captureBoundArgs(1, "SELECT * FROM table_a WHERE (col_a=? OR col_b=?) AND (col_c=?)").get(0)).asList().containsExactly(5, 5, "new").inOrder();
+  }
+
+  @Test
+  public void shouldAcceptSlotsInSubqueriesAndExpressions() throws Exception {
+    select()
+        .from("table_a")
+        .where(column("col_a").in(select().column("id").from("table_b").where("owner_id=?", slot("owner"))))
+        .where(column("col_b").eq().arg(), slot("status"))
+        .build()
+        .prepare()
+        .bind(ImmutableMap.of("owner", 1, "status", 2))
+        .perform(mDb);
+
+    assertThat(captureBoundArgs(1, "SELECT * FROM table_a WHERE (col_a IN (SELECT id FROM table_b WHERE (owner_id=?))) AND (col_b == ?)").get(0)).asList().containsExactly(1, 2).inOrder();
+  }
+
+  @Test
+  public void shouldProduceIdenticalSqlForEveryBinding() throws Exception {
+    PreparedQuery query = select().from("table_a").where("col_a=?", slot()).build().prepare();
+
+    assertThat(query.bind(1).toRawQuery().mRawQuery).isSameAs(query.bind(2).toRawQuery().mRawQuery);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectInvalidNumberOfSlotValues() throws Exception {
+    select().from("table_a").where("col_a=?", slot()).build().prepare().bind(1, 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectMissingNamedSlotValue() throws Exception {
+    select().from("table_a").where("col_a=?", slot("a")).build().prepare().bind(ImmutableMap.of("b", 1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectBindingUnnamedSlotsByName() throws Exception {
+    select().from("table_a").where("col_a=?", slot()).build().prepare().bind(ImmutableMap.of("a", 1));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotAllowPerformingQueryWithUnboundSlots() throws Exception {
+    select().from("table_a").where("col_a=?", slot()).build().perform(mDb);
+  }
+
+  private List<Object[]> captureBoundArgs(int times, String sql) {
+    ArgumentCaptor<CursorFactory> cursorFactory = ArgumentCaptor.forClass(CursorFactory.class);
+    verify(mDb, times(times)).rawQueryWithFactory(cursorFactory.capture(), eq(sql), (String[]) isNull(), (String) isNull());
+
+    List<Object[]> boundArgs = Lists.newArrayList();
+    for (CursorFactory factory : cursorFactory.getAllValues()) {
+      boundArgs.add(((BindingCursorFactory) factory).mArgs);
+    }
+    return boundArgs;
+  }
+}
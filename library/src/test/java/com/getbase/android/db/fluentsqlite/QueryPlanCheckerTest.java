@@ -0,0 +1,157 @@
+package com.getbase.android.db.fluentsqlite;
+
+import static com.getbase.android.db.fluentsqlite.Expressions.column;
+import static com.getbase.android.db.fluentsqlite.Query.select;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class QueryPlanCheckerTest {
+
+  @Mock
+  private SQLiteDatabase mDb;
+
+  @Mock
+  private SQLiteStatement mBigTableCount;
+
+  @Mock
+  private SQLiteStatement mSmallTableCount;
+
+  @Before
+  public void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+
+    when(mBigTableCount.simpleQueryForLong()).thenReturn(5000L);
+    when(mSmallTableCount.simpleQueryForLong()).thenReturn(10L);
+    when(mDb.compileStatement(eq("SELECT COUNT(*) FROM big"))).thenReturn(mBigTableCount);
+    when(mDb.compileStatement(eq("SELECT COUNT(*) FROM small"))).thenReturn(mSmallTableCount);
+  }
+
+  @Test
+  public void shouldFailOnScanOfTableAboveThreshold() throws Exception {
+    mockPlan("SEARCH small USING INTEGER PRIMARY KEY (rowid=?)", "SCAN big");
+
+    try {
+      new QueryPlanChecker(1000)
+          .register("big query", select().from("big").join("small").on("big.small_id=small._id").build())
+          .check(mDb);
+      fail();
+    } catch (AssertionError e) {
+      assertThat(e.getMessage()).contains("big query: SCAN big (5000 rows)");
+      assertThat(e.getMessage()).doesNotContain("small USING");
+    }
+  }
+
+  @Test
+  public void shouldFailOnTempBTreeForQueryUsingTableAboveThreshold() throws Exception {
+    mockPlan("SEARCH big USING INDEX big_col_a (col_a=?)", "USE TEMP B-TREE FOR ORDER BY");
+
+    try {
+      new QueryPlanChecker(1000)
+          .register("sorted", select().from("big").where("col_a=?", 1).orderBy("col_b").build())
+          .check(mDb);
+      fail();
+    } catch (AssertionError e) {
+      assertThat(e.getMessage()).contains("sorted: USE TEMP B-TREE FOR ORDER BY (5000 rows)");
+    }
+  }
+
+  @Test
+  public void shouldResolveTableAliasesPrintedInPlan() throws Exception {
+    mockPlan("SEARCH s USING INTEGER PRIMARY KEY (rowid=?)", "SCAN b");
+
+    try {
+      new QueryPlanChecker(1000)
+          .register("aliased", select().from("big").as("b").join("small").as("s").on("b.small_id=s._id").build())
+          .check(mDb);
+      fail();
+    } catch (AssertionError e) {
+      assertThat(e.getMessage()).contains("aliased: SCAN b (5000 rows)");
+    }
+  }
+
+  @Test
+  public void shouldResolveTableAliasesOfSubqueriesInExpressions() throws Exception {
+    mockPlan("SCAN small", "CORRELATED SCALAR SUBQUERY 1", "SCAN b");
+
+    Query subquery = select().expr(column("b.col_a")).from("big").as("b").where("b.small_id=small._id").build();
+    try {
+      new QueryPlanChecker(1000)
+          .register("subquery", select().column("_id").expr(column("col_b").in(subquery)).from("small").build())
+          .check(mDb);
+      fail();
+    } catch (AssertionError e) {
+      assertThat(e.getMessage()).contains("subquery: SCAN b (5000 rows)");
+    }
+  }
+
+  @Test
+  public void shouldNotCountRowsOfAliasedCommonTableExpression() throws Exception {
+    mockPlan("SCAN t", "SCAN small", "SEARCH c USING INDEX small_parent_id (parent_id=?)");
+
+    Query query = select()
+        .withRecursive("tree",
+            select().column("_id").from("small").where("_id=?", 1),
+            select().column("c", "_id").from("small").as("c").join("tree").as("p").on("c.parent_id=p._id"))
+        .from("tree").as("t")
+        .build();
+
+    new QueryPlanChecker(1000)
+        .register("tree", query)
+        .check(mDb);
+
+    verify(mDb, never()).compileStatement(eq("SELECT COUNT(*) FROM tree"));
+  }
+
+  @Test
+  public void shouldAllowScansOfSmallTables() throws Exception {
+    mockPlan("SCAN small", "USE TEMP B-TREE FOR ORDER BY");
+
+    new QueryPlanChecker(1000)
+        .register("small", select().from("small").orderBy("col_b").build())
+        .check(mDb);
+  }
+
+  @Test
+  public void shouldCountRowsOfEachTableOnlyOnce() throws Exception {
+    mockPlan("SEARCH big USING INDEX big_col_a (col_a=?)");
+
+    new QueryPlanChecker(1000)
+        .register("first", select().from("big").where("col_a=?", 1).build())
+        .register("second", select().from("big").where("col_a=?", 2).build())
+        .check(mDb);
+
+    verify(mDb, times(1)).compileStatement(eq("SELECT COUNT(*) FROM big"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectDuplicateQueryNames() throws Exception {
+    new QueryPlanChecker(1000)
+        .register("query", select().from("big").build())
+        .register("query", select().from("small").build());
+  }
+
+  private void mockPlan(String... details) {
+    MatrixCursor cursor = new MatrixCursor(new String[] { "id", "parent", "notused", "detail" });
+    for (int i = 0; i < details.length; i++) {
+      cursor.addRow(new Object[] { i + 1, 0, 0, details[i] });
+    }
+    when(mDb.rawQuery(startsWith("EXPLAIN QUERY PLAN"), any(String[].class))).thenReturn(cursor);
+    when(mDb.rawQueryWithFactory(any(SQLiteDatabase.CursorFactory.class), startsWith("EXPLAIN QUERY PLAN"), any(String[].class), anyString())).thenReturn(cursor);
+  }
+}
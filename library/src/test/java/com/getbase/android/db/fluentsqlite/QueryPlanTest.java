@@ -0,0 +1,99 @@
+package com.getbase.android.db.fluentsqlite;
+
+import static com.getbase.android.db.fluentsqlite.Query.select;
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+import com.getbase.android.db.fluentsqlite.QueryPlan.Step;
+import com.getbase.android.db.fluentsqlite.QueryPlan.StepType;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class QueryPlanTest {
+
+  @Mock
+  private SQLiteDatabase mDb;
+
+  @Before
+  public void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+  }
+
+  @Test
+  public void shouldRunExplainQueryPlanForRenderedQuery() throws Exception {
+    MatrixCursor cursor = new MatrixCursor(new String[] { "id", "parent", "notused", "detail" });
+    when(mDb.rawQuery(anyString(), any(String[].class))).thenReturn(cursor);
+
+    select().from("table_a").where("col_a=?", "a").build().explain(mDb);
+
+    verify(mDb).rawQuery(eq("EXPLAIN QUERY PLAN SELECT * FROM table_a WHERE (col_a=?)"), eq(new String[] { "a" }));
+    assertThat(cursor.isClosed()).isTrue();
+  }
+
+  @Test
+  public void shouldParseTreeFormat() throws Exception {
+    MatrixCursor cursor = new MatrixCursor(new String[] { "id", "parent", "notused", "detail" });
+    cursor.addRow(new Object[] { 2, 0, 0, "SCAN people" });
+    cursor.addRow(new Object[] { 5, 0, 0, "CORRELATED SCALAR SUBQUERY 1" });
+    cursor.addRow(new Object[] { 9, 5, 0, "SEARCH deals USING INDEX deals_owner (owner_id=?)" });
+    cursor.addRow(new Object[] { 20, 0, 0, "USE TEMP B-TREE FOR ORDER BY" });
+
+    QueryPlan plan = QueryPlan.fromCursor(cursor);
+
+    assertThat(plan.getSteps()).hasSize(3);
+    Step scan = plan.getSteps().get(0);
+    assertThat(scan.getType()).isEqualTo(StepType.SCAN);
+    assertThat(scan.getTable()).isEqualTo("people");
+
+    Step subquery = plan.getSteps().get(1);
+    assertThat(subquery.getType()).isEqualTo(StepType.CORRELATED_SUBQUERY);
+    assertThat(subquery.getChildren()).hasSize(1);
+    assertThat(subquery.getChildren().get(0).getType()).isEqualTo(StepType.SEARCH);
+    assertThat(subquery.getChildren().get(0).getTable()).isEqualTo("deals");
+
+    assertThat(plan.getSteps().get(2).getType()).isEqualTo(StepType.TEMP_B_TREE);
+    assertThat(plan.getAllSteps()).hasSize(4);
+  }
+
+  @Test
+  public void shouldNestSubqueryStepsInFlatFormat() throws Exception {
+    MatrixCursor cursor = new MatrixCursor(new String[] { "selectid", "order", "from", "detail" });
+    cursor.addRow(new Object[] { 0, 0, 0, "SCAN TABLE people AS p" });
+    cursor.addRow(new Object[] { 0, 0, 0, "EXECUTE CORRELATED SCALAR SUBQUERY 1" });
+    cursor.addRow(new Object[] { 1, 0, 0, "SEARCH TABLE deals USING INDEX deals_owner (owner_id=?)" });
+
+    QueryPlan plan = QueryPlan.fromCursor(cursor);
+
+    assertThat(plan.getSteps()).hasSize(2);
+    assertThat(plan.getSteps().get(0).getTable()).isEqualTo("people");
+    assertThat(plan.getSteps().get(1).getChildren()).hasSize(1);
+    assertThat(plan.getSteps().get(1).getChildren().get(0).getTable()).isEqualTo("deals");
+    assertThat(plan.hasStep(StepType.TEMP_B_TREE)).isFalse();
+  }
+
+  @Test
+  public void shouldNotReportTableForSubqueryScan() throws Exception {
+    MatrixCursor cursor = new MatrixCursor(new String[] { "selectid", "order", "from", "detail" });
+    cursor.addRow(new Object[] { 1, 0, 0, "SEARCH TABLE people USING INTEGER PRIMARY KEY (rowid=?)" });
+    cursor.addRow(new Object[] { 0, 0, 0, "SCAN SUBQUERY 1" });
+
+    QueryPlan plan = QueryPlan.fromCursor(cursor);
+
+    assertThat(plan.getSteps()).hasSize(1);
+    assertThat(plan.getSteps().get(0).getType()).isEqualTo(StepType.SCAN);
+    assertThat(plan.getSteps().get(0).getTable()).isNull();
+    assertThat(plan.getSteps().get(0).getChildren().get(0).getTable()).isEqualTo("people");
+  }
+}
@@ -0,0 +1,161 @@
+package com.getbase.android.db.fluentsqlite;
+
+import static com.getbase.android.db.fluentsqlite.Query.select;
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+import com.getbase.android.db.cursors.FluentCursor;
+import com.getbase.android.db.fluentsqlite.BindArgs.BindingCursorFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabase.CursorFactory;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class QueryStreamTest {
+
+  @Mock
+  private SQLiteDatabase mDb;
+
+  @Before
+  public void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+  }
+
+  @Test
+  public void shouldFetchNextChunksByKeysetWhenOrderingColumnsArePresentInResult() throws Exception {
+    MatrixCursor firstChunk = buildCursor(1L, 2L);
+    when(mDb.rawQuery(anyString(), any(String[].class))).thenReturn(firstChunk);
+    when(mDb.rawQueryWithFactory(any(CursorFactory.class), anyString(), any(String[].class), anyString())).thenReturn(buildCursor(3L));
+
+    QueryStream stream = select().from("table_a").orderBy("table_a._id").build().stream(mDb, 2);
+
+    assertThat(stream.next().getCount()).isEqualTo(2);
+    assertThat(stream.next().getCount()).isEqualTo(1);
+    assertThat(stream.hasNext()).isFalse();
+    assertThat(firstChunk.isClosed()).isTrue();
+
+    verify(mDb).rawQuery(eq("SELECT * FROM table_a ORDER BY table_a._id LIMIT 2"), eq(new String[0]));
+    ArgumentCaptor<CursorFactory> cursorFactory = ArgumentCaptor.forClass(CursorFactory.class);
+    verify(mDb).rawQueryWithFactory(cursorFactory.capture(), eq("SELECT * FROM table_a WHERE (table_a._id > ?) ORDER BY table_a._id LIMIT 2"), (String[]) isNull(), (String) isNull());
+    assertThat(((BindingCursorFactory) cursorFactory.getValue()).mArgs).asList().containsExactly(2L);
+  }
+
+  @Test
+  public void shouldFetchNextChunksWithOffsetWhenQueryIsNotOrdered() throws Exception {
+    when(mDb.rawQuery(anyString(), any(String[].class))).thenReturn(buildCursor(1L, 2L), buildCursor(3L, 4L), buildCursor());
+
+    int chunks = 0;
+    for (FluentCursor chunk : select().from("table_a").build().stream(mDb, 2)) {
+      assertThat(chunk.getCount()).isEqualTo(2);
+      chunks++;
+    }
+
+    assertThat(chunks).isEqualTo(2);
+    verify(mDb).rawQuery(eq("SELECT * FROM table_a LIMIT 2"), eq(new String[0]));
+    verify(mDb).rawQuery(eq("SELECT * FROM table_a LIMIT 2 OFFSET 2"), eq(new String[0]));
+    verify(mDb).rawQuery(eq("SELECT * FROM table_a LIMIT 2 OFFSET 4"), eq(new String[0]));
+  }
+
+  @Test
+  public void shouldFetchNextChunksWithOffsetWhenOrderingColumnIsNotPresentInResult() throws Exception {
+    when(mDb.rawQuery(anyString(), any(String[].class))).thenReturn(buildCursor(1L), buildCursor());
+
+    QueryStream stream = select().column("_id").from("table_a").orderBy("col_a").build().stream(mDb, 1);
+    stream.next();
+    assertThat(stream.hasNext()).isFalse();
+
+    verify(mDb).rawQuery(eq("SELECT _id FROM table_a ORDER BY col_a LIMIT 1 OFFSET 1"), eq(new String[0]));
+  }
+
+  @Test
+  public void shouldFetchNextChunksWithOffsetWhenResultColumnWithSameNameIsFromOtherTable() throws Exception {
+    when(mDb.rawQuery(anyString(), any(String[].class))).thenReturn(buildCursor(1L), buildCursor());
+
+    QueryStream stream = select().column("table_b._id").from("table_a").orderBy("table_a._id").build().stream(mDb, 1);
+    stream.next();
+    assertThat(stream.hasNext()).isFalse();
+
+    verify(mDb).rawQuery(eq("SELECT table_b._id FROM table_a ORDER BY table_a._id LIMIT 1 OFFSET 1"), eq(new String[0]));
+  }
+
+  @Test
+  public void shouldFetchNextChunksByKeysetWhenOrderingColumnIsSelectedWithAlias() throws Exception {
+    MatrixCursor firstChunk = new MatrixCursor(new String[] { "a_id" });
+    firstChunk.addRow(new Object[] { 1L });
+    when(mDb.rawQuery(anyString(), any(String[].class))).thenReturn(firstChunk);
+    when(mDb.rawQueryWithFactory(any(CursorFactory.class), anyString(), any(String[].class), anyString())).thenReturn(buildCursor());
+
+    QueryStream stream = select().column("table_a._id").as("a_id").from("table_a").orderBy("table_a._id").build().stream(mDb, 1);
+    stream.next();
+    assertThat(stream.hasNext()).isFalse();
+
+    verify(mDb).rawQueryWithFactory(any(CursorFactory.class), eq("SELECT table_a._id AS a_id FROM table_a WHERE (table_a._id > ?) ORDER BY table_a._id LIMIT 1"), (String[]) isNull(), (String) isNull());
+  }
+
+  @Test
+  public void shouldFetchNextChunksWithOffsetWhenLastRowHasNullOrderingValue() throws Exception {
+    MatrixCursor firstChunk = new MatrixCursor(new String[] { "_id" });
+    firstChunk.addRow(new Object[] { null });
+    when(mDb.rawQuery(anyString(), any(String[].class))).thenReturn(firstChunk, buildCursor());
+
+    QueryStream stream = select().from("table_a").orderBy("_id").build().stream(mDb, 1);
+    stream.next();
+    assertThat(stream.hasNext()).isFalse();
+
+    verify(mDb).rawQuery(eq("SELECT * FROM table_a ORDER BY _id LIMIT 1 OFFSET 1"), eq(new String[0]));
+  }
+
+  @Test
+  public void shouldFetchNextChunksWithOffsetWhenQueryIsGrouped() throws Exception {
+    when(mDb.rawQuery(anyString(), any(String[].class))).thenReturn(buildCursor(1L), buildCursor());
+
+    QueryStream stream = select().column("_id").from("table_a").groupBy("_id").orderBy("_id").build().stream(mDb, 1);
+    stream.next();
+    assertThat(stream.hasNext()).isFalse();
+
+    verify(mDb).rawQuery(eq("SELECT _id FROM table_a GROUP BY _id ORDER BY _id LIMIT 1 OFFSET 1"), eq(new String[0]));
+  }
+
+  @Test
+  public void shouldCloseCurrentChunkWhenStreamIsClosed() throws Exception {
+    MatrixCursor chunk = buildCursor(1L, 2L);
+    when(mDb.rawQuery(anyString(), any(String[].class))).thenReturn(chunk);
+
+    QueryStream stream = select().from("table_a").build().stream(mDb, 2);
+    stream.next();
+    stream.close();
+
+    assertThat(chunk.isClosed()).isTrue();
+    assertThat(stream.hasNext()).isFalse();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotStreamQueryWithLimit() throws Exception {
+    select().from("table_a").limit(10).build().stream(mDb, 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectNonPositiveChunkSize() throws Exception {
+    select().from("table_a").build().stream(mDb, 0);
+  }
+
+  private static MatrixCursor buildCursor(Long... ids) {
+    MatrixCursor cursor = new MatrixCursor(new String[] { "_id" });
+    for (Long id : ids) {
+      cursor.addRow(new Object[] { id });
+    }
+    return cursor;
+  }
+}
@@ -7,6 +7,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 
+import com.getbase.android.db.fluentsqlite.BindArgs.BindingCursorFactory;
 import com.getbase.android.db.fluentsqlite.Expressions.CollatingSequence;
 import com.getbase.android.db.fluentsqlite.Expressions.Expression;
 import com.getbase.android.db.fluentsqlite.Query.QueryBuilder;
@@ -14,12 +15,16 @@ import com.getbase.android.db.fluentsqlite.Query.QueryBuilder;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.verification.VerificationMode;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabase.CursorFactory;
+import android.database.sqlite.SQLiteStatement;
 
 import java.util.Set;
 
@@ -112,7 +117,7 @@ public class QueryTest {
         .build()
         .perform(mDb);
 
-    verify(mDb).rawQuery(eq("SELECT * FROM table_a WHERE (column=?)"), eq(new String[] { "0" }));
+    verifyQueryWithTypedArgs("SELECT * FROM table_a WHERE (column=?)", 0);
   }
 
   @Test
@@ -123,7 +128,7 @@ public class QueryTest {
         .build()
         .perform(mDb);
 
-    verify(mDb).rawQuery(eq("SELECT * FROM table_a WHERE (column=?) AND (other_column=?)"), eq(new String[] { "0", "1" }));
+    verifyQueryWithTypedArgs("SELECT * FROM table_a WHERE (column=?) AND (other_column=?)", 0, 1);
   }
 
   @Test
@@ -135,7 +140,7 @@ public class QueryTest {
         .build()
         .perform(mDb);
 
-    verify(mDb).rawQuery(eq("SELECT * FROM table_a LEFT JOIN table_b ON (column_a=?) WHERE (column_b=?)"), eq(new String[] { "0", "1" }));
+    verifyQueryWithTypedArgs("SELECT * FROM table_a LEFT JOIN table_b ON (column_a=?) WHERE (column_b=?)", 0, 1);
   }
 
   @Test
@@ -456,7 +461,7 @@ public class QueryTest {
         .build()
         .perform(mDb);
 
-    verify(mDb).rawQuery(eq("SELECT * FROM table_a GROUP BY col_a HAVING (col_b=?)"), eq(new String[] { "1" }));
+    verifyQueryWithTypedArgs("SELECT * FROM table_a GROUP BY col_a HAVING (col_b=?)", 1);
   }
 
   @Test
@@ -469,7 +474,7 @@ public class QueryTest {
         .build()
         .perform(mDb);
 
-    verify(mDb).rawQuery(eq("SELECT * FROM table_a GROUP BY col_a HAVING (col_b=?) AND (col_c=?)"), eq(new String[] { "1", "2" }));
+    verifyQueryWithTypedArgs("SELECT * FROM table_a GROUP BY col_a HAVING (col_b=?) AND (col_c=?)", 1, 2);
   }
 
   @Test
@@ -726,12 +731,12 @@ public class QueryTest {
     Query originalQuery = buildComplexQuery().build();
 
     originalQuery.perform(mDb);
-    verify(mDb).rawQuery(eq("SELECT table_a.col_a FROM table_a LEFT JOIN table_b AS b ON (b.id > ?) GROUP BY b.id HAVING (col_a < ?) EXCEPT SELECT DISTINCT col_a FROM table_a WHERE (col_a == -1) ORDER BY table_a.col_a LIMIT 10 OFFSET 20"), eq(new String[] { "1", "2" }));
+    verifyQueryWithTypedArgs("SELECT table_a.col_a FROM table_a LEFT JOIN table_b AS b ON (b.id > ?) GROUP BY b.id HAVING (col_a < ?) EXCEPT SELECT DISTINCT col_a FROM table_a WHERE (col_a == -1) ORDER BY table_a.col_a LIMIT 10 OFFSET 20", 1, 2);
 
     QueryBuilder copy = originalQuery.buildUpon();
 
     copy.build().perform(mDb);
-    verify(mDb, times(2)).rawQuery(eq("SELECT table_a.col_a FROM table_a LEFT JOIN table_b AS b ON (b.id > ?) GROUP BY b.id HAVING (col_a < ?) EXCEPT SELECT DISTINCT col_a FROM table_a WHERE (col_a == -1) ORDER BY table_a.col_a LIMIT 10 OFFSET 20"), eq(new String[] { "1", "2" }));
+    verifyQueryWithTypedArgs(times(2), "SELECT table_a.col_a FROM table_a LEFT JOIN table_b AS b ON (b.id > ?) GROUP BY b.id HAVING (col_a < ?) EXCEPT SELECT DISTINCT col_a FROM table_a WHERE (col_a == -1) ORDER BY table_a.col_a LIMIT 10 OFFSET 20", 1, 2);
   }
 
   @Test
@@ -739,16 +744,16 @@ public class QueryTest {
     Query originalQuery = buildComplexQuery().build();
 
     originalQuery.perform(mDb);
-    verify(mDb).rawQuery(eq("SELECT table_a.col_a FROM table_a LEFT JOIN table_b AS b ON (b.id > ?) GROUP BY b.id HAVING (col_a < ?) EXCEPT SELECT DISTINCT col_a FROM table_a WHERE (col_a == -1) ORDER BY table_a.col_a LIMIT 10 OFFSET 20"), eq(new String[] { "1", "2" }));
+    verifyQueryWithTypedArgs("SELECT table_a.col_a FROM table_a LEFT JOIN table_b AS b ON (b.id > ?) GROUP BY b.id HAVING (col_a < ?) EXCEPT SELECT DISTINCT col_a FROM table_a WHERE (col_a == -1) ORDER BY table_a.col_a LIMIT 10 OFFSET 20", 1, 2);
 
     QueryBuilder copy = originalQuery.buildUpon();
     copy.where(column("a").is().not().nul());
 
     copy.build().perform(mDb);
-    verify(mDb).rawQuery(eq("SELECT table_a.col_a FROM table_a LEFT JOIN table_b AS b ON (b.id > ?) GROUP BY b.id HAVING (col_a < ?) EXCEPT SELECT DISTINCT col_a FROM table_a WHERE (col_a == -1) AND (a IS NOT NULL) ORDER BY table_a.col_a LIMIT 10 OFFSET 20"), eq(new String[] { "1", "2" }));
+    verifyQueryWithTypedArgs("SELECT table_a.col_a FROM table_a LEFT JOIN table_b AS b ON (b.id > ?) GROUP BY b.id HAVING (col_a < ?) EXCEPT SELECT DISTINCT col_a FROM table_a WHERE (col_a == -1) AND (a IS NOT NULL) ORDER BY table_a.col_a LIMIT 10 OFFSET 20", 1, 2);
 
     originalQuery.perform(mDb);
-    verify(mDb, times(2)).rawQuery(eq("SELECT table_a.col_a FROM table_a LEFT JOIN table_b AS b ON (b.id > ?) GROUP BY b.id HAVING (col_a < ?) EXCEPT SELECT DISTINCT col_a FROM table_a WHERE (col_a == -1) ORDER BY table_a.col_a LIMIT 10 OFFSET 20"), eq(new String[] { "1", "2" }));
+    verifyQueryWithTypedArgs(times(2), "SELECT table_a.col_a FROM table_a LEFT JOIN table_b AS b ON (b.id > ?) GROUP BY b.id HAVING (col_a < ?) EXCEPT SELECT DISTINCT col_a FROM table_a WHERE (col_a == -1) ORDER BY table_a.col_a LIMIT 10 OFFSET 20", 1, 2);
   }
 
   @Test
@@ -757,16 +762,16 @@ public class QueryTest {
     Query originalQuery = originalQueryBuilder.build();
 
     originalQuery.perform(mDb);
-    verify(mDb).rawQuery(eq("SELECT table_a.col_a FROM table_a LEFT JOIN table_b AS b ON (b.id > ?) GROUP BY b.id HAVING (col_a < ?) EXCEPT SELECT DISTINCT col_a FROM table_a WHERE (col_a == -1) ORDER BY table_a.col_a LIMIT 10 OFFSET 20"), eq(new String[] { "1", "2" }));
+    verifyQueryWithTypedArgs("SELECT table_a.col_a FROM table_a LEFT JOIN table_b AS b ON (b.id > ?) GROUP BY b.id HAVING (col_a < ?) EXCEPT SELECT DISTINCT col_a FROM table_a WHERE (col_a == -1) ORDER BY table_a.col_a LIMIT 10 OFFSET 20", 1, 2);
 
     QueryBuilder copy = originalQuery.buildUpon();
 
     originalQueryBuilder.where(column("a").is().not().nul());
     originalQueryBuilder.build().perform(mDb);
-    verify(mDb).rawQuery(eq("SELECT table_a.col_a FROM table_a LEFT JOIN table_b AS b ON (b.id > ?) GROUP BY b.id HAVING (col_a < ?) EXCEPT SELECT DISTINCT col_a FROM table_a WHERE (col_a == -1) AND (a IS NOT NULL) ORDER BY table_a.col_a LIMIT 10 OFFSET 20"), eq(new String[] { "1", "2" }));
+    verifyQueryWithTypedArgs("SELECT table_a.col_a FROM table_a LEFT JOIN table_b AS b ON (b.id > ?) GROUP BY b.id HAVING (col_a < ?) EXCEPT SELECT DISTINCT col_a FROM table_a WHERE (col_a == -1) AND (a IS NOT NULL) ORDER BY table_a.col_a LIMIT 10 OFFSET 20", 1, 2);
 
     copy.build().perform(mDb);
-    verify(mDb, times(2)).rawQuery(eq("SELECT table_a.col_a FROM table_a LEFT JOIN table_b AS b ON (b.id > ?) GROUP BY b.id HAVING (col_a < ?) EXCEPT SELECT DISTINCT col_a FROM table_a WHERE (col_a == -1) ORDER BY table_a.col_a LIMIT 10 OFFSET 20"), eq(new String[] { "1", "2" }));
+    verifyQueryWithTypedArgs(times(2), "SELECT table_a.col_a FROM table_a LEFT JOIN table_b AS b ON (b.id > ?) GROUP BY b.id HAVING (col_a < ?) EXCEPT SELECT DISTINCT col_a FROM table_a WHERE (col_a == -1) ORDER BY table_a.col_a LIMIT 10 OFFSET 20", 1, 2);
   }
 
   @Test
@@ -1237,4 +1242,327 @@ public class QueryTest {
     select().literal(1).build().perform(mDb);
     verify(mDb).rawQuery(eq("SELECT 1"), eq(new String[0]));
   }
+
+  @Test
+  public void shouldRenderBuiltQueryOnlyOnce() throws Exception {
+    Query query = select().from("table_a").where("col_a=?", 1).orderBy("col_b").build();
+
+    assertThat(query.toRawQuery()).isSameAs(query.toRawQuery());
+  }
+
+  @Test
+  public void shouldNotChangeBuiltQueryWhenOriginalBuilderIsModified() throws Exception {
+    QueryBuilder builder = select().from("table_a");
+    Query query = builder.orderBy("col_a").build();
+
+    builder.orderBy("col_b").desc().where("col_c=?", 1);
+
+    RawQuery rawQuery = query.toRawQuery();
+    assertThat(rawQuery.mRawQuery).isEqualTo("SELECT * FROM table_a ORDER BY col_a");
+    assertThat(rawQuery.mRawQueryArgs).isEmpty();
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void shouldNotAllowModifyingArgsOfRenderedQuery() throws Exception {
+    select().from("table_a").where("col_a=?", 1).build().toRawQuery().mRawQueryArgs.add("2");
+  }
+
+  @Test
+  public void shouldRenderTheSameQueryFromMultipleThreads() throws Exception {
+    final Query query = select()
+        .from("table_a")
+        .join(select().column("col_a").from("table_b").where("col_b=?", 1))
+        .where("col_c=?", 2)
+        .orderBy("col_d")
+        .build();
+
+    final RawQuery[] results = new RawQuery[8];
+    Thread[] threads = new Thread[results.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int index = i;
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          results[index] = query.toRawQuery();
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    for (RawQuery result : results) {
+      assertThat(result.mRawQuery).isEqualTo("SELECT * FROM table_a JOIN (SELECT col_a FROM table_b WHERE (col_b=?)) WHERE (col_c=?) ORDER BY col_d");
+      assertThat(result.mRawQueryArgs).containsExactly("1", "2").inOrder();
+    }
+  }
+
+  @Test
+  public void shouldNotShareChangesBetweenVariantsOfTheSameQuery() throws Exception {
+    Query base = select()
+        .from("table_a")
+        .left().join("table_b").on("table_a.id=table_b.id_a")
+        .where("col_a=?", 1)
+        .build();
+
+    Query first = base.buildUpon().where("col_b=?", 2).orderBy("col_c").build();
+    Query second = base.buildUpon().where("col_d=?", 3).orderBy("col_e").desc().build();
+    Query third = base.buildUpon().left().join("table_c").using("id").build();
+
+    assertThat(base.toRawQuery().mRawQuery).isEqualTo("SELECT * FROM table_a LEFT JOIN table_b ON (table_a.id=table_b.id_a) WHERE (col_a=?)");
+    assertThat(first.toRawQuery().mRawQuery).isEqualTo("SELECT * FROM table_a LEFT JOIN table_b ON (table_a.id=table_b.id_a) WHERE (col_a=?) AND (col_b=?) ORDER BY col_c");
+    assertThat(first.toRawQuery().mRawQueryArgs).containsExactly("1", "2").inOrder();
+    assertThat(second.toRawQuery().mRawQuery).isEqualTo("SELECT * FROM table_a LEFT JOIN table_b ON (table_a.id=table_b.id_a) WHERE (col_a=?) AND (col_d=?) ORDER BY col_e DESC");
+    assertThat(second.toRawQuery().mRawQueryArgs).containsExactly("1", "3").inOrder();
+    assertThat(third.toRawQuery().mRawQuery).isEqualTo("SELECT * FROM table_a LEFT JOIN table_b ON (table_a.id=table_b.id_a) LEFT JOIN table_c USING (id) WHERE (col_a=?)");
+  }
+
+  @Test
+  public void shouldNotChangePendingJoinOfOriginalBuilderWhenCopyIsModified() throws Exception {
+    QueryBuilder builder = select().from("table_a").join("table_b").on("table_a.id=table_b.id_a");
+    Query copy = builder.build().buildUpon().where("col_a=?", 1).build();
+
+    builder.where("col_b=?", 2);
+
+    assertThat(builder.build().toRawQuery().mRawQuery).isEqualTo("SELECT * FROM table_a JOIN table_b ON (table_a.id=table_b.id_a) WHERE (col_b=?)");
+    assertThat(copy.toRawQuery().mRawQuery).isEqualTo("SELECT * FROM table_a JOIN table_b ON (table_a.id=table_b.id_a) WHERE (col_a=?)");
+  }
+
+  @Test
+  public void shouldComputeTablesOfBuiltQueryOnlyOnce() throws Exception {
+    Query query = select()
+        .from("table_a")
+        .join(select().from("table_b").build())
+        .where(column("col_a").in(select().column("id_a").from("table_c")))
+        .build();
+
+    assertThat(query.getTables()).containsExactly("table_a", "table_b", "table_c");
+    assertThat(query.getTables()).isSameAs(query.getTables());
+    assertThat(query.getTableSet()).isSameAs(query.getTableSet());
+  }
+
+  @Test
+  public void shouldExposeTablesOfBuiltQueryAsTableSet() throws Exception {
+    Query query = select()
+        .from("table_a")
+        .union()
+        .select().from("table_b")
+        .build();
+
+    assertThat(query.getTableSet()).isEqualTo(TableSet.of("table_b", "table_a"));
+    assertThat(query.getTableSet().contains("table_a")).isTrue();
+    assertThat(query.getTableSet().contains("table_c")).isFalse();
+    assertThat(query.getTableSet().intersects(TableSet.of("table_c", "table_b"))).isTrue();
+  }
+
+  @Test
+  public void shouldPassTypedArgsToQueryWithoutConvertingThemToStrings() throws Exception {
+    byte[] blob = new byte[] { 1, 2, 3 };
+
+    select()
+        .from("table_a")
+        .where("col_a=? AND col_b=? AND col_c=? AND col_d=?", 1L, 1.5, blob, "text")
+        .where(column("col_e").is().arg(), (Object) null)
+        .build()
+        .perform(mDb);
+
+    verifyQueryWithTypedArgs("SELECT * FROM table_a WHERE (col_a=? AND col_b=? AND col_c=? AND col_d=?) AND (col_e IS ?)", 1L, 1.5, blob, "text", null);
+    verify(mDb, never()).rawQuery(anyString(), any(String[].class));
+  }
+
+  @Test
+  public void shouldUseStringArgsWhenAllArgsAreStrings() throws Exception {
+    select().from("table_a").where("col_a=?", "text").build().perform(mDb);
+
+    verify(mDb).rawQuery(eq("SELECT * FROM table_a WHERE (col_a=?)"), eq(new String[] { "text" }));
+    verify(mDb, never()).rawQueryWithFactory(any(CursorFactory.class), anyString(), any(String[].class), anyString());
+  }
+
+  @Test
+  public void shouldPerformQueryForLongWithCompiledStatement() throws Exception {
+    SQLiteStatement statement = mock(SQLiteStatement.class);
+    when(mDb.compileStatement(anyString())).thenReturn(statement);
+    when(statement.simpleQueryForLong()).thenReturn(42L);
+
+    long result = select().expr(Expressions.count()).from("table_a").where("col_a=?", 1).build().performForLong(mDb);
+
+    assertThat(result).isEqualTo(42L);
+    verify(mDb).compileStatement(eq("SELECT COUNT(*) FROM table_a WHERE (col_a=?)"));
+    verify(statement).bindLong(eq(1), eq(1L));
+    verify(statement).close();
+    verify(mDb, never()).rawQuery(anyString(), any(String[].class));
+  }
+
+  @Test
+  public void shouldPerformQueryForStringWithCompiledStatement() throws Exception {
+    SQLiteStatement statement = mock(SQLiteStatement.class);
+    when(mDb.compileStatement(anyString())).thenReturn(statement);
+    when(statement.simpleQueryForString()).thenReturn("value");
+
+    String result = select().column("col_b").from("table_a").where("col_a=?", "x").build().performForString(mDb);
+
+    assertThat(result).isEqualTo("value");
+    verify(mDb).compileStatement(eq("SELECT col_b FROM table_a WHERE (col_a=?)"));
+    verify(statement).bindString(eq(1), eq("x"));
+    verify(statement).close();
+  }
+
+  @Test
+  public void shouldCheckIfQueryReturnsAnyRowsWithSelectExists() throws Exception {
+    SQLiteStatement statement = mock(SQLiteStatement.class);
+    when(mDb.compileStatement(anyString())).thenReturn(statement);
+    when(statement.simpleQueryForLong()).thenReturn(1L, 0L);
+
+    Query query = select().from("table_a").where("col_a=?", 1).build();
+
+    assertThat(query.exists(mDb)).isTrue();
+    assertThat(query.exists(mDb)).isFalse();
+    verify(mDb, times(2)).compileStatement(eq("SELECT EXISTS(SELECT * FROM table_a WHERE (col_a=?))"));
+    verify(statement, times(2)).close();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotPerformQueryForLongWithUnboundSlots() throws Exception {
+    select().from("table_a").where("col_a=?", PreparedQuery.slot()).build().performForLong(mDb);
+  }
+
+  @Test
+  public void shouldSeekAfterLastRowOfSingleOrderingTerm() throws Exception {
+    select().from("table_a").orderBy("col_a").seekAfter(42L).limit(10).build().perform(mDb);
+
+    verifyQueryWithTypedArgs("SELECT * FROM table_a WHERE (col_a > ?) ORDER BY col_a LIMIT 10", 42L);
+  }
+
+  @Test
+  public void shouldSeekAfterLastRowOfMultipleOrderingTerms() throws Exception {
+    select()
+        .from("table_a")
+        .where("col_c=?", 1L)
+        .orderBy("col_a").collate(CollatingSequence.NOCASE).asc()
+        .orderBy("col_b").desc()
+        .orderBy("_id")
+        .seekAfter("x", 1.5, 7L)
+        .build()
+        .perform(mDb);
+
+    verifyQueryWithTypedArgs("SELECT * FROM table_a WHERE (col_c=?) AND (col_a COLLATE NOCASE >= ? AND (col_a COLLATE NOCASE > ? OR (col_a COLLATE NOCASE = ? AND col_b < ?) OR (col_a COLLATE NOCASE = ? AND col_b = ? AND _id > ?))) ORDER BY col_a COLLATE NOCASE ASC, col_b DESC, _id",
+        1L, "x", "x", "x", 1.5, "x", 1.5, 7L);
+  }
+
+  @Test
+  public void shouldAllowSeekingBeforeOrderByIsSpecified() throws Exception {
+    select().from("table_a").seekAfter(42L).orderBy("col_a").desc().build().perform(mDb);
+
+    verifyQueryWithTypedArgs("SELECT * FROM table_a WHERE (col_a < ?) ORDER BY col_a DESC", 42L);
+  }
+
+  @Test
+  public void shouldNotApplySeekTwiceWhenBuilderIsFrozenMultipleTimes() throws Exception {
+    QueryBuilder builder = select().from("table_a").orderBy("col_a").seekAfter(42L);
+
+    builder.toRawQuery();
+    builder.build().perform(mDb);
+
+    verifyQueryWithTypedArgs("SELECT * FROM table_a WHERE (col_a > ?) ORDER BY col_a", 42L);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectSeekWithoutOrderBy() throws Exception {
+    select().from("table_a").seekAfter(42L).build();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectSeekWithWrongNumberOfValues() throws Exception {
+    select().from("table_a").orderBy("col_a").orderBy("_id").seekAfter(42L).build();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectSeekAfterNullValue() throws Exception {
+    select().from("table_a").orderBy("col_a").seekAfter((Object) null);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectSeekInQueryWithGroupBy() throws Exception {
+    select().column("col_a").from("table_a").groupBy("col_a").orderBy("col_a").seekAfter(42L).build();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectSeekInCompoundQuery() throws Exception {
+    select().from("table_a")
+        .union()
+        .select().from("table_b")
+        .orderBy("col_a")
+        .seekAfter(42L)
+        .build();
+  }
+
+  @Test
+  public void shouldRenderCommonTableExpressionsInFrontOfStatement() throws Exception {
+    select()
+        .from("active")
+        .where("col_b=?", "b")
+        .with("active", select().from("table_a").where("col_a=?", "a"))
+        .build()
+        .perform(mDb);
+
+    verify(mDb).rawQuery(eq("WITH active AS (SELECT * FROM table_a WHERE (col_a=?)) SELECT * FROM active WHERE (col_b=?)"), eq(new String[] { "a", "b" }));
+  }
+
+  @Test
+  public void shouldRenderRecursiveCommonTableExpression() throws Exception {
+    select()
+        .withRecursive("subtree",
+            select().column("_id").from("folders").where("_id=?", "1"),
+            select().column("folders", "_id").from("folders").join("subtree").on("folders.parent_id=subtree._id"))
+        .column("name").from("folders")
+        .where("_id IN (SELECT _id FROM subtree)")
+        .build()
+        .perform(mDb);
+
+    verify(mDb).rawQuery(eq("WITH RECURSIVE subtree AS (SELECT _id FROM folders WHERE (_id=?) UNION ALL SELECT folders._id FROM folders JOIN subtree ON (folders.parent_id=subtree._id)) " +
+        "SELECT name FROM folders WHERE (_id IN (SELECT _id FROM subtree))"), eq(new String[] { "1" }));
+  }
+
+  @Test
+  public void shouldRenderCommonTableExpressionsInFrontOfCompoundQuery() throws Exception {
+    select().from("cte_a")
+        .union()
+        .select().from("table_b")
+        .with("cte_a", select().from("table_a"))
+        .build()
+        .perform(mDb);
+
+    verify(mDb).rawQuery(eq("WITH cte_a AS (SELECT * FROM table_a) SELECT * FROM cte_a UNION SELECT * FROM table_b"), eq(new String[0]));
+  }
+
+  @Test
+  public void shouldIncludeTablesOfCommonTableExpressionsButNotTheirNames() throws Exception {
+    Set<String> tables = select()
+        .withRecursive("subtree",
+            select().from("folders"),
+            select().from("folders").join("subtree").using("_id"))
+        .from("subtree")
+        .join("table_a").using("_id")
+        .getTables();
+
+    assertThat(tables).containsExactly("folders", "table_a");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectDuplicatedCommonTableExpressionNames() throws Exception {
+    select()
+        .with("cte", select().from("table_a"))
+        .with("cte", select().from("table_b"));
+  }
+
+  private void verifyQueryWithTypedArgs(String sql, Object... args) {
+    verifyQueryWithTypedArgs(times(1), sql, args);
+  }
+
+  private void verifyQueryWithTypedArgs(VerificationMode mode, String sql, Object... args) {
+    ArgumentCaptor<CursorFactory> cursorFactory = ArgumentCaptor.forClass(CursorFactory.class);
+    verify(mDb, mode).rawQueryWithFactory(cursorFactory.capture(), eq(sql), (String[]) isNull(), (String) isNull());
+    assertThat(((BindingCursorFactory) cursorFactory.getValue()).mArgs).asList().containsExactly(args).inOrder();
+  }
 }
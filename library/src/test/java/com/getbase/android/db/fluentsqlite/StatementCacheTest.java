@@ -0,0 +1,166 @@
+package com.getbase.android.db.fluentsqlite;
+
+import static com.getbase.android.db.fluentsqlite.Delete.delete;
+import static com.getbase.android.db.fluentsqlite.Insert.insert;
+import static com.getbase.android.db.fluentsqlite.Update.update;
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Arrays;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class StatementCacheTest {
+
+  @Mock
+  private SQLiteDatabase mDb;
+
+  @Mock
+  private SQLiteDatabase mOtherDb;
+
+  @Mock
+  private SQLiteStatement mStatement;
+
+  private StatementCache mCache;
+
+  @Before
+  public void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+
+    when(mDb.compileStatement(anyString())).thenReturn(mStatement);
+    when(mOtherDb.compileStatement(anyString())).thenReturn(mStatement);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (mCache != null) {
+      mCache.close();
+    }
+  }
+
+  @Test
+  public void shouldReuseCompiledStatementForRepeatedUpdates() throws Exception {
+    mCache = StatementCache.open(mDb, 4);
+
+    update().table("A").value("col_a", 1).where("_id=?", 1L).perform(mDb);
+    update().table("A").value("col_a", 2).where("_id=?", 2L).perform(mDb);
+
+    verify(mDb, times(1)).compileStatement(eq("UPDATE A SET col_a=? WHERE (_id=?)"));
+    verify(mStatement, times(2)).executeUpdateDelete();
+    verify(mStatement, never()).close();
+    assertThat(mCache.getMissCount()).isEqualTo(1);
+    assertThat(mCache.getHitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldClearBindingsOfReleasedStatements() throws Exception {
+    mCache = StatementCache.open(mDb, 4);
+
+    delete().from("A").where("_id=?", 1L).perform(mDb);
+
+    verify(mStatement).clearBindings();
+  }
+
+  @Test
+  public void shouldUseCacheForInserts() throws Exception {
+    mCache = StatementCache.open(mDb, 4);
+
+    insert().into("A").value("col_a", 1).perform(mDb);
+    insert().into("A").value("col_a", 2).performOrThrow(mDb);
+    insert().into("A").rows(Arrays.asList(values("col_a", 3), values("col_a", 4))).perform(mDb);
+
+    verify(mDb, times(1)).compileStatement(eq("INSERT INTO A (col_a) VALUES (?)"));
+    verify(mDb, never()).insert(anyString(), anyString(), any(ContentValues.class));
+    verify(mStatement, times(4)).executeInsert();
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedStatement() throws Exception {
+    SQLiteStatement statementA = mock(SQLiteStatement.class);
+    SQLiteStatement statementB = mock(SQLiteStatement.class);
+    SQLiteStatement statementC = mock(SQLiteStatement.class);
+    when(mDb.compileStatement(eq("DELETE FROM A"))).thenReturn(statementA);
+    when(mDb.compileStatement(eq("DELETE FROM B"))).thenReturn(statementB);
+    when(mDb.compileStatement(eq("DELETE FROM C"))).thenReturn(statementC);
+
+    mCache = StatementCache.open(mDb, 2);
+
+    delete().from("A").perform(mDb);
+    delete().from("B").perform(mDb);
+    delete().from("A").perform(mDb);
+    delete().from("C").perform(mDb);
+
+    verify(statementA, never()).close();
+    verify(statementB).close();
+    assertThat(mCache.size()).isEqualTo(2);
+
+    mCache.close();
+    verify(statementA).close();
+    verify(statementC).close();
+  }
+
+  @Test
+  public void shouldNotCacheStatementsOfOtherDatabase() throws Exception {
+    mCache = StatementCache.open(mDb, 4);
+
+    update().table("A").value("col_a", 1).where("_id=?", "1").perform(mOtherDb);
+
+    verify(mOtherDb).update(eq("A"), any(ContentValues.class), eq("(_id=?)"), eq(new String[] { "1" }));
+    verify(mOtherDb, never()).compileStatement(anyString());
+    assertThat(mCache.getMissCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldNotCacheStatementsOnOtherThreads() throws Exception {
+    mCache = StatementCache.open(mDb, 4);
+
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        delete().from("A").where("_id=?", 1L).perform(mDb);
+      }
+    });
+    thread.start();
+    thread.join();
+
+    verify(mStatement).close();
+    assertThat(mCache.size()).isEqualTo(0);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotAllowOpeningTwoCachesOnSameThread() throws Exception {
+    mCache = StatementCache.open(mDb, 4);
+    StatementCache.open(mOtherDb, 4);
+  }
+
+  @Test
+  public void shouldCompileStatementsEveryTimeAfterCacheIsClosed() throws Exception {
+    StatementCache.open(mDb, 4).close();
+
+    delete().from("A").where("_id=?", 1L).perform(mDb);
+    delete().from("A").where("_id=?", 1L).perform(mDb);
+
+    verify(mDb, times(2)).compileStatement(anyString());
+    verify(mStatement, times(2)).close();
+  }
+
+  private static ContentValues values(String column, int value) {
+    ContentValues values = new ContentValues();
+    values.put(column, value);
+    return values;
+  }
+}
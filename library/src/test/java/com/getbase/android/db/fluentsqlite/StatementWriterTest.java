@@ -0,0 +1,84 @@
+package com.getbase.android.db.fluentsqlite;
+
+import static com.getbase.android.db.fluentsqlite.Expressions.column;
+import static com.getbase.android.db.fluentsqlite.Query.select;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class StatementWriterTest {
+
+  @Test
+  public void shouldWriteStatementLongerThanEstimatedLength() throws Exception {
+    String column = Strings.repeat("c", 100);
+
+    StatementWriter writer = new StatementWriter(1, 0)
+        .append("SELECT ")
+        .appendJoined(", ", ImmutableList.of(column, column))
+        .append(' ')
+        .append("FROM t");
+
+    assertThat(writer.getSql()).isEqualTo("SELECT " + column + ", " + column + " FROM t");
+  }
+
+  @Test
+  public void shouldJoinParts() throws Exception {
+    StatementWriter writer = new StatementWriter(0, 0)
+        .appendJoined(", ", ImmutableList.of("a", "b"))
+        .append(" | ")
+        .appendJoined(", ", new String[] { "c", "d" })
+        .append(" | ")
+        .appendJoinedInParens(" AND ", ImmutableList.of("e", "f"));
+
+    assertThat(writer.getSql()).isEqualTo("a, b | c, d | (e) AND (f)");
+  }
+
+  @Test
+  public void shouldNotSeparateSinglePart() throws Exception {
+    StatementWriter writer = new StatementWriter(0, 0)
+        .appendJoined(", ", ImmutableList.of("a"))
+        .appendJoinedInParens(" AND ", ImmutableList.<String>of());
+
+    assertThat(writer.getSql()).isEqualTo("a");
+  }
+
+  @Test
+  public void shouldWriteSubqueryWithArgs() throws Exception {
+    Query subquery = select().column("id").from("t").where("a=?", 1).where("b=?", "x").build();
+
+    StatementWriter writer = new StatementWriter(0, 3)
+        .addArgs(new Object[] { 0 })
+        .append("SELECT * FROM ")
+        .appendSubquery(subquery);
+
+    assertThat(writer.getSql()).isEqualTo("SELECT * FROM (" + subquery.getSql() + ")");
+    assertThat(writer.getArgs()).asList().containsExactly(0, 1, "x").inOrder();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectMissingArgs() throws Exception {
+    new StatementWriter(0, 2).addArgs(ImmutableList.of(1)).getArgs();
+  }
+
+  @Test
+  public void shouldRenderQueryWithSubqueryLongerThanPartEstimate() throws Exception {
+    String longColumn = Strings.repeat("c", 200);
+    Query subquery = select().column(longColumn).from("t").where(column(longColumn).gt().arg(), 1).build();
+
+    Query query = select()
+        .from("u")
+        .where(column("id").in(subquery))
+        .build();
+
+    assertThat(query.getSql()).isEqualTo("SELECT * FROM u WHERE (id IN (" + subquery.getSql() + "))");
+    assertThat(query.getArgs()).asList().containsExactly(1);
+  }
+}
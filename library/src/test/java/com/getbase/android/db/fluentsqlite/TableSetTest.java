@@ -0,0 +1,70 @@
+package com.getbase.android.db.fluentsqlite;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class TableSetTest {
+
+  @Test
+  public void shouldContainOnlyGivenTables() throws Exception {
+    TableSet tableSet = TableSet.of("table_a", "table_b");
+
+    assertThat(tableSet.contains("table_a")).isTrue();
+    assertThat(tableSet.contains("table_b")).isTrue();
+    assertThat(tableSet.contains("table_c")).isFalse();
+    assertThat(tableSet.contains("table_never_registered")).isFalse();
+  }
+
+  @Test
+  public void shouldIgnoreCaseOfTableNames() throws Exception {
+    TableSet tableSet = TableSet.of("Table_A");
+
+    assertThat(tableSet.contains("table_a")).isTrue();
+    assertThat(tableSet.contains("TABLE_A")).isTrue();
+    assertThat(tableSet.intersects(TableSet.of("TABLE_a"))).isTrue();
+    assertThat(tableSet).isEqualTo(TableSet.of("table_a"));
+  }
+
+  @Test
+  public void shouldCheckIfTableSetsIntersect() throws Exception {
+    TableSet tableSet = TableSet.of("table_a", "table_b");
+
+    assertThat(tableSet.intersects(TableSet.of("table_b", "table_c"))).isTrue();
+    assertThat(tableSet.intersects(TableSet.of("table_c"))).isFalse();
+    assertThat(tableSet.intersects(TableSet.of())).isFalse();
+  }
+
+  @Test
+  public void shouldBeEqualRegardlessOfTablesOrder() throws Exception {
+    assertThat(TableSet.of("table_a", "table_b")).isEqualTo(TableSet.of("table_b", "table_a", "table_b"));
+    assertThat(TableSet.of("table_a", "table_b").hashCode()).isEqualTo(TableSet.of("table_b", "table_a").hashCode());
+    assertThat(TableSet.of("table_a")).isNotEqualTo(TableSet.of("table_b"));
+  }
+
+  @Test
+  public void shouldHandleMoreTablesThanFitInSingleWord() throws Exception {
+    List<String> tables = Lists.newArrayList();
+    for (int i = 0; i < 100; i++) {
+      tables.add("many_tables_" + i);
+    }
+    TableSet tableSet = TableSet.of(tables);
+
+    for (String table : tables) {
+      assertThat(tableSet.contains(table)).isTrue();
+    }
+    assertThat(tableSet.intersects(TableSet.of("many_tables_99"))).isTrue();
+    assertThat(TableSet.of("many_tables_99").intersects(tableSet)).isTrue();
+    assertThat(TableSet.of("many_tables_99").intersects(TableSet.of("many_tables_0"))).isFalse();
+  }
+
+  @Test
+  public void shouldBeEmptyWithoutTables() throws Exception {
+    assertThat(TableSet.of().isEmpty()).isTrue();
+    assertThat(TableSet.of("table_a").isEmpty()).isFalse();
+  }
+}
@@ -12,10 +12,15 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 
+import com.getbase.android.db.provider.Utils;
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableMap;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
@@ -25,6 +30,9 @@ import android.content.ContentValues;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteStatement;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest = Config.NONE)
 public class UpdateTest {
@@ -47,7 +55,7 @@ public class UpdateTest {
     update()
         .table("test")
         .value("num", 666)
-        .where("num=?", 0)
+        .where("num=?", "0")
         .perform(mDb);
 
     verify(mDb).update(
@@ -63,7 +71,7 @@ public class UpdateTest {
     update()
         .table("test")
         .value("num", 666)
-        .where("num=?", 0)
+        .where("num=?", "0")
         .perform(mDb);
 
     ArgumentCaptor<ContentValues> contentValuesArgument = ArgumentCaptor.forClass(ContentValues.class);
@@ -81,7 +89,7 @@ public class UpdateTest {
     update()
         .table("test")
         .value("num", 666)
-        .where("num=?", 0)
+        .where("num=?", "0")
         .perform(mDb);
 
     verify(mDb).update(
@@ -97,7 +105,7 @@ public class UpdateTest {
     update()
         .table("test")
         .value("num", 666)
-        .where("num=?", 0)
+        .where("num=?", "0")
         .where("t=?", "test")
         .perform(mDb);
 
@@ -114,7 +122,7 @@ public class UpdateTest {
     update()
         .table("test")
         .value("num", 666)
-        .where(column("num").eq().arg(), 0)
+        .where(column("num").eq().arg(), "0")
         .perform(mDb);
 
     verify(mDb).update(
@@ -125,6 +133,24 @@ public class UpdateTest {
     );
   }
 
+  @Test
+  public void shouldBindTypedSelectionArgsWithNativeTypes() throws Exception {
+    update()
+        .table("test")
+        .value("num", 666)
+        .where("num=? AND t=? AND d=?", 0, "test", 1.5)
+        .perform(mDb);
+
+    verify(mDb, never()).update(anyString(), any(ContentValues.class), anyString(), any(String[].class));
+    verify(mDb).compileStatement(eq("UPDATE test SET num=? WHERE (num=? AND t=? AND d=?)"));
+    verify(mStatement).bindLong(eq(1), eq(666L));
+    verify(mStatement).bindLong(eq(2), eq(0L));
+    verify(mStatement).bindString(eq(3), eq("test"));
+    verify(mStatement).bindDouble(eq(4), eq(1.5));
+    verify(mStatement).executeUpdateDelete();
+    verify(mStatement).close();
+  }
+
   @Test
   public void shouldUseSQLiteStatementWhenColumnExpressionIsUsed() throws Exception {
     update()
@@ -442,4 +468,87 @@ public class UpdateTest {
         .where((String) null, "I shall fail")
         .perform(mDb);
   }
+
+  @Test
+  public void shouldSetColumnToExpressionWithArgs() throws Exception {
+    update()
+        .table("table_a")
+        .setColumn("col_a", column("col_b").eq().arg(), 1L)
+        .perform(mDb);
+
+    verify(mDb).compileStatement(eq("UPDATE table_a SET col_a=(col_b == ?)"));
+    verify(mStatement).bindLong(1, 1L);
+  }
+
+  @Test
+  public void shouldUpdateManyRowsWithSingleCaseStatement() throws Exception {
+    when(mStatement.executeUpdateDelete()).thenReturn(2);
+
+    Map<Long, ContentValues> rows = new LinkedHashMap<>();
+    rows.put(1L, row("col_a", "a1"));
+    ContentValues second = row("col_a", "a2");
+    second.put("col_b", 2L);
+    rows.put(2L, second);
+
+    int updated = Update.updateMany("table_a", "_id", rows).perform(mDb);
+
+    assertThat(updated).isEqualTo(2);
+    verify(mDb).compileStatement(eq("UPDATE table_a SET " +
+        "col_a=(CASE (_id) WHEN (?) THEN (?) WHEN (?) THEN (?) ELSE (col_a) END), " +
+        "col_b=(CASE (_id) WHEN (?) THEN (?) ELSE (col_b) END) " +
+        "WHERE (_id IN (?, ?))"));
+
+    InOrder inOrder = inOrder(mStatement);
+    inOrder.verify(mStatement).bindLong(1, 1L);
+    inOrder.verify(mStatement).bindString(2, "a1");
+    inOrder.verify(mStatement).bindLong(3, 2L);
+    inOrder.verify(mStatement).bindString(4, "a2");
+    inOrder.verify(mStatement).bindLong(5, 2L);
+    inOrder.verify(mStatement).bindLong(6, 2L);
+    inOrder.verify(mStatement).bindLong(7, 1L);
+    inOrder.verify(mStatement).bindLong(8, 2L);
+    verify(mDb).setTransactionSuccessful();
+  }
+
+  @Test
+  public void shouldSplitManyRowsUpdateIntoChunksRespectingBoundArgsLimit() throws Exception {
+    when(mStatement.executeUpdateDelete()).thenReturn(333, 167);
+
+    Map<Long, ContentValues> rows = new LinkedHashMap<>();
+    for (long i = 0; i < 500; i++) {
+      rows.put(i, row("col_a", i));
+    }
+
+    int updated = Update.updateMany("table_a", "_id", rows).perform(mDb);
+
+    assertThat(updated).isEqualTo(500);
+    ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+    verify(mDb, times(2)).compileStatement(sql.capture());
+    assertThat(CharMatcher.is('?').countIn(sql.getAllValues().get(0))).isEqualTo(999);
+    assertThat(CharMatcher.is('?').countIn(sql.getAllValues().get(1))).isEqualTo(501);
+  }
+
+  @Test
+  public void shouldNotTouchDatabaseWhenThereIsNothingToUpdate() throws Exception {
+    Update.updateMany("table_a", "_id", ImmutableMap.of(1L, new ContentValues())).perform(mDb);
+
+    verifyZeroInteractions(mDb);
+  }
+
+  @Test
+  public void shouldRenderSameSqlRegardlessOfValuesOrder() throws Exception {
+    Update first = update().table("table_a").value("col_c", 3).value("col_a", 1).value("col_b", 2).where("_id=?", 1L);
+    Update second = update().table("table_a").value("col_b", 2).value("col_a", 1).value("col_c", 3).where("_id=?", 1L);
+
+    assertThat(first.getStatementSql()).isEqualTo("UPDATE table_a SET col_a=?, col_b=?, col_c=? WHERE (_id=?)");
+    assertThat(second.getStatementSql()).isEqualTo(first.getStatementSql());
+    assertThat(first.getStatementArgs()).containsExactly(1, 2, 3, 1L).inOrder();
+    assertThat(second.getStatementArgs()).containsExactly(1, 2, 3, 1L).inOrder();
+  }
+
+  private static ContentValues row(String column, Object value) {
+    ContentValues values = new ContentValues();
+    Utils.addToContentValues(column, value, values);
+    return values;
+  }
 }
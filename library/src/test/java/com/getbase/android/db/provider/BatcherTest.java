@@ -7,6 +7,7 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -76,6 +77,57 @@ public class BatcherTest {
     assertThat(backRefs).containsEntry(1, 1);
   }
 
+  @Test
+  public void shouldSplitOperationsWithWhereInArgsExceedingSelectionArgsLimit() throws Exception {
+    List<Long> ids = Lists.newArrayList();
+    for (long id = 0; id < 2000; id++) {
+      ids.add(id);
+    }
+
+    final Insert insert = ProviderAction.insert(Uri.EMPTY);
+    final ArrayList<ContentProviderOperation> operations = Batcher.begin()
+        .append(insert)
+        .append(ProviderAction.delete(Uri.EMPTY).where("contact_id=?", 0L).whereInArgs(BaseColumns._ID, ids))
+        .withSelectionBackReference(insert, 0)
+        .append(ProviderAction.insert(Uri.EMPTY))
+        .operations();
+
+    assertThat(operations).hasSize(5);
+    for (ContentProviderOperation operation : operations.subList(1, 4)) {
+      ShadowContentProviderOperation shadowOperation = Robolectric.shadowOf(operation);
+      assertThat(shadowOperation.getSelectionArgsBackReferences()).containsEntry(0, 0);
+    }
+  }
+
+  @Test
+  public void shouldResolveBackReferencesAroundSplitUpdate() throws Exception {
+    List<Long> ids = Lists.newArrayList();
+    for (long id = 0; id < 2000; id++) {
+      ids.add(id);
+    }
+
+    final Insert first = ProviderAction.insert(Uri.EMPTY);
+    final Insert second = ProviderAction.insert(Uri.EMPTY);
+    final ArrayList<ContentProviderOperation> operations = Batcher.begin()
+        .append(first)
+        .append(ProviderAction.update(Uri.EMPTY).value("parent_id", 0L).whereInArgs(BaseColumns._ID, ids))
+        .withValueBackReference(first, "parent_id")
+        .append(second)
+        .append(ProviderAction.insert(Uri.EMPTY))
+        .withValueBackReference(first, "parent_id")
+        .withValueBackReference(second, "another_parent_id")
+        .operations();
+
+    assertThat(operations).hasSize(6);
+    for (ContentProviderOperation operation : operations.subList(1, 4)) {
+      ShadowContentProviderOperation shadowOperation = Robolectric.shadowOf(operation);
+      assertThat(shadowOperation.getValuesBackReferences().get("parent_id")).isEqualTo(0);
+    }
+    ContentValues backRefs = Robolectric.shadowOf(operations.get(5)).getValuesBackReferences();
+    assertThat(backRefs.get("parent_id")).isEqualTo(0);
+    assertThat(backRefs.get("another_parent_id")).isEqualTo(4);
+  }
+
   @Test
   public void shouldGenerateProperListOfContentProviderOperations() throws Exception {
     final ArrayList<ContentProviderOperation> operations = Batcher.begin()
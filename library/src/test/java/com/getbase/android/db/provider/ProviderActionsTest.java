@@ -383,6 +383,76 @@ public class ProviderActionsTest {
         eq((String[]) null));
   }
 
+  @Test
+  public void shouldPassWhereInValuesAsSelectionArgs() throws Exception {
+    ProviderAction.query(TEST_URI)
+        .whereInArgs("col1", Lists.newArrayList(1L, "two", 3L))
+        .where("col2 = ?", "arg")
+        .perform(contentResolverMock);
+    verify(contentResolverMock).query(eq(TEST_URI),
+        eq((String[]) null),
+        eq("(col2 = ?) AND (col1 IN (?,?,?))"),
+        eq(new String[] { "arg", "1", "two", "3" }),
+        eq((String) null));
+  }
+
+  @Test
+  public void shouldSplitDeleteWithWhereInArgsExceedingSelectionArgsLimit() throws Exception {
+    when(contentResolverMock.delete(any(Uri.class), anyString(), any(String[].class))).thenReturn(2);
+
+    List<Long> ids = Lists.newArrayList();
+    for (long id = 0; id < 1500; id++) {
+      ids.add(id);
+    }
+
+    int deleted = ProviderAction.delete(TEST_URI)
+        .where("col2 = ?", "arg")
+        .whereInArgs("col1", ids)
+        .perform(contentResolverMock);
+
+    assertThat(deleted).isEqualTo(4);
+    ArgumentCaptor<String[]> selectionArgs = ArgumentCaptor.forClass(String[].class);
+    verify(contentResolverMock, times(2)).delete(eq(TEST_URI), anyString(), selectionArgs.capture());
+    assertThat(selectionArgs.getAllValues().get(0)).hasLength(999);
+    assertThat(selectionArgs.getAllValues().get(0)[0]).isEqualTo("arg");
+    assertThat(selectionArgs.getAllValues().get(1)).hasLength(503);
+    assertThat(selectionArgs.getAllValues().get(1)[0]).isEqualTo("arg");
+    assertThat(selectionArgs.getAllValues().get(1)[1]).isEqualTo("998");
+  }
+
+  @Test
+  public void shouldSplitUpdateWithWhereInArgsExceedingSelectionArgsLimit() throws Exception {
+    List<Long> ids = Lists.newArrayList();
+    for (long id = 0; id < 1000; id++) {
+      ids.add(id);
+    }
+
+    ProviderAction.update(TEST_URI)
+        .value("col2", "value")
+        .whereInArgs("col1", ids)
+        .perform(contentResolverMock);
+
+    verify(contentResolverMock, times(2)).update(eq(TEST_URI), any(ContentValues.class), anyString(), any(String[].class));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotAllowOrderingQuerySplitIntoSeveralQueries() throws Exception {
+    List<Long> ids = Lists.newArrayList();
+    for (long id = 0; id < 1000; id++) {
+      ids.add(id);
+    }
+
+    ProviderAction.query(TEST_URI)
+        .whereInArgs("col1", ids)
+        .orderBy("col1")
+        .perform(contentResolverMock);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldNotAllowNullsInWhereInArgs() throws Exception {
+    ProviderAction.delete(TEST_URI).whereInArgs("col1", Lists.newArrayList(1L, null));
+  }
+
   @Test
   public void shouldAlwaysPassNonNullContentValuesOnInsert() throws Exception {
     ProviderAction.insert(TEST_URI)